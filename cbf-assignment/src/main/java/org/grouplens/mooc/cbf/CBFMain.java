@@ -8,7 +8,9 @@ import org.grouplens.lenskit.core.LenskitConfiguration;
 import org.grouplens.lenskit.core.LenskitRecommender;
 import org.grouplens.lenskit.data.dao.EventDAO;
 import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.dao.ItemEventDAO;
 import org.grouplens.lenskit.data.dao.UserDAO;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
 import org.grouplens.lenskit.scored.ScoredId;
 import org.grouplens.mooc.cbf.dao.*;
 import org.slf4j.Logger;
@@ -83,6 +85,11 @@ public class CBFMain {
         // configure the rating data source
         config.bind(EventDAO.class)
                 .to(MOOCRatingDAO.class);
+        // and serve user and item lookups from its indexes
+        config.bind(UserEventDAO.class)
+                .to(MOOCRatingDAO.class);
+        config.bind(ItemEventDAO.class)
+                .to(MOOCRatingDAO.class);
         config.set(RatingFile.class)
                 .to(new File("data/ratings.csv"));
 
@@ -108,6 +115,9 @@ public class CBFMain {
         // use the TF-IDF scorer you will implement to score items
         config.bind(ItemScorer.class)
                 .to(TFIDFItemScorer.class);
+        // and recommend through the tag index rather than scoring every item
+        config.bind(ItemRecommender.class)
+                .to(TFIDFItemRecommender.class);
         return config;
     }
 }
\ No newline at end of file
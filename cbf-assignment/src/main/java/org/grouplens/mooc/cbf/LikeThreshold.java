@@ -0,0 +1,22 @@
+package org.grouplens.mooc.cbf;
+
+import org.grouplens.grapht.annotation.DefaultDouble;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the lowest rating with which a user likes an item.  Only liked items
+ * contribute to a user's TF-IDF profile.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Documented
+@Qualifier
+@DefaultDouble(3.5)
+@Parameter(Double.class)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface LikeThreshold {
+}
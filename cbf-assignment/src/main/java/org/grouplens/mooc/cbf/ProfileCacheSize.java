@@ -0,0 +1,22 @@
+package org.grouplens.mooc.cbf;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the number of user profiles kept by the {@link UserProfileCache}.  If 0,
+ * each request builds its user's profile afresh.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Documented
+@Qualifier
+@DefaultInteger(1000)
+@Parameter(Integer.class)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ProfileCacheSize {
+}
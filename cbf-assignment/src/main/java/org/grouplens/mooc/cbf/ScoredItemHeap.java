@@ -0,0 +1,114 @@
+package org.grouplens.mooc.cbf;
+
+import org.grouplens.lenskit.scored.ScoredId;
+import org.grouplens.lenskit.util.TopNScoredItemAccumulator;
+
+import java.util.List;
+
+/**
+ * A bounded min-heap of scored items, keeping the <i>n</i> highest-scoring items offered to it.
+ * Unlike {@link TopNScoredItemAccumulator}, it exposes the lowest retained score, so a search can
+ * stop early once no remaining item can enter the heap.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+final class ScoredItemHeap {
+    private final int capacity;
+    private final long[] items;
+    private final double[] scores;
+    private int size;
+
+    ScoredItemHeap(int n) {
+        capacity = n;
+        items = new long[n];
+        scores = new double[n];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Get the lowest score in the heap.
+     *
+     * @return The lowest score retained, or negative infinity if the heap is not yet full.
+     */
+    public double getThreshold() {
+        return isFull() ? scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Offer an item to the heap.
+     *
+     * @param item  The item ID.
+     * @param score The item's score.
+     */
+    public void offer(long item, double score) {
+        if (size < capacity) {
+            items[size] = item;
+            scores[size] = score;
+            siftUp(size);
+            size += 1;
+        } else if (capacity > 0 && score > scores[0]) {
+            items[0] = item;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Get the retained items in decreasing order of score.
+     *
+     * @return The list of scored items.
+     */
+    public List<ScoredId> finish() {
+        TopNScoredItemAccumulator accum = new TopNScoredItemAccumulator(Math.max(size, 1));
+        for (int i = 0; i < size; i++) {
+            accum.put(items[i], scores[i]);
+        }
+        size = 0;
+        return accum.finish();
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (scores[parent] <= scores[i]) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                break;
+            }
+            int min = left;
+            if (left + 1 < size && scores[left + 1] < scores[left]) {
+                min = left + 1;
+            }
+            if (scores[i] <= scores[min]) {
+                break;
+            }
+            swap(i, min);
+            i = min;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long ti = items[i];
+        items[i] = items[j];
+        items[j] = ti;
+        double ts = scores[i];
+        scores[i] = scores[j];
+        scores[j] = ts;
+    }
+}
@@ -0,0 +1,131 @@
+package org.grouplens.mooc.cbf;
+
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.vectors.MutableSparseVector;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.grouplens.mooc.cbf.dao.CSVItemTagDAO;
+import org.grouplens.mooc.cbf.dao.MOOCRatingDAO;
+import org.grouplens.mooc.cbf.dao.MOOCUserDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multithreaded stress test of the {@link TFIDFItemScorer}.  Two scorers with different
+ * {@link LikeThreshold}s, each with its own small profile cache so profiles are evicted and
+ * rebuilt while other threads read them, are used concurrently by a growing number of threads.
+ * Every score is checked against scores computed on a single thread beforehand, and the
+ * throughput at each thread count is reported with its speedup over one thread.  The arguments
+ * are the thread counts to try; by default, it tries powers of two up to the number of available
+ * processors.  The exit status is 1 if any score differed.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class ScoringStressTest {
+    private static final Logger logger = LoggerFactory.getLogger(ScoringStressTest.class);
+    private static final int ROUNDS = 5;
+    private static final int CACHE_SIZE = 100;
+
+    public static void main(String[] args) throws InterruptedException {
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        for (String arg : args) {
+            threadCounts.add(Integer.parseInt(arg));
+        }
+        if (threadCounts.isEmpty()) {
+            int nprocs = Runtime.getRuntime().availableProcessors();
+            for (int n = 1; n < nprocs; n *= 2) {
+                threadCounts.add(n);
+            }
+            threadCounts.add(nprocs);
+        }
+
+        CSVItemTagDAO items = new CSVItemTagDAO(new File("data/movie-titles.csv"),
+                                                new File("data/movie-tags.csv"));
+        UserEventDAO events = new MOOCRatingDAO(new File("data/ratings.csv"));
+        final long[] users = new MOOCUserDAO(new File("data/users.csv")).getUserIds().toLongArray();
+        final LongSet itemIds = items.getItemIds();
+        TFIDFModel model = new TFIDFModelBuilder(items).get();
+        final TFIDFItemScorer[] scorers = {
+                new TFIDFItemScorer(model, new UserProfileCache(model, events, 3.5, CACHE_SIZE)),
+                new TFIDFItemScorer(model, new UserProfileCache(model, events, 4.0, CACHE_SIZE))
+        };
+
+        logger.info("computing reference scores for {} users", users.length);
+        final SparseVector[][] expected = new SparseVector[scorers.length][users.length];
+        for (int s = 0; s < scorers.length; s++) {
+            for (int u = 0; u < users.length; u++) {
+                expected[s][u] = score(scorers[s], users[u], itemIds);
+            }
+        }
+
+        final AtomicLong mismatches = new AtomicLong();
+        System.out.println("Threads,Seconds,RequestsPerSecond,Speedup,Mismatches");
+        double baseRate = 0;
+        for (final int nthreads : threadCounts) {
+            ExecutorService exec = Executors.newFixedThreadPool(nthreads);
+            List<Callable<Long>> workers = new ArrayList<Callable<Long>>();
+            for (int t = 0; t < nthreads; t++) {
+                final int offset = t;
+                workers.add(new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        long requests = 0;
+                        // each round, this thread scores every nthreads'th user with both scorers
+                        for (int r = 0; r < ROUNDS; r++) {
+                            for (int u = offset; u < users.length; u += nthreads) {
+                                int s = (u + r) % scorers.length;
+                                SparseVector scores = score(scorers[s], users[u], itemIds);
+                                if (!scores.equals(expected[s][u])) {
+                                    mismatches.incrementAndGet();
+                                }
+                                requests += 1;
+                            }
+                        }
+                        return requests;
+                    }
+                });
+            }
+            mismatches.set(0);
+            long requests = 0;
+            long start = System.nanoTime();
+            try {
+                for (Future<Long> result : exec.invokeAll(workers)) {
+                    requests += result.get();
+                }
+            } catch (ExecutionException e) {
+                throw new RuntimeException("scoring thread failed", e.getCause());
+            } finally {
+                exec.shutdown();
+            }
+            double seconds = (System.nanoTime() - start) / 1.0e9;
+            double rate = requests / seconds;
+            if (baseRate == 0) {
+                baseRate = rate;
+            }
+            System.out.format(Locale.ROOT, "%d,%.3f,%.1f,%.2f,%d\n",
+                              nthreads, seconds, rate, rate / baseRate, mismatches.get());
+            if (mismatches.get() > 0) {
+                logger.error("{} requests on {} threads produced different scores",
+                             mismatches.get(), nthreads);
+                System.exit(1);
+            }
+        }
+    }
+
+    private static SparseVector score(TFIDFItemScorer scorer, long user, LongSet items) {
+        MutableSparseVector scores = MutableSparseVector.create(items);
+        scorer.score(user, scores);
+        return scores.freeze();
+    }
+}
@@ -0,0 +1,151 @@
+package org.grouplens.mooc.cbf;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.basic.AbstractItemRecommender;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.history.UserHistory;
+import org.grouplens.lenskit.scored.ScoredId;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * TF-IDF item recommender.  Rather than scoring every item, it walks the posting lists of the
+ * user's profile tags in the {@link TagIndex}, so only items sharing a tag with the profile are
+ * ever scored, and uses the max-score method to skip most of those as well: once the top-N is
+ * full, the tags whose combined score bound cannot lift an item above the N-th score are only
+ * used to finish scoring items found through the other tags, and an item is abandoned as soon as
+ * its partial score plus the bound of its unscored tags falls to the N-th score.
+ * <p>
+ * Scores are the same as those of {@link TFIDFItemScorer}.  Items that share no tag with the
+ * profile have a score of zero and are never recommended, so when fewer than <i>n</i> unrated
+ * items share a tag with the profile, fewer than <i>n</i> items are returned.  A recommender
+ * built on the item scorer would fill the rest of the list with zero-scored items instead.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class TFIDFItemRecommender extends AbstractItemRecommender {
+    private final TFIDFModel model;
+    private final TagIndex index;
+    private final UserProfileCache profiles;
+    private final UserEventDAO userEvents;
+
+    /**
+     * Construct a TF-IDF item recommender.
+     *
+     * @param m     The TF-IDF model.
+     * @param idx   The tag index over the model.
+     * @param pc    The cache of user profiles.
+     * @param uedao A DAO to get user rating profiles, to exclude items the user has rated.
+     */
+    @Inject
+    public TFIDFItemRecommender(TFIDFModel m, TagIndex idx, UserProfileCache pc,
+                                UserEventDAO uedao) {
+        model = m;
+        index = idx;
+        profiles = pc;
+        userEvents = uedao;
+    }
+
+    @Override
+    protected List<ScoredId> recommend(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
+        if (n == 0) {
+            return Collections.emptyList();
+        }
+        if (exclude == null) {
+            exclude = getRatedItems(user);
+        }
+        UserProfile profile = profiles.getProfile(user);
+        ScoredItemHeap heap = new ScoredItemHeap(n < 0 ? model.getItemCount() : n);
+
+        // order the profile's tags by increasing score bound
+        final int m = profile.size();
+        Integer[] order = new Integer[m];
+        final double[] bounds = new double[m];
+        for (int k = 0; k < m; k++) {
+            order[k] = k;
+            bounds[k] = profile.getWeight(k) * index.getMaxWeight(profile.getTag(k));
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(bounds[a], bounds[b]);
+            }
+        });
+        double[] queryWeights = new double[m];
+        int[] cursors = new int[m];
+        int[] ends = new int[m];
+        // cumBounds[k] is the most an item can get from tags 0 through k
+        double[] cumBounds = new double[m];
+        for (int k = 0; k < m; k++) {
+            int tag = profile.getTag(order[k]);
+            queryWeights[k] = profile.getWeight(order[k]);
+            cursors[k] = index.getPostingStart(tag);
+            ends[k] = index.getPostingEnd(tag);
+            cumBounds[k] = bounds[order[k]] + (k > 0 ? cumBounds[k - 1] : 0);
+        }
+
+        // tags before firstEssential cannot make an item competitive on their own
+        int firstEssential = 0;
+        double threshold = Double.NEGATIVE_INFINITY;
+        while (firstEssential < m) {
+            // the next item is the smallest one left in the essential lists
+            int item = Integer.MAX_VALUE;
+            for (int k = firstEssential; k < m; k++) {
+                if (cursors[k] < ends[k] && index.getItem(cursors[k]) < item) {
+                    item = index.getItem(cursors[k]);
+                }
+            }
+            if (item == Integer.MAX_VALUE) {
+                break;
+            }
+
+            double score = 0;
+            for (int k = firstEssential; k < m; k++) {
+                if (cursors[k] < ends[k] && index.getItem(cursors[k]) == item) {
+                    score += queryWeights[k] * index.getWeight(cursors[k]);
+                    cursors[k] += 1;
+                }
+            }
+            long itemId = model.getItemId(item);
+            if (exclude.contains(itemId) || (candidates != null && !candidates.contains(itemId))) {
+                continue;
+            }
+            boolean competitive = true;
+            for (int k = firstEssential - 1; k >= 0; k--) {
+                if (score + cumBounds[k] <= threshold) {
+                    competitive = false;
+                    break;
+                }
+                cursors[k] = index.seek(cursors[k], ends[k], item);
+                if (cursors[k] < ends[k] && index.getItem(cursors[k]) == item) {
+                    score += queryWeights[k] * index.getWeight(cursors[k]);
+                }
+            }
+            if (competitive) {
+                heap.offer(itemId, score);
+                if (heap.isFull() && heap.getThreshold() > threshold) {
+                    threshold = heap.getThreshold();
+                    while (firstEssential < m && cumBounds[firstEssential] <= threshold) {
+                        firstEssential += 1;
+                    }
+                }
+            }
+        }
+        return heap.finish();
+    }
+
+    private LongSet getRatedItems(long user) {
+        UserHistory<Rating> history = userEvents.getEventsForUser(user, Rating.class);
+        if (history == null) {
+            return new LongOpenHashSet();
+        }
+        return history.itemSet();
+    }
+}
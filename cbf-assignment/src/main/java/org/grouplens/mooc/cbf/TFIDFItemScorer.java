@@ -1,36 +1,40 @@
 package org.grouplens.mooc.cbf;
 
 import org.grouplens.lenskit.basic.AbstractItemScorer;
-import org.grouplens.lenskit.data.dao.UserEventDAO;
-import org.grouplens.lenskit.data.event.Rating;
-import org.grouplens.lenskit.data.history.History;
-import org.grouplens.lenskit.data.history.RatingVectorUserHistorySummarizer;
-import org.grouplens.lenskit.data.history.UserHistory;
 import org.grouplens.lenskit.vectors.MutableSparseVector;
-import org.grouplens.lenskit.vectors.SparseVector;
 import org.grouplens.lenskit.vectors.VectorEntry;
 
 import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
 /**
+ * Item scorer that scores each item by the cosine similarity of its TF-IDF tag vector with the
+ * user's {@linkplain UserProfile profile}.  Both are unit vectors, so each score is a single
+ * sparse dot product.
+ * <p>
+ * The scorer holds no per-request state: the model is immutable, the profile cache is
+ * thread-safe, and each request scatters its profile into its own array.  One scorer can
+ * therefore serve many threads, and any number of scorers over different data can coexist.
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
+@ThreadSafe
 public class TFIDFItemScorer extends AbstractItemScorer {
-    public static UserEventDAO userEvents;
     private final TFIDFModel model;
+    private final UserProfileCache profiles;
 
     /**
      * Construct a new item scorer.  LensKit's dependency injector will call this constructor and
      * provide the appropriate parameters.
      *
-     * @param dao The user-event DAO, so we can fetch a user's ratings when scoring items for them.
-     * @param m   The precomputed model containing the item tag vectors.
+     * @param m  The precomputed model containing the item tag vectors.
+     * @param pc The cache of user profiles, built from the users' ratings.
      */
     @Inject
-    public TFIDFItemScorer(UserEventDAO dao, TFIDFModel m) {
-        this.userEvents = dao;
+    public TFIDFItemScorer(TFIDFModel m, UserProfileCache pc) {
         model = m;
+        profiles = pc;
     }
 
     /**
@@ -40,43 +44,29 @@ public class TFIDFItemScorer extends AbstractItemScorer {
      * @param user   The user to score for.
      * @param output The output vector.  The contract of this method is that the caller creates a
      *               vector whose possible keys are all items that should be scored; this method
-     *               fills in the scores.
+     *               fills in the scores.  Items the model does not know, and all items for users
+     *               who like nothing, are left unscored.
      */
     @Override
     public void score(long user, @Nonnull MutableSparseVector output) {
-        // Get the user's profile, which is a vector with their 'like' for each tag
-        SparseVector userVector = makeUserVector(user);
+        // Get the user's profile, which is a unit vector with their 'like' for each tag
+        UserProfile profile = profiles.getProfile(user);
+        if (profile.isEmpty()) {
+            output.clear();
+            return;
+        }
+        double[] dense = new double[model.getTagCount()];
+        profile.scatter(dense);
 
         // Loop over each item requested and score it.
         // The *domain* of the output vector is the items that we are to score.
         for (VectorEntry e : output.fast(VectorEntry.State.EITHER)) {
-            // Score the item represented by 'e'.
-            // Get the item vector for this item
-            SparseVector iv = model.getItemVector(e.getKey());
-            // TODO Compute the cosine of this item and the user's profile, store it in the output vector
-            // TODO And remove this exception to say you've implemented it
-
-//            cos(u,i)=u⃗ ⋅i⃗ ∥u⃗ ∥2∥i⃗ ∥2=∑tutit∑tu2t‾‾‾‾‾‾√∑ti2t‾‾‾‾‾√
-
-            double similarity = userVector.dot(iv) / (userVector.norm() * iv.norm());
-            double score = userVector.mean() + similarity;
-
-            output.set(e, score);
-//            throw new UnsupportedOperationException("stub implementation");
-
-        }
-    }
-
-    private SparseVector makeUserVector(long user) {
-
-//        TODO Get the item's vector and add it to the user's profile
-
-        UserHistory<Rating> history = userEvents.getEventsForUser(user, Rating.class);
-        if (history == null) {
-            history = History.forUser(user);
+            int idx = model.getItemIndex(e.getKey());
+            if (idx >= 0) {
+                output.set(e, profile.cosine(model, idx, dense));
+            } else {
+                output.unset(e);
+            }
         }
-        // The profile is accumulated, return it.
-        // It is good practice to return a frozen vector.
-        return RatingVectorUserHistorySummarizer.makeRatingVector(history);
     }
 }
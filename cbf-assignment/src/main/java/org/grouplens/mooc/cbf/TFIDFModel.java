@@ -6,11 +6,17 @@ import org.grouplens.lenskit.vectors.MutableSparseVector;
 import org.grouplens.lenskit.vectors.SparseVector;
 
 import java.io.Serializable;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * The model for a TF-IDF recommender.  The model just remembers the normalized tag vector for each
  * item.
+ * <p>
+ * Tags are identified by the dense integer IDs assigned by the
+ * {@linkplain org.grouplens.mooc.cbf.dao.ItemTagDAO item-tag DAO}.  The vectors are stored in
+ * compressed sparse rows: the vector of the item at index <i>i</i> in the sorted item array
+ * occupies positions {@code offsets[i]} to {@code offsets[i + 1]} of the parallel tag ID and
+ * weight arrays, sorted by tag ID.
  *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  * @see TFIDFModelBuilder
@@ -20,24 +26,39 @@ import java.util.Map;
 // This model class will be built by the model builder
 @DefaultProvider(TFIDFModelBuilder.class)
 public class TFIDFModel implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
-    private final Map<String, Long> tagIds;
-    private final Map<Long, SparseVector> itemVectors;
+    private final int tagCount;
+    private final long[] items;
+    private final int[] offsets;
+    private final int[] tags;
+    private final double[] weights;
 
     /**
      * Constructor for the model.  This is package-private; the only way to build a model is with
      * the {@linkplain TFIDFModelBuilder model builder}.
-     * <p/>
-     * In a LensKit model designed for a large data set, these would be optimized fastutil maps for
-     * efficiency.
      *
-     * @param tagIds      A map of tags to their IDs.
-     * @param itemVectors A map of item IDs to tag vectors.
+     * @param ntags   The number of tag IDs.
+     * @param items   The item IDs, sorted.
+     * @param offsets The start of each item's vector, followed by the end of the last.
+     * @param tags    The tag IDs of the vector entries.
+     * @param weights The normalized TF-IDF weights of the vector entries.
      */
-    TFIDFModel(Map<String, Long> tagIds, Map<Long, SparseVector> itemVectors) {
-        this.tagIds = tagIds;
-        this.itemVectors = itemVectors;
+    TFIDFModel(int ntags, long[] items, int[] offsets, int[] tags, double[] weights) {
+        tagCount = ntags;
+        this.items = items;
+        this.offsets = offsets;
+        this.tags = tags;
+        this.weights = weights;
+    }
+
+    /**
+     * Get the number of tag IDs.
+     *
+     * @return The number of tags; tag IDs are less than this number.
+     */
+    public int getTagCount() {
+        return tagCount;
     }
 
     /**
@@ -47,11 +68,75 @@ public class TFIDFModel implements Serializable {
      * @return A fresh vector over tag IDs.
      */
     public MutableSparseVector newTagVector() {
-        return MutableSparseVector.create(tagIds.values());
+        long[] keys = new long[tagCount];
+        for (int i = 0; i < tagCount; i++) {
+            keys[i] = i;
+        }
+        MutableSparseVector vec = MutableSparseVector.wrap(keys, new double[tagCount]);
+        vec.clear();
+        return vec;
+    }
+
+    /**
+     * Get the number of items in the model.
+     *
+     * @return The number of items.
+     */
+    public int getItemCount() {
+        return items.length;
+    }
+
+    /**
+     * Get the ID of the item at an index.
+     *
+     * @param idx The item index.
+     * @return The item ID.
+     */
+    public long getItemId(int idx) {
+        return items[idx];
+    }
+
+    /**
+     * Get the index of an item.
+     *
+     * @param item The item ID.
+     * @return The item's index, or a negative value if the item is not known to the model.
+     */
+    public int getItemIndex(long item) {
+        return Arrays.binarySearch(items, item);
+    }
+
+    public int getVectorStart(int idx) {
+        return offsets[idx];
+    }
+
+    public int getVectorEnd(int idx) {
+        return offsets[idx + 1];
+    }
+
+    /**
+     * Get the tag of a vector entry.
+     *
+     * @param pos The entry position.
+     * @return The tag ID of the entry.
+     */
+    public int getTag(int pos) {
+        return tags[pos];
     }
 
     /**
-     * Get the tag vector for a particular item.
+     * Get the weight of a vector entry.
+     *
+     * @param pos The entry position.
+     * @return The normalized TF-IDF weight of the entry.
+     */
+    public double getWeight(int pos) {
+        return weights[pos];
+    }
+
+    /**
+     * Get the tag vector for a particular item.  This copies the vector out of the model; scoring
+     * code should use the entry accessors instead.
      *
      * @param item The item.
      * @return The item's tag vector.  If the item is not known to the model, then this vector is
@@ -59,12 +144,18 @@ public class TFIDFModel implements Serializable {
      */
     public SparseVector getItemVector(long item) {
         // Look up the item
-        SparseVector vec = itemVectors.get(item);
-        if (vec == null) {
+        int idx = getItemIndex(item);
+        if (idx < 0) {
             // We don't know the item! Return an empty vector
             return SparseVector.empty();
-        } else {
-            return vec;
         }
+        int start = offsets[idx];
+        int n = offsets[idx + 1] - start;
+        long[] keys = new long[n];
+        for (int k = 0; k < n; k++) {
+            keys[k] = tags[start + k];
+        }
+        return MutableSparseVector.wrap(keys, Arrays.copyOfRange(weights, start, start + n))
+                                  .freeze();
     }
 }
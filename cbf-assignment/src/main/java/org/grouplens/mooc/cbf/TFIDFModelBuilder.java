@@ -1,21 +1,14 @@
 package org.grouplens.mooc.cbf;
 
-import com.google.common.collect.Maps;
-import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import org.grouplens.lenskit.core.Transient;
-import org.grouplens.lenskit.vectors.MutableSparseVector;
-import org.grouplens.lenskit.vectors.SparseVector;
-import org.grouplens.lenskit.vectors.VectorEntry;
 import org.grouplens.mooc.cbf.dao.ItemTagDAO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
 
 /**
  * Builder for computing {@linkplain TFIDFModel TF-IDF models} from item tag data.  Each item is
@@ -47,132 +40,77 @@ public class TFIDFModelBuilder implements Provider<TFIDFModel> {
 
     /**
      * This method is where the model should actually be computed.
+     * <p>
+     * The DAO has already interned the tags to dense IDs, so the term and document frequencies
+     * are counted in plain arrays in a single pass over the items, and the vectors are written
+     * straight into the model's compressed rows.
      *
      * @return The TF-IDF model (a model of item tag vectors).
      */
     @Override
     public TFIDFModel get() {
-        // Build a map of tags to numeric IDs.  This lets you convert tags (which are strings)
-        // into long IDs that you can use as keys in a tag vector.
-        Map<String, Long> tagIds = buildTagIdMap();
-
-        // Create a vector to accumulate document frequencies for the IDF computation
-        MutableSparseVector docFreq = MutableSparseVector.create(tagIds.values());
-        docFreq.fill(0);
-
-        // We now proceed in 2 stages. First, we build a TF vector for each item.
-        // While we do this, we also build the DF vector.
-        // We will then apply the IDF to each TF vector and normalize it to a unit vector.
-
-        // Create a map to store the item TF vectors.
-        Map<Long, MutableSparseVector> itemVectors = Maps.newHashMap();
-
-        // Create a work vector to accumulate each item's tag vector.
-        // This vector will be re-used for each item.
-        MutableSparseVector work = MutableSparseVector.create(tagIds.values());
-
-        // Iterate over the items to compute each item's vector.
-        LongSet items = dao.getItemIds();
-        for (long item : items) {
-            // Reset the work vector for this item's tags.
-            work.clear();
-            // Now the vector is empty (all keys are 'unset').
-
-            // TODO Populate the work vector with the number of times each tag is applied to this item.
-
-            List<String> itemTagsList = dao.getItemTags(item);
-
-            Set<String> itemTagSet = new HashSet<String>(itemTagsList);
-
-            for (String eachItemTag : itemTagsList) {
-
-                if (work.containsKey(tagIds.get(eachItemTag))) {
-
-                    work.set(tagIds.get(eachItemTag), work.get(tagIds.get(eachItemTag)) + 1);
-//                    logger.info("working on TF{}", tagIds.get(eachItemTag));
-
-                } else {
-                    work.set(tagIds.get(eachItemTag), 1);
+        final int ntags = dao.getTagCount();
+        long[] items = dao.getItemIds().toLongArray();
+        Arrays.sort(items);
+        final int nitems = items.length;
+
+        // The document frequency of each tag
+        int[] docFreq = new int[ntags];
+        // The term frequencies of the current item, and the tags it has
+        int[] termFreq = new int[ntags];
+        int[] itemTags = new int[ntags];
+
+        // First, we count the TF of each item's tags into its row, and the DF of each tag.
+        int[] offsets = new int[nitems + 1];
+        IntArrayList tags = new IntArrayList();
+        IntArrayList counts = new IntArrayList();
+        for (int i = 0; i < nitems; i++) {
+            int n = 0;
+            for (int tag : dao.getItemTagIds(items[i])) {
+                if (termFreq[tag] == 0) {
+                    itemTags[n++] = tag;
+                    docFreq[tag] += 1;
                 }
-                // TODO Increment the document frequency vector once for each unique tag on the item.
-                if (docFreq.containsKey(tagIds.get(eachItemTag))) {
-
-                    docFreq.set(tagIds.get(eachItemTag), docFreq.get(tagIds.get(eachItemTag)) + 1);
-                } else {
-                    docFreq.set(tagIds.get(eachItemTag), 1);
-                }
-
-
+                termFreq[tag] += 1;
             }
-
-
-            // Save a shrunk copy of the vector (only storing tags that apply to this item) in
-            // our map, we'll add IDF and normalize later.
-            itemVectors.put(item, work.shrinkDomain());
-            // work is ready to be reset and re-used for the next item
+            // store the row in tag order, so vectors can be merged
+            Arrays.sort(itemTags, 0, n);
+            for (int k = 0; k < n; k++) {
+                tags.add(itemTags[k]);
+                counts.add(termFreq[itemTags[k]]);
+                termFreq[itemTags[k]] = 0;
+            }
+            offsets[i + 1] = tags.size();
         }
 
-        // Now we've seen all the items, so we have each item's TF vector and a global vector
-        // of document frequencies.
-        // Invert and log the document frequency.  We can do this in-place.
-        double numOfMovies = dao.getItemIds().size();
-        for (VectorEntry e : docFreq.fast()) {
-
-            // TODO Update this document frequency entry to be a log-IDF value
-            double iDF = Math.log(numOfMovies / e.getValue());
-            docFreq.set(e.getKey(), iDF);
+        // Now we've seen all the items, so we can compute the log-IDF of each tag.
+        double[] idf = new double[ntags];
+        for (int t = 0; t < ntags; t++) {
+            if (docFreq[t] > 0) {
+                idf[t] = Math.log(nitems / (double) docFreq[t]);
+            }
         }
 
-        // Now docFreq is a log-IDF vector.
-        // So we can use it to apply IDF to each item vector to put it in the final model.
-        // Create a map to store the final model data.
-        Map<Long, SparseVector> modelData = Maps.newHashMap();
-        for (Map.Entry<Long, MutableSparseVector> entry : itemVectors.entrySet()) {
-            MutableSparseVector tv = entry.getValue();
-            // TODO Convert this vector to a TF-IDF vector
-
-            for (VectorEntry eachTag : tv.fast()) {
-
-                tv.set(eachTag.getKey(), eachTag.getValue() * docFreq.get(eachTag.getKey()));
+        // Apply the IDF to each TF vector and normalize it to a unit vector, in place.
+        int[] tagArray = tags.toIntArray();
+        double[] weightArray = new double[tagArray.length];
+        for (int i = 0; i < nitems; i++) {
+            double ssq = 0;
+            for (int p = offsets[i]; p < offsets[i + 1]; p++) {
+                weightArray[p] = counts.getInt(p) * idf[tagArray[p]];
+                ssq += weightArray[p] * weightArray[p];
+            }
+            // a vector of tags on every item has no length; leave it as zeros
+            if (ssq > 0) {
+                double scale = 1 / Math.sqrt(ssq);
+                for (int p = offsets[i]; p < offsets[i + 1]; p++) {
+                    weightArray[p] *= scale;
+                }
             }
-            // TODO Normalize the TF-IDF vector to be a unit vector
-
-            double lengthOfMovieVector = tv.norm();
-
-//            System.out.println(lengthOfMovieVector+" \t"+1/lengthOfMovieVector);
-
-            tv.multiply(1 / lengthOfMovieVector);
-
-            // HINT The method tv.norm() will give you the Euclidian length of the vector
-//            Once you have the TFIDF vector, you could perform the unit normalization in one step using the multiply method provided for sparse vectors.
-//            The syntax goes like tv.multiply(d) where d is of type double.  For unit normalization you need to multiply by 1/tv.norm()
-
-            // Store a frozen (immutable) version of the vector in the model data.
-            modelData.put(entry.getKey(), tv.freeze());
         }
+        logger.info("built TF-IDF vectors for {} items over {} tags", nitems, ntags);
 
         // we technically don't need the IDF vector anymore, so long as we have no new tags
-        return new TFIDFModel(tagIds, modelData);
-
-    }
-
-    /**
-     * Build a mapping of tags to numeric IDs.
-     *
-     * @return A mapping from tags to IDs.
-     */
-    private Map<String, Long> buildTagIdMap() {
-        // Get the universe of all tags
-        Set<String> tags = dao.getTagVocabulary();
-        // Allocate our new tag map
-        Map<String, Long> tagIds = Maps.newHashMap();
-
-        for (String tag : tags) {
-            // Map each tag to a new number.
-            tagIds.put(tag, tagIds.size() + 1L);
-        }
-        return tagIds;
+        return new TFIDFModel(ntags, items, offsets, tagArray, weightArray);
     }
-
-
 }
@@ -0,0 +1,109 @@
+package org.grouplens.mooc.cbf;
+
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.grouplens.lenskit.core.Shareable;
+
+import java.io.Serializable;
+
+/**
+ * Inverted index from tags to the items carrying them, for top-N retrieval.  The posting list of
+ * tag <i>t</i> occupies positions {@code offsets[t]} to {@code offsets[t + 1]} of the parallel
+ * item index and weight arrays, in increasing order of item index; the weights are the items'
+ * TF-IDF weights from the {@link TFIDFModel}, and the index remembers the largest weight in each
+ * list so searches can bound the score an item can get from a tag.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ * @see TagIndexBuilder
+ */
+@Shareable
+@DefaultProvider(TagIndexBuilder.class)
+public class TagIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int[] offsets;
+    private final int[] items;
+    private final double[] weights;
+    private final double[] maxWeights;
+
+    TagIndex(int[] offsets, int[] items, double[] weights, double[] maxWeights) {
+        this.offsets = offsets;
+        this.items = items;
+        this.weights = weights;
+        this.maxWeights = maxWeights;
+    }
+
+    public int getTagCount() {
+        return maxWeights.length;
+    }
+
+    public int getPostingStart(int tag) {
+        return offsets[tag];
+    }
+
+    public int getPostingEnd(int tag) {
+        return offsets[tag + 1];
+    }
+
+    /**
+     * Get the item of a posting.
+     *
+     * @param pos The posting position.
+     * @return The model index of the item.
+     */
+    public int getItem(int pos) {
+        return items[pos];
+    }
+
+    /**
+     * Get the weight of a posting.
+     *
+     * @param pos The posting position.
+     * @return The item's TF-IDF weight for the posting's tag.
+     */
+    public double getWeight(int pos) {
+        return weights[pos];
+    }
+
+    /**
+     * Get the largest weight in a tag's posting list.
+     *
+     * @param tag The tag ID.
+     * @return The largest weight of the tag on any item, or 0 if no item has it.
+     */
+    public double getMaxWeight(int tag) {
+        return maxWeights[tag];
+    }
+
+    /**
+     * Find the first posting at or after an item.
+     *
+     * @param pos  The posting position to search from.
+     * @param end  The end of the posting list.
+     * @param item The item index to search for.
+     * @return The position of the first posting in [pos, end) whose item is at least
+     *         {@code item}, or {@code end} if there is none.
+     */
+    public int seek(int pos, int end, int item) {
+        // gallop forward, then binary search the last step
+        int step = 1;
+        int lo = pos;
+        int hi = pos;
+        while (hi < end && items[hi] < item) {
+            lo = hi + 1;
+            hi += step;
+            step *= 2;
+        }
+        if (hi > end) {
+            hi = end;
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (items[mid] < item) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,59 @@
+package org.grouplens.mooc.cbf;
+
+import org.grouplens.lenskit.core.Transient;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+/**
+ * Builder for the {@linkplain TagIndex tag index}, inverting the item vectors of a
+ * {@link TFIDFModel}.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class TagIndexBuilder implements Provider<TagIndex> {
+    private final TFIDFModel model;
+
+    @Inject
+    public TagIndexBuilder(@Transient TFIDFModel m) {
+        model = m;
+    }
+
+    @Override
+    public TagIndex get() {
+        final int ntags = model.getTagCount();
+        final int nitems = model.getItemCount();
+        // count each tag's postings, skipping zero weights that can never contribute to a score
+        int[] offsets = new int[ntags + 1];
+        for (int i = 0; i < nitems; i++) {
+            for (int p = model.getVectorStart(i); p < model.getVectorEnd(i); p++) {
+                if (model.getWeight(p) > 0) {
+                    offsets[model.getTag(p) + 1] += 1;
+                }
+            }
+        }
+        for (int t = 0; t < ntags; t++) {
+            offsets[t + 1] += offsets[t];
+        }
+
+        // fill the lists in item order, so each list is sorted by item
+        int[] items = new int[offsets[ntags]];
+        double[] weights = new double[offsets[ntags]];
+        double[] maxWeights = new double[ntags];
+        int[] fill = new int[ntags];
+        System.arraycopy(offsets, 0, fill, 0, ntags);
+        for (int i = 0; i < nitems; i++) {
+            for (int p = model.getVectorStart(i); p < model.getVectorEnd(i); p++) {
+                double w = model.getWeight(p);
+                if (w > 0) {
+                    int t = model.getTag(p);
+                    items[fill[t]] = i;
+                    weights[fill[t]] = w;
+                    fill[t] += 1;
+                    maxWeights[t] = Math.max(maxWeights[t], w);
+                }
+            }
+        }
+        return new TagIndex(offsets, items, weights, maxWeights);
+    }
+}
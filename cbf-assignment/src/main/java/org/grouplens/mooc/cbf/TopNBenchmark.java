@@ -0,0 +1,137 @@
+package org.grouplens.mooc.cbf;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.history.UserHistory;
+import org.grouplens.lenskit.scored.ScoredId;
+import org.grouplens.lenskit.util.TopNScoredItemAccumulator;
+import org.grouplens.lenskit.vectors.MutableSparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+import org.grouplens.mooc.cbf.dao.CSVItemTagDAO;
+import org.grouplens.mooc.cbf.dao.MOOCRatingDAO;
+import org.grouplens.mooc.cbf.dao.MOOCUserDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Benchmark top-N recommendation through the {@link TagIndex} against scoring every item with
+ * the {@link TFIDFItemScorer} and sorting.  The arguments are the list sizes to try (10 and 50 by
+ * default).  For each size, it reports the mean time per user of each path, the fraction of
+ * the brute-force recommendations with a positive score that the index also returned, and the
+ * number of users whose index recommendations did not have exactly the positive brute-force
+ * scores, in the same order (the items may differ where scores tie).  Both paths share a warmed
+ * profile cache, so the times are of retrieval alone.  The exit status is 1 if any user's
+ * recommendations differed.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class TopNBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(TopNBenchmark.class);
+    private static final double TOLERANCE = 1.0e-9;
+
+    public static void main(String[] args) {
+        List<Integer> sizes = new ArrayList<Integer>();
+        for (String arg : args) {
+            sizes.add(Integer.parseInt(arg));
+        }
+        if (sizes.isEmpty()) {
+            sizes.add(10);
+            sizes.add(50);
+        }
+
+        CSVItemTagDAO items = new CSVItemTagDAO(new File("data/movie-titles.csv"),
+                                                new File("data/movie-tags.csv"));
+        UserEventDAO events = new MOOCRatingDAO(new File("data/ratings.csv"));
+        LongSet users = new MOOCUserDAO(new File("data/users.csv")).getUserIds();
+        TFIDFModel model = new TFIDFModelBuilder(items).get();
+        TagIndex index = new TagIndexBuilder(model).get();
+        UserProfileCache profiles = new UserProfileCache(model, events, 3.5, users.size());
+        TFIDFItemScorer scorer = new TFIDFItemScorer(model, profiles);
+        TFIDFItemRecommender recommender = new TFIDFItemRecommender(model, index, profiles, events);
+
+        logger.info("warming up with {} users", users.size());
+        for (long user : users) {
+            bruteForce(scorer, items.getItemIds(), events, user, sizes.get(0));
+            recommender.recommend(user, sizes.get(0));
+        }
+
+        System.out.println("ListSize,BruteMicros,IndexMicros,Speedup,Agreement,Mismatches");
+        for (int n : sizes) {
+            long bruteTime = 0;
+            long indexTime = 0;
+            long expected = 0;
+            long matched = 0;
+            int mismatches = 0;
+            for (long user : users) {
+                long start = System.nanoTime();
+                List<ScoredId> brute = bruteForce(scorer, items.getItemIds(), events, user, n);
+                bruteTime += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                List<ScoredId> fast = recommender.recommend(user, n);
+                indexTime += System.nanoTime() - start;
+
+                LongSet found = new LongOpenHashSet();
+                for (ScoredId id : fast) {
+                    found.add(id.getId());
+                }
+                int npositive = 0;
+                boolean same = true;
+                for (ScoredId id : brute) {
+                    if (id.getScore() > 0) {
+                        expected += 1;
+                        if (found.contains(id.getId())) {
+                            matched += 1;
+                        }
+                        if (npositive >= fast.size()
+                                || Math.abs(fast.get(npositive).getScore() - id.getScore()) > TOLERANCE) {
+                            same = false;
+                        }
+                        npositive += 1;
+                    }
+                }
+                if (!same || fast.size() != npositive) {
+                    mismatches += 1;
+                }
+            }
+            double bruteMicros = bruteTime / 1000.0 / users.size();
+            double indexMicros = indexTime / 1000.0 / users.size();
+            System.out.format(Locale.ROOT, "%d,%.1f,%.1f,%.2f,%.4f,%d\n",
+                              n, bruteMicros, indexMicros, bruteMicros / indexMicros,
+                              expected == 0 ? 1.0 : matched / (double) expected, mismatches);
+            if (mismatches > 0) {
+                logger.error("{} users got different top-{} recommendations from the index",
+                             mismatches, n);
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Recommend by scoring every unrated item and keeping the best.
+     */
+    private static List<ScoredId> bruteForce(TFIDFItemScorer scorer, LongSet items,
+                                             UserEventDAO events, long user, int n) {
+        LongSet rated = new LongOpenHashSet();
+        UserHistory<Rating> history = events.getEventsForUser(user, Rating.class);
+        if (history != null) {
+            rated = history.itemSet();
+        }
+        MutableSparseVector scores = MutableSparseVector.create(items);
+        scorer.score(user, scores);
+        TopNScoredItemAccumulator accum = new TopNScoredItemAccumulator(n);
+        for (VectorEntry e : scores.fast()) {
+            if (!rated.contains(e.getKey())) {
+                accum.put(e.getKey(), e.getValue());
+            }
+        }
+        return accum.finish();
+    }
+}
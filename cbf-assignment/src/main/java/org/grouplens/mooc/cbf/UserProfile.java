@@ -0,0 +1,83 @@
+package org.grouplens.mooc.cbf;
+
+/**
+ * A user's TF-IDF profile: the rating-weighted sum of the tag vectors of the items they like,
+ * scaled to unit length.  The cosine similarity of the profile and an item is therefore the dot
+ * product of the profile with the item's vector in the {@link TFIDFModel}.
+ * <p>
+ * The entries are sorted by tag ID.  Profiles are immutable, so they can be cached and shared
+ * between threads.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ * @see UserProfileCache
+ */
+public final class UserProfile {
+    private final int[] tags;
+    private final double[] weights;
+    private final long fingerprint;
+
+    UserProfile(int[] tags, double[] weights, long fingerprint) {
+        this.tags = tags;
+        this.weights = weights;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Get the number of tags in the profile.
+     *
+     * @return The number of tags with a nonzero weight.
+     */
+    public int size() {
+        return tags.length;
+    }
+
+    public boolean isEmpty() {
+        return tags.length == 0;
+    }
+
+    public int getTag(int k) {
+        return tags[k];
+    }
+
+    public double getWeight(int k) {
+        return weights[k];
+    }
+
+    /**
+     * Get a fingerprint of the ratings this profile was built from.  Two rating profiles with the
+     * same ratings have the same fingerprint; a changed profile almost certainly does not.
+     *
+     * @return The ratings fingerprint.
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Copy the profile into a dense array indexed by tag ID, so the profile can be multiplied
+     * with many item vectors at the cost of one array lookup per item tag.
+     *
+     * @param dense The array to fill; it must be zero except at the profile's tags.
+     */
+    public void scatter(double[] dense) {
+        for (int k = 0; k < tags.length; k++) {
+            dense[tags[k]] = weights[k];
+        }
+    }
+
+    /**
+     * Compute the cosine similarity of the profile with an item.
+     *
+     * @param model   The model.
+     * @param itemIdx The item's index in the model.
+     * @param dense   The profile, {@linkplain #scatter(double[]) scattered} into a dense array.
+     * @return The dot product of the profile and the item's unit vector.
+     */
+    public double cosine(TFIDFModel model, int itemIdx, double[] dense) {
+        double dot = 0;
+        for (int p = model.getVectorStart(itemIdx); p < model.getVectorEnd(itemIdx); p++) {
+            dot += model.getWeight(p) * dense[model.getTag(p)];
+        }
+        return dot;
+    }
+}
@@ -0,0 +1,133 @@
+package org.grouplens.mooc.cbf;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.history.History;
+import org.grouplens.lenskit.data.history.RatingVectorUserHistorySummarizer;
+import org.grouplens.lenskit.data.history.UserHistory;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import java.util.Arrays;
+
+/**
+ * Builds users' {@linkplain UserProfile TF-IDF profiles} and keeps the most recently used ones
+ * in a bounded cache.  Each cached profile remembers a fingerprint of the ratings it was built
+ * from; a profile whose fingerprint no longer matches the user's current ratings is rebuilt, so
+ * a new rating takes effect on the user's next request.  Callers that know a user's ratings have
+ * changed can also discard the profile with {@link #invalidateUser(long)}.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@ThreadSafe
+public class UserProfileCache {
+    private final TFIDFModel model;
+    private final UserEventDAO userEvents;
+    private final double likeThreshold;
+    private final Cache<Long, UserProfile> cache;
+
+    @Inject
+    public UserProfileCache(TFIDFModel m, UserEventDAO dao,
+                            @LikeThreshold double threshold,
+                            @ProfileCacheSize int size) {
+        model = m;
+        userEvents = dao;
+        likeThreshold = threshold;
+        if (size > 0) {
+            cache = CacheBuilder.newBuilder()
+                                .maximumSize(size)
+                                .build();
+        } else {
+            cache = null;
+        }
+    }
+
+    /**
+     * Get a user's profile.
+     *
+     * @param user The user ID.
+     * @return The profile built from the user's current ratings.
+     */
+    public UserProfile getProfile(long user) {
+        UserHistory<Rating> history = userEvents.getEventsForUser(user, Rating.class);
+        if (history == null) {
+            history = History.forUser(user);
+        }
+        SparseVector ratings = RatingVectorUserHistorySummarizer.makeRatingVector(history);
+        long fingerprint = fingerprint(ratings);
+        if (cache == null) {
+            return buildProfile(ratings, fingerprint);
+        }
+
+        UserProfile profile = cache.getIfPresent(user);
+        if (profile == null || profile.getFingerprint() != fingerprint) {
+            profile = buildProfile(ratings, fingerprint);
+            cache.put(user, profile);
+        }
+        return profile;
+    }
+
+    /**
+     * Discard the cached profile of a user.
+     *
+     * @param user The user ID.
+     */
+    public void invalidateUser(long user) {
+        if (cache != null) {
+            cache.invalidate(user);
+        }
+    }
+
+    private UserProfile buildProfile(SparseVector ratings, long fingerprint) {
+        // accumulate the liked items' vectors, weighted by rating, into a dense tag array
+        double[] sums = new double[model.getTagCount()];
+        int[] touched = new int[model.getTagCount()];
+        int n = 0;
+        for (VectorEntry e : ratings.fast()) {
+            double rating = e.getValue();
+            int idx = model.getItemIndex(e.getKey());
+            if (rating < likeThreshold || idx < 0) {
+                continue;
+            }
+            for (int p = model.getVectorStart(idx); p < model.getVectorEnd(idx); p++) {
+                int tag = model.getTag(p);
+                double w = rating * model.getWeight(p);
+                if (w != 0) {
+                    if (sums[tag] == 0) {
+                        touched[n++] = tag;
+                    }
+                    sums[tag] += w;
+                }
+            }
+        }
+
+        Arrays.sort(touched, 0, n);
+        int[] tags = Arrays.copyOf(touched, n);
+        double[] weights = new double[n];
+        double ssq = 0;
+        for (int k = 0; k < n; k++) {
+            weights[k] = sums[tags[k]];
+            ssq += weights[k] * weights[k];
+        }
+        if (ssq > 0) {
+            double scale = 1 / Math.sqrt(ssq);
+            for (int k = 0; k < n; k++) {
+                weights[k] *= scale;
+            }
+        }
+        return new UserProfile(tags, weights, fingerprint);
+    }
+
+    private static long fingerprint(SparseVector ratings) {
+        long fingerprint = ratings.size();
+        for (VectorEntry e : ratings.fast()) {
+            fingerprint = fingerprint * 31 + e.getKey();
+            fingerprint = fingerprint * 31 + Double.doubleToLongBits(e.getValue());
+        }
+        return fingerprint;
+    }
+}
@@ -1,15 +1,17 @@
 package org.grouplens.mooc.cbf.dao;
 
 import com.google.common.collect.ImmutableSet;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
-import org.grouplens.lenskit.cursors.Cursor;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import org.grouplens.lenskit.data.dao.DataAccessException;
-import org.grouplens.lenskit.util.DelimitedTextCursor;
 
 import javax.inject.Inject;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -19,9 +21,10 @@ import java.util.Set;
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class CSVItemTagDAO extends MOOCItemDAO implements ItemTagDAO {
+    private static final int[] NO_TAGS = new int[0];
+
     private final File tagFile;
-    private transient volatile Long2ObjectMap<List<String>> tagCache;
-    private transient volatile Set<String> vocabCache;
+    private transient volatile TagData tagCache;
 
     @Inject
     public CSVItemTagDAO(@TitleFile File titles, @TagFile File tags) {
@@ -29,52 +32,119 @@ public class CSVItemTagDAO extends MOOCItemDAO implements ItemTagDAO {
         tagFile = tags;
     }
 
-    private void ensureTagCache() {
-        if (tagCache == null) {
+    private TagData getTagData() {
+        TagData data = tagCache;
+        if (data == null) {
             synchronized (this) {
-                if (tagCache == null) {
-                    tagCache = new Long2ObjectOpenHashMap<List<String>>();
-                    ImmutableSet.Builder<String> vocabBuilder = ImmutableSet.builder();
-                    Cursor<String[]> lines = null;
-                    try {
-                        lines = new DelimitedTextCursor(tagFile, ",");
-                    } catch (FileNotFoundException e) {
-                        throw new DataAccessException("cannot open file", e);
-                    }
-                    try {
-                        for (String[] line : lines) {
-                            long mid = Long.parseLong(line[0]);
-                            List<String> tags = tagCache.get(mid);
-                            if (tags == null) {
-                                tags = new ArrayList<String>();
-                                tagCache.put(mid, tags);
-                            }
-                            tags.add(line[1]);
-                            vocabBuilder.add(line[1]);
-                        }
-                    } finally {
-                        lines.close();
-                    }
-                    vocabCache = vocabBuilder.build();
+                data = tagCache;
+                if (data == null) {
+                    data = loadTags();
+                    tagCache = data;
+                }
+            }
+        }
+        return data;
+    }
+
+    private TagData loadTags() {
+        // intern each tag as it is read, so each item only stores the tag IDs
+        Object2IntMap<String> tagIds = new Object2IntOpenHashMap<String>();
+        tagIds.defaultReturnValue(-1);
+        List<String> tags = new ArrayList<String>();
+        Long2ObjectMap<IntArrayList> itemTags = new Long2ObjectOpenHashMap<IntArrayList>();
+        DelimitedFileReader reader;
+        try {
+            reader = new DelimitedFileReader(tagFile, ',');
+        } catch (FileNotFoundException e) {
+            throw new DataAccessException("cannot open file", e);
+        }
+        try {
+            while (reader.nextRow()) {
+                long mid = reader.readLong();
+                // the reader decodes each distinct tag once, so only new tags miss the map
+                String tag = reader.readInternedString();
+                int tid = tagIds.getInt(tag);
+                if (tid < 0) {
+                    tid = tags.size();
+                    tags.add(tag);
+                    tagIds.put(tag, tid);
                 }
+                IntArrayList ids = itemTags.get(mid);
+                if (ids == null) {
+                    ids = new IntArrayList();
+                    itemTags.put(mid, ids);
+                }
+                ids.add(tid);
             }
+        } catch (IOException e) {
+            throw new DataAccessException("cannot read file", e);
+        } finally {
+            reader.close();
+        }
+
+        Long2ObjectMap<int[]> itemTagIds = new Long2ObjectOpenHashMap<int[]>(itemTags.size());
+        for (Long2ObjectMap.Entry<IntArrayList> e : itemTags.long2ObjectEntrySet()) {
+            itemTagIds.put(e.getLongKey(), e.getValue().toIntArray());
         }
+        return new TagData(tags.toArray(new String[tags.size()]), tagIds, itemTagIds,
+                           ImmutableSet.copyOf(tags));
     }
 
     @Override
     public List<String> getItemTags(long item) {
-        ensureTagCache();
-        List<String> tags = tagCache.get(item);
-        if (tags != null) {
-            return Collections.unmodifiableList(tags);
-        } else {
+        TagData data = getTagData();
+        int[] ids = getItemTagIds(item);
+        if (ids.length == 0) {
             return Collections.emptyList();
         }
+        List<String> tags = new ArrayList<String>(ids.length);
+        for (int id : ids) {
+            tags.add(data.tags[id]);
+        }
+        return Collections.unmodifiableList(tags);
+    }
+
+    @Override
+    public int[] getItemTagIds(long item) {
+        int[] ids = getTagData().itemTagIds.get(item);
+        return ids != null ? ids : NO_TAGS;
     }
 
     @Override
     public Set<String> getTagVocabulary() {
-        ensureTagCache();
-        return vocabCache;
+        return getTagData().vocabulary;
+    }
+
+    @Override
+    public int getTagCount() {
+        return getTagData().tags.length;
+    }
+
+    @Override
+    public String getTag(int id) {
+        return getTagData().tags[id];
+    }
+
+    @Override
+    public int getTagId(String tag) {
+        return getTagData().tagIds.getInt(tag);
+    }
+
+    /**
+     * The tag data, loaded and published together.
+     */
+    private static final class TagData {
+        private final String[] tags;
+        private final Object2IntMap<String> tagIds;
+        private final Long2ObjectMap<int[]> itemTagIds;
+        private final Set<String> vocabulary;
+
+        TagData(String[] tags, Object2IntMap<String> tagIds, Long2ObjectMap<int[]> itemTagIds,
+                Set<String> vocabulary) {
+            this.tags = tags;
+            this.tagIds = tagIds;
+            this.itemTagIds = itemTagIds;
+            this.vocabulary = vocabulary;
+        }
     }
 }
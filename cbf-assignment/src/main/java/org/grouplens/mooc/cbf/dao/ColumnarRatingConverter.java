@@ -0,0 +1,35 @@
+package org.grouplens.mooc.cbf.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Convert a rating CSV file to a {@linkplain ColumnarRatingStore columnar rating file} for the
+ * {@link ColumnarRatingDAO}.  The arguments are the input and output files, which default to
+ * {@code data/ratings.csv} and {@code data/ratings.bin}.  The conversion only needs to be done
+ * once, and again whenever the CSV file changes.  It reads the CSV file twice and writes the
+ * ratings straight into the mapped output, so its heap use grows with the numbers of users and
+ * items rather than with the number of ratings.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class ColumnarRatingConverter {
+    private static final Logger logger = LoggerFactory.getLogger(ColumnarRatingConverter.class);
+
+    public static void main(String[] args) {
+        File input = new File(args.length > 0 ? args[0] : "data/ratings.csv");
+        File output = new File(args.length > 1 ? args[1] : "data/ratings.bin");
+        long start = System.nanoTime();
+        try {
+            ColumnarRatingStore.convert(input, ',', output);
+        } catch (IOException e) {
+            logger.error("cannot convert " + input, e);
+            System.exit(1);
+        }
+        logger.info("converted {} to {} in {}ms",
+                    new Object[]{input, output, (System.nanoTime() - start) / 1000000});
+    }
+}
@@ -6,7 +6,9 @@ import java.util.List;
 import java.util.Set;
 
 /**
- * Data access object providing access to item tags.
+ * Data access object providing access to item tags.  Tags are interned to dense integer IDs, from
+ * 0 to {@link #getTagCount()} - 1, when the data is loaded; components that process many tags
+ * should work with the IDs rather than the tag strings.
  *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
@@ -20,10 +22,42 @@ public interface ItemTagDAO extends ItemDAO {
      */
     List<String> getItemTags(long item);
 
+    /**
+     * Get the IDs of the tags for a particular item.  A tag ID can appear multiple times if
+     * multiple users have applied the tag.
+     *
+     * @param item The item.
+     * @return The item's tag IDs.  The caller must not modify the array.
+     */
+    int[] getItemTagIds(long item);
+
     /**
      * Get all known tags.
      *
      * @return The set of known tags.
      */
     Set<String> getTagVocabulary();
+
+    /**
+     * Get the number of known tags.
+     *
+     * @return The number of tags; tag IDs are less than this number.
+     */
+    int getTagCount();
+
+    /**
+     * Get the tag with an ID.
+     *
+     * @param id The tag ID.
+     * @return The tag.
+     */
+    String getTag(int id);
+
+    /**
+     * Get the ID of a tag.
+     *
+     * @param tag The tag.
+     * @return The tag's ID, or -1 if the tag is not known.
+     */
+    int getTagId(String tag);
 }
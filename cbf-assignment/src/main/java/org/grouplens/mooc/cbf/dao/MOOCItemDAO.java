@@ -4,13 +4,12 @@ import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.longs.LongSets;
-import org.grouplens.lenskit.cursors.Cursor;
 import org.grouplens.lenskit.data.dao.DataAccessException;
-import org.grouplens.lenskit.util.DelimitedTextCursor;
 
 import javax.inject.Inject;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 
 /**
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
@@ -40,19 +39,21 @@ public class MOOCItemDAO implements ItemTitleDAO {
 
         Long2ObjectMap<String> cache = new Long2ObjectOpenHashMap<String>();
 //        Map<Long,String> cache = new HashMap<Long, String>();
-        Cursor<String[]> lines = null;
+        DelimitedFileReader reader;
         try {
-            lines = new DelimitedTextCursor(titleFile, ",");
+            reader = new DelimitedFileReader(titleFile, ',');
         } catch (FileNotFoundException e) {
             throw new DataAccessException("cannot open file", e);
         }
         try {
-            for (String[] line : lines) {
-                long mid = Long.parseLong(line[0]);
-                cache.put(mid, line[1]);
+            while (reader.nextRow()) {
+                long mid = reader.readLong();
+                cache.put(mid, reader.readString());
             }
+        } catch (IOException e) {
+            throw new DataAccessException("cannot read file", e);
         } finally {
-            lines.close();
+            reader.close();
         }
         return cache;
     }
@@ -68,6 +69,7 @@ public class MOOCItemDAO implements ItemTitleDAO {
 
     @Override
     public String getItemTitle(long item) {
+        ensureTitleCache();
         return titleCache.get(item);
     }
 }
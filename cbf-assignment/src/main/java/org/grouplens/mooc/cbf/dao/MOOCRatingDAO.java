@@ -1,64 +1,507 @@
 package org.grouplens.mooc.cbf.dao;
 
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.collections.LongSortedArraySet;
+import org.grouplens.lenskit.collections.LongUtils;
+import org.grouplens.lenskit.cursors.AbstractPollingCursor;
 import org.grouplens.lenskit.cursors.Cursor;
 import org.grouplens.lenskit.cursors.Cursors;
-import org.grouplens.lenskit.data.dao.EventCollectionDAO;
+import org.grouplens.lenskit.data.dao.DataAccessException;
 import org.grouplens.lenskit.data.dao.EventDAO;
-import org.grouplens.lenskit.data.dao.SimpleFileRatingDAO;
+import org.grouplens.lenskit.data.dao.ItemEventDAO;
 import org.grouplens.lenskit.data.dao.SortOrder;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
 import org.grouplens.lenskit.data.event.Event;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.event.Ratings;
+import org.grouplens.lenskit.data.history.AbstractUserHistory;
+import org.grouplens.lenskit.data.history.History;
+import org.grouplens.lenskit.data.history.UserHistory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
 
 /**
- * Customized rating DAO for MOOC ratings.  This just wraps some standard LensKit DAOs in an
- * easy-to-configure interface.
+ * Customized rating DAO for MOOC ratings.  The ratings are loaded once into primitive arrays
+ * grouped by user, with an index grouping them by item, so user histories, item rating lists and
+ * item rater sets are views of the arrays rather than collections regrouped or copied on each
+ * request.
+ * Bind this class as the user event and item event DAO as well as the event DAO to use them.
+ * <p>
+ * Each line of the rating file has a user ID, an item ID, a rating and, optionally, a timestamp.
+ * Each user's ratings are kept in order of timestamp, and otherwise in the order of the file;
+ * each item's ratings are kept in order of user ID.
  *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
- * @see org.grouplens.lenskit.data.dao.EventCollectionDAO
- * @see org.grouplens.lenskit.data.dao.SimpleFileRatingDAO
  */
-public class MOOCRatingDAO implements EventDAO {
-    private final SimpleFileRatingDAO csvDao;
-    private transient volatile EventCollectionDAO cache;
+public class MOOCRatingDAO implements EventDAO, UserEventDAO, ItemEventDAO {
+    private static final Logger logger = LoggerFactory.getLogger(MOOCRatingDAO.class);
+
+    private final File ratingFile;
+    private transient volatile RatingIndex cache;
 
     @Inject
     public MOOCRatingDAO(@RatingFile File file) {
-        csvDao = new SimpleFileRatingDAO(file, ",");
+        ratingFile = file;
     }
 
     /**
-     * Pre-fetch the ratings into memory if we haven't done so already.
+     * Load and index the ratings if we haven't done so already.
      */
-    private void ensureRatingCache() {
-        if (cache == null) {
+    private RatingIndex ensureRatingCache() {
+        RatingIndex index = cache;
+        if (index == null) {
             synchronized (this) {
-                if (cache == null) {
-                    cache = new EventCollectionDAO(Cursors.makeList(csvDao.streamEvents()));
+                index = cache;
+                if (index == null) {
+                    index = loadRatings();
+                    cache = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private RatingIndex loadRatings() {
+        int n = 0;
+        long[] users = new long[1024];
+        long[] items = new long[1024];
+        double[] values = new double[1024];
+        long[] times = null;
+        DelimitedFileReader reader;
+        try {
+            reader = new DelimitedFileReader(ratingFile, ',');
+        } catch (FileNotFoundException e) {
+            throw new DataAccessException("cannot open file", e);
+        }
+        try {
+            while (reader.nextRow()) {
+                if (n == users.length) {
+                    int size = users.length * 2;
+                    users = Arrays.copyOf(users, size);
+                    items = Arrays.copyOf(items, size);
+                    values = Arrays.copyOf(values, size);
+                    if (times != null) {
+                        times = Arrays.copyOf(times, size);
+                    }
+                }
+                users[n] = reader.readLong();
+                items[n] = reader.readLong();
+                values[n] = reader.readDouble();
+                if (reader.hasMoreFields()) {
+                    if (times == null) {
+                        times = new long[users.length];
+                        Arrays.fill(times, 0, n, -1);
+                    }
+                    times[n] = reader.readLong();
+                } else if (times != null) {
+                    times[n] = -1;
                 }
+                n++;
             }
+        } catch (IOException e) {
+            throw new DataAccessException("cannot read file", e);
+        } finally {
+            reader.close();
         }
+        RatingIndex index = new RatingIndex(n, users, items, values, times);
+        logger.info("indexed {} ratings by {} users of {} items",
+                    new Object[]{n, index.userIds.length, index.itemIds.length});
+        return index;
     }
 
     @Override
     public Cursor<Event> streamEvents() {
-        // delegate to the cached event collection DAO
-        ensureRatingCache();
-        return cache.streamEvents();
+        return new RatingCursor(ensureRatingCache(), null);
     }
 
     @Override
     public <E extends Event> Cursor<E> streamEvents(Class<E> type) {
-        // delegate to the cached event collection DAO
-        ensureRatingCache();
-        return cache.streamEvents(type);
+        return streamEvents(type, SortOrder.ANY);
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public <E extends Event> Cursor<E> streamEvents(Class<E> type, SortOrder order) {
-        // delegate to the cached event collection DAO
-        ensureRatingCache();
-        return cache.streamEvents(type, order);
+        if (!type.isAssignableFrom(Rating.class)) {
+            return Cursors.empty();
+        }
+        final RatingIndex index = ensureRatingCache();
+        Cursor<Event> cursor;
+        switch (order) {
+        case ANY:
+        case USER:
+            // the ratings are stored in user order
+            cursor = new RatingCursor(index, null);
+            break;
+        case ITEM:
+            cursor = new RatingCursor(index, index.itemPositions);
+            break;
+        case TIMESTAMP:
+            if (index.times == null) {
+                cursor = new RatingCursor(index, null);
+                break;
+            }
+            int[] positions = new int[index.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = i;
+            }
+            IntArrays.mergeSort(positions, new IntComparator() {
+                @Override
+                public int compare(int a, int b) {
+                    long ta = index.times[a];
+                    long tb = index.times[b];
+                    return ta < tb ? -1 : (ta > tb ? 1 : 0);
+                }
+
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return compare(a.intValue(), b.intValue());
+                }
+            });
+            cursor = new RatingCursor(index, positions);
+            break;
+        default:
+            throw new IllegalArgumentException("unknown sort order " + order);
+        }
+        return (Cursor<E>) (Cursor) cursor;
+    }
+
+    @Override
+    public Cursor<UserHistory<Event>> streamEventsByUser() {
+        return new UserCursor(ensureRatingCache());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E extends Event> Cursor<UserHistory<E>> streamEventsByUser(Class<E> type) {
+        if (!type.isAssignableFrom(Rating.class)) {
+            return Cursors.empty();
+        }
+        return (Cursor<UserHistory<E>>) (Cursor) new UserCursor(ensureRatingCache());
+    }
+
+    @Override
+    public UserHistory<Event> getEventsForUser(long user) {
+        RatingIndex index = ensureRatingCache();
+        int idx = Arrays.binarySearch(index.userIds, user);
+        if (idx < 0) {
+            return null;
+        }
+        return new RatingHistory(index, idx);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E extends Event> UserHistory<E> getEventsForUser(long user, Class<E> type) {
+        UserHistory<Event> history = getEventsForUser(user);
+        if (history == null || type.isAssignableFrom(Rating.class)) {
+            return (UserHistory<E>) (UserHistory) history;
+        } else {
+            return History.forUser(user);
+        }
+    }
+
+    @Override
+    public List<Event> getEventsForItem(long item) {
+        RatingIndex index = ensureRatingCache();
+        int idx = Arrays.binarySearch(index.itemIds, item);
+        if (idx < 0) {
+            return null;
+        }
+        return new RatingList(index, index.itemOffsets[idx], index.itemOffsets[idx + 1],
+                              index.itemPositions);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E extends Event> List<E> getEventsForItem(long item, Class<E> type) {
+        List<Event> events = getEventsForItem(item);
+        if (events == null || type.isAssignableFrom(Rating.class)) {
+            return (List<E>) (List) events;
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public LongSet getUsersForItem(long item) {
+        RatingIndex index = ensureRatingCache();
+        int idx = Arrays.binarySearch(index.itemIds, item);
+        if (idx < 0) {
+            return null;
+        }
+        int start = index.itemOffsets[idx];
+        int end = index.itemOffsets[idx + 1];
+        if (index.distinctRaters) {
+            return new LongSortedArraySet(index.itemUsers, start, end);
+        } else {
+            // a user rated some item more than once, so the raters must be deduplicated
+            return LongUtils.packedSet(Arrays.copyOfRange(index.itemUsers, start, end));
+        }
+    }
+
+    /**
+     * The loaded ratings, as compressed sparse rows by user and an index of them by item.
+     */
+    private static final class RatingIndex {
+        final long[] userIds;
+        final int[] userOffsets;
+        final long[] users;
+        final long[] items;
+        final double[] values;
+        /**
+         * The timestamps, or {@code null} if the rating file has none.
+         */
+        final long[] times;
+
+        final long[] itemIds;
+        final int[] itemOffsets;
+        /**
+         * The positions of each item's ratings in the user rows.
+         */
+        final int[] itemPositions;
+        final long[] itemUsers;
+        /**
+         * Whether no user rated an item more than once.
+         */
+        final boolean distinctRaters;
+
+        RatingIndex(int n, long[] rawUsers, long[] rawItems, double[] rawValues, long[] rawTimes) {
+            userIds = sortedIds(rawUsers, n);
+            itemIds = sortedIds(rawItems, n);
+            final int nusers = userIds.length;
+            final int nitems = itemIds.length;
+
+            // group the ratings by user, keeping the order of the file within each user
+            int[] rowUsers = new int[n];
+            userOffsets = new int[nusers + 1];
+            for (int r = 0; r < n; r++) {
+                rowUsers[r] = Arrays.binarySearch(userIds, rawUsers[r]);
+                userOffsets[rowUsers[r] + 1] += 1;
+            }
+            for (int u = 0; u < nusers; u++) {
+                userOffsets[u + 1] += userOffsets[u];
+            }
+            final int[] order = new int[n];
+            int[] fill = Arrays.copyOf(userOffsets, nusers);
+            for (int r = 0; r < n; r++) {
+                order[fill[rowUsers[r]]++] = r;
+            }
+            if (rawTimes != null) {
+                final long[] ts = rawTimes;
+                IntComparator byTime = new IntComparator() {
+                    @Override
+                    public int compare(int a, int b) {
+                        return ts[a] < ts[b] ? -1 : (ts[a] > ts[b] ? 1 : 0);
+                    }
+
+                    @Override
+                    public int compare(Integer a, Integer b) {
+                        return compare(a.intValue(), b.intValue());
+                    }
+                };
+                for (int u = 0; u < nusers; u++) {
+                    // merge sort is stable, so ties stay in file order
+                    IntArrays.mergeSort(order, userOffsets[u], userOffsets[u + 1], byTime);
+                }
+            }
+            users = new long[n];
+            items = new long[n];
+            values = new double[n];
+            times = rawTimes == null ? null : new long[n];
+            for (int p = 0; p < n; p++) {
+                int r = order[p];
+                users[p] = rawUsers[r];
+                items[p] = rawItems[r];
+                values[p] = rawValues[r];
+                if (times != null) {
+                    times[p] = rawTimes[r];
+                }
+            }
+
+            // index the ratings by item; scanning in user order keeps each item's raters sorted
+            int[] posItems = new int[n];
+            itemOffsets = new int[nitems + 1];
+            for (int p = 0; p < n; p++) {
+                posItems[p] = Arrays.binarySearch(itemIds, items[p]);
+                itemOffsets[posItems[p] + 1] += 1;
+            }
+            for (int i = 0; i < nitems; i++) {
+                itemOffsets[i + 1] += itemOffsets[i];
+            }
+            itemPositions = new int[n];
+            itemUsers = new long[n];
+            fill = Arrays.copyOf(itemOffsets, nitems);
+            boolean distinct = true;
+            for (int p = 0; p < n; p++) {
+                int i = posItems[p];
+                int e = fill[i]++;
+                itemPositions[e] = p;
+                itemUsers[e] = users[p];
+                if (e > itemOffsets[i] && itemUsers[e - 1] == users[p]) {
+                    distinct = false;
+                }
+            }
+            distinctRaters = distinct;
+        }
+
+        int size() {
+            return users.length;
+        }
+
+        Rating getRating(int pos) {
+            if (times == null) {
+                return Ratings.make(users[pos], items[pos], values[pos]);
+            } else {
+                return Ratings.make(users[pos], items[pos], values[pos], times[pos]);
+            }
+        }
+
+        private static long[] sortedIds(long[] ids, int n) {
+            long[] sorted = Arrays.copyOf(ids, n);
+            Arrays.sort(sorted);
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                if (i == 0 || sorted[i] != sorted[k - 1]) {
+                    sorted[k++] = sorted[i];
+                }
+            }
+            return Arrays.copyOf(sorted, k);
+        }
+    }
+
+    /**
+     * A range of the ratings, made into events as they are accessed.  The range is of the user
+     * rows, or of an index into them.
+     */
+    private static class RatingList extends AbstractList<Event> implements RandomAccess {
+        private final RatingIndex index;
+        private final int start;
+        private final int end;
+        private final int[] positions;
+
+        RatingList(RatingIndex idx, int s, int e, int[] pos) {
+            index = idx;
+            start = s;
+            end = e;
+            positions = pos;
+        }
+
+        @Override
+        public Event get(int i) {
+            if (i < 0 || i >= end - start) {
+                throw new IndexOutOfBoundsException("index " + i + " out of bounds");
+            }
+            return index.getRating(positions == null ? start + i : positions[start + i]);
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+    }
+
+    /**
+     * A user's ratings: their row of the ratings, made into events as they are accessed.
+     */
+    private static class RatingHistory extends AbstractUserHistory<Event> implements RandomAccess {
+        private final RatingIndex index;
+        private final long user;
+        private final int start;
+        private final int end;
+
+        RatingHistory(RatingIndex idx, int u) {
+            index = idx;
+            user = idx.userIds[u];
+            start = idx.userOffsets[u];
+            end = idx.userOffsets[u + 1];
+        }
+
+        @Override
+        public long getUserId() {
+            return user;
+        }
+
+        @Override
+        public Event get(int i) {
+            if (i < 0 || i >= end - start) {
+                throw new IndexOutOfBoundsException("index " + i + " out of bounds");
+            }
+            return index.getRating(start + i);
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T extends Event> UserHistory<T> filter(Class<T> type) {
+            // every event is a rating, so there is nothing to copy
+            if (type.isAssignableFrom(Rating.class)) {
+                return (UserHistory<T>) (UserHistory) this;
+            } else {
+                return History.forUser(user);
+            }
+        }
+    }
+
+    /**
+     * Cursor over the ratings, in user order or in the order of a position array.
+     */
+    private static class RatingCursor extends AbstractPollingCursor<Event> {
+        private final RatingIndex index;
+        private final int[] positions;
+        private int next;
+
+        RatingCursor(RatingIndex idx, int[] pos) {
+            super(idx.size());
+            index = idx;
+            positions = pos;
+        }
+
+        @Override
+        protected Event poll() {
+            if (next >= index.size()) {
+                return null;
+            }
+            int pos = positions == null ? next : positions[next];
+            next += 1;
+            return index.getRating(pos);
+        }
+    }
+
+    /**
+     * Cursor over the users' histories, in order of user ID.
+     */
+    private static class UserCursor extends AbstractPollingCursor<UserHistory<Event>> {
+        private final RatingIndex index;
+        private int next;
+
+        UserCursor(RatingIndex idx) {
+            super(idx.userIds.length);
+            index = idx;
+        }
+
+        @Override
+        protected UserHistory<Event> poll() {
+            if (next >= index.userIds.length) {
+                return null;
+            }
+            return new RatingHistory(index, next++);
+        }
     }
 }
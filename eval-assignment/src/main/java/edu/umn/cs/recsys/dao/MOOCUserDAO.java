@@ -4,13 +4,12 @@ import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.objects.Object2LongMap;
 import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
 import org.grouplens.lenskit.collections.LongUtils;
-import org.grouplens.lenskit.cursors.Cursor;
 import org.grouplens.lenskit.data.dao.DataAccessException;
-import org.grouplens.lenskit.util.DelimitedTextCursor;
 
 import javax.inject.Inject;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 
 /**
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
@@ -40,19 +39,21 @@ public class MOOCUserDAO implements UserNameDAO {
         Object2LongMap<String> cache = new Object2LongOpenHashMap<String>();
         // make the cache return -1 for missing users
         cache.defaultReturnValue(-1);
-        Cursor<String[]> lines = null;
+        DelimitedFileReader reader;
         try {
-            lines = new DelimitedTextCursor(userFile, ",");
+            reader = new DelimitedFileReader(userFile, ',');
         } catch (FileNotFoundException e) {
             throw new DataAccessException("cannot open file", e);
         }
         try {
-            for (String[] line : lines) {
-                long uid = Long.parseLong(line[0]);
-                cache.put(line[1], uid);
+            while (reader.nextRow()) {
+                long uid = reader.readLong();
+                cache.put(reader.readString(), uid);
             }
+        } catch (IOException e) {
+            throw new DataAccessException("cannot read file", e);
         } finally {
-            lines.close();
+            reader.close();
         }
         return cache;
     }
@@ -0,0 +1,640 @@
+package edu.umn.cs.recsys.dao;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.event.Ratings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Ratings stored column by column in a binary file that is memory-mapped rather than loaded.
+ * Each rating costs 20 bytes of file (28 with timestamps) and no heap, and the operating system
+ * pages the columns in as they are used, so even very large rating sets open instantly.
+ * <p>
+ * The ratings are stored sorted by user, then timestamp, then item, so the ratings of user
+ * <i>u</i> occupy positions {@link #getUserStart(int)} to {@link #getUserEnd(int)}.  An item
+ * index lists the positions of each item's ratings, in order of user.
+ * <p>
+ * The file is little-endian and laid out as follows:
+ * <ol>
+ * <li>a 32-byte header: the magic number, the format version, the flags (1 if the file has
+ * timestamps), the user count, the item count, a reserved (zero) integer, and the rating count
+ * as a long;</li>
+ * <li>the user IDs, as sorted longs;</li>
+ * <li>the user offsets, as <i>users</i> + 1 ints;</li>
+ * <li>the item IDs, as sorted longs;</li>
+ * <li>the item offsets, as <i>items</i> + 1 ints;</li>
+ * <li>the rating positions of each item, as ints;</li>
+ * <li>the user, item, value (float) and, if present, timestamp columns.</li>
+ * </ol>
+ * Every section starts on an 8-byte boundary.  Columns are mapped in windows of 1GB, so no
+ * column is limited by the 2GB limit of a single mapping; the rating count is limited to
+ * 2<sup>31</sup> - 1.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public final class ColumnarRatingStore {
+    private static final Logger logger = LoggerFactory.getLogger(ColumnarRatingStore.class);
+    private static final int MAGIC = 0x52434F4C; // "RCOL"
+    private static final int VERSION = 1;
+    private static final int FLAG_TIMESTAMPS = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long[] users;
+    private final int[] userOffsets;
+    private final long[] items;
+    private final int[] itemOffsets;
+    private final Column itemPositions;
+    private final Column userColumn;
+    private final Column itemColumn;
+    private final Column valueColumn;
+    private final Column timestampColumn;
+
+    private ColumnarRatingStore(long[] us, int[] uoff, long[] is, int[] ioff, Column ipos,
+                                Column ucol, Column icol, Column vcol, Column tcol) {
+        users = us;
+        userOffsets = uoff;
+        items = is;
+        itemOffsets = ioff;
+        itemPositions = ipos;
+        userColumn = ucol;
+        itemColumn = icol;
+        valueColumn = vcol;
+        timestampColumn = tcol;
+    }
+
+    /**
+     * Get the number of ratings.
+     *
+     * @return The number of ratings in the store.
+     */
+    public int getRatingCount() {
+        return userOffsets[users.length];
+    }
+
+    /**
+     * Query whether the ratings have timestamps.
+     *
+     * @return {@code true} if the store has a timestamp column.
+     */
+    public boolean hasTimestamps() {
+        return timestampColumn != null;
+    }
+
+    public int getUserCount() {
+        return users.length;
+    }
+
+    public long getUserId(int idx) {
+        return users[idx];
+    }
+
+    /**
+     * Get the index of a user.
+     *
+     * @param user The user ID.
+     * @return The user's index, or a negative value if the user has no ratings.
+     */
+    public int getUserIndex(long user) {
+        return Arrays.binarySearch(users, user);
+    }
+
+    public int getUserStart(int idx) {
+        return userOffsets[idx];
+    }
+
+    public int getUserEnd(int idx) {
+        return userOffsets[idx + 1];
+    }
+
+    public int getItemCount() {
+        return items.length;
+    }
+
+    public long getItemId(int idx) {
+        return items[idx];
+    }
+
+    /**
+     * Get the index of an item.
+     *
+     * @param item The item ID.
+     * @return The item's index, or a negative value if the item has no ratings.
+     */
+    public int getItemIndex(long item) {
+        return Arrays.binarySearch(items, item);
+    }
+
+    public int getItemStart(int idx) {
+        return itemOffsets[idx];
+    }
+
+    public int getItemEnd(int idx) {
+        return itemOffsets[idx + 1];
+    }
+
+    /**
+     * Get an entry of the item index.
+     *
+     * @param entry The entry, between the start and end of an item.
+     * @return The position of the item's rating.
+     */
+    public int getItemRating(int entry) {
+        return itemPositions.getInt(entry);
+    }
+
+    public long getUser(int pos) {
+        return userColumn.getLong(pos);
+    }
+
+    public long getItem(int pos) {
+        return itemColumn.getLong(pos);
+    }
+
+    public float getValue(int pos) {
+        return valueColumn.getFloat(pos);
+    }
+
+    /**
+     * Get the timestamp of a rating.
+     *
+     * @param pos The rating position.
+     * @return The rating's timestamp, or -1 if the store has no timestamps.
+     */
+    public long getTimestamp(int pos) {
+        return timestampColumn == null ? -1 : timestampColumn.getLong(pos);
+    }
+
+    /**
+     * Make a rating object for a stored rating.
+     *
+     * @param pos The rating position.
+     * @return The rating at that position.
+     */
+    public Rating getRating(int pos) {
+        if (timestampColumn == null) {
+            return Ratings.make(getUser(pos), getItem(pos), getValue(pos));
+        } else {
+            return Ratings.make(getUser(pos), getItem(pos), getValue(pos), getTimestamp(pos));
+        }
+    }
+
+    /**
+     * Open a rating store by memory-mapping its columns.
+     *
+     * @param file The file to open.
+     * @return The rating store, backed by the mapped file.
+     * @throws IOException if the file cannot be read or is not a columnar rating file.
+     */
+    public static ColumnarRatingStore open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException(file + ": not a columnar rating file");
+            }
+            ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + ": not a columnar rating file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + ": unsupported rating file version " + version);
+            }
+            int flags = header.getInt();
+            int nusers = header.getInt();
+            int nitems = header.getInt();
+            header.getInt();
+            long count = header.getLong();
+            if (nusers < 0 || nitems < 0 || count < 0 || count > Integer.MAX_VALUE) {
+                throw new IOException(file + ": corrupt rating file header");
+            }
+            int n = (int) count;
+            boolean timestamps = (flags & FLAG_TIMESTAMPS) != 0;
+
+            long pos = HEADER_SIZE;
+            long[] users = new long[nusers];
+            map(channel, pos, 8L * nusers).asLongBuffer().get(users);
+            pos = align(pos + 8L * nusers);
+            int[] userOffsets = new int[nusers + 1];
+            map(channel, pos, 4L * (nusers + 1)).asIntBuffer().get(userOffsets);
+            pos = align(pos + 4L * (nusers + 1));
+            long[] items = new long[nitems];
+            map(channel, pos, 8L * nitems).asLongBuffer().get(items);
+            pos = align(pos + 8L * nitems);
+            int[] itemOffsets = new int[nitems + 1];
+            map(channel, pos, 4L * (nitems + 1)).asIntBuffer().get(itemOffsets);
+            pos = align(pos + 4L * (nitems + 1));
+            if (userOffsets[nusers] != n || itemOffsets[nitems] != n) {
+                throw new IOException(file + ": rating offsets do not match the rating count");
+            }
+
+            Column itemPositions = new Column(channel, pos, 4, n);
+            pos = align(pos + 4L * n);
+            Column userColumn = new Column(channel, pos, 8, n);
+            pos += 8L * n;
+            Column itemColumn = new Column(channel, pos, 8, n);
+            pos += 8L * n;
+            Column valueColumn = new Column(channel, pos, 4, n);
+            pos = align(pos + 4L * n);
+            Column timestampColumn = null;
+            if (timestamps) {
+                timestampColumn = new Column(channel, pos, 8, n);
+                pos += 8L * n;
+            }
+            if (channel.size() != pos) {
+                throw new IOException(file + ": rating file has incorrect size");
+            }
+
+            // the mappings remain valid after the channel is closed
+            return new ColumnarRatingStore(users, userOffsets, items, itemOffsets, itemPositions,
+                                           userColumn, itemColumn, valueColumn, timestampColumn);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Convert a delimited rating file to a columnar rating file.  Each line of the input has
+     * a user ID, an item ID, a rating, and optionally a timestamp; the output has timestamps if
+     * every line of the input does.
+     * <p>
+     * The input is read twice.  The first pass counts the ratings of each user and item; the
+     * second scatters each rating into its user's range of the output file, which is mapped
+     * rather than buffered.  Each user's ratings are then sorted in place, and the item index is
+     * built from the stored item column.  The heap needed is therefore proportional to the number
+     * of users and items and to the largest user profile, not to the number of ratings.
+     *
+     * @param input     The delimited rating file.
+     * @param delimiter The field delimiter.
+     * @param output    The columnar file to write.
+     * @throws IOException if there is an error reading or writing the files.
+     */
+    public static void convert(File input, char delimiter, File output) throws IOException {
+        // count the ratings of each user and item
+        Long2IntOpenHashMap userCounts = new Long2IntOpenHashMap();
+        Long2IntOpenHashMap itemCounts = new Long2IntOpenHashMap();
+        boolean timestamps = true;
+        long count;
+        DelimitedFileReader reader = new DelimitedFileReader(input, delimiter);
+        try {
+            while (reader.nextRow()) {
+                userCounts.addTo(reader.readLong(), 1);
+                itemCounts.addTo(reader.readLong(), 1);
+                reader.readDouble();
+                if (!reader.hasMoreFields()) {
+                    timestamps = false;
+                }
+            }
+            count = reader.getRowCount();
+        } finally {
+            reader.close();
+        }
+        if (count > Integer.MAX_VALUE) {
+            throw new IOException(input + ": too many ratings for a columnar file");
+        }
+        final int n = (int) count;
+        timestamps = timestamps && n > 0;
+
+        long[] users = userCounts.keySet().toLongArray();
+        Arrays.sort(users);
+        final int nusers = users.length;
+        int[] userOffsets = new int[nusers + 1];
+        int maxProfile = 0;
+        for (int u = 0; u < nusers; u++) {
+            int c = userCounts.get(users[u]);
+            userOffsets[u + 1] = userOffsets[u] + c;
+            maxProfile = Math.max(maxProfile, c);
+        }
+        userCounts = null;
+        long[] items = itemCounts.keySet().toLongArray();
+        Arrays.sort(items);
+        final int nitems = items.length;
+        int[] itemOffsets = new int[nitems + 1];
+        for (int i = 0; i < nitems; i++) {
+            itemOffsets[i + 1] = itemOffsets[i] + itemCounts.get(items[i]);
+        }
+        itemCounts = null;
+        logger.info("converting {} ratings by {} users of {} items, at most {} per user",
+                    new Object[]{n, nusers, nitems, maxProfile});
+
+        // lay out the file, and write the sections that are already known
+        long pos = align(HEADER_SIZE + 8L * nusers);
+        pos = align(pos + 4L * (nusers + 1));
+        pos = align(pos + 8L * nitems);
+        pos = align(pos + 4L * (nitems + 1));
+        long positionStart = pos;
+        pos = align(pos + 4L * n);
+        long userStart = pos;
+        long itemStart = userStart + 8L * n;
+        long valueStart = itemStart + 8L * n;
+        long timeStart = align(valueStart + 4L * n);
+        long size = timestamps ? timeStart + 8L * n : timeStart;
+
+        RandomAccessFile raf = new RandomAccessFile(output, "rw");
+        try {
+            raf.setLength(size);
+            FileChannel channel = raf.getChannel();
+            BlockWriter out = new BlockWriter(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(timestamps ? FLAG_TIMESTAMPS : 0);
+            out.putInt(nusers);
+            out.putInt(nitems);
+            out.putInt(0);
+            out.putLong(n);
+            for (long user: users) {
+                out.putLong(user);
+            }
+            for (int off: userOffsets) {
+                out.putInt(off);
+            }
+            out.align();
+            for (long item: items) {
+                out.putLong(item);
+            }
+            for (int off: itemOffsets) {
+                out.putInt(off);
+            }
+            out.align();
+            out.flush();
+
+            Column itemPositions = new Column(channel, positionStart, 4, n, true);
+            Column userCol = new Column(channel, userStart, 8, n, true);
+            Column itemCol = new Column(channel, itemStart, 8, n, true);
+            Column valueCol = new Column(channel, valueStart, 4, n, true);
+            Column timeCol = timestamps ? new Column(channel, timeStart, 8, n, true) : null;
+
+            // scatter each rating into its user's range
+            int[] fill = Arrays.copyOf(userOffsets, nusers);
+            reader = new DelimitedFileReader(input, delimiter);
+            try {
+                while (reader.nextRow()) {
+                    long user = reader.readLong();
+                    long item = reader.readLong();
+                    float value = (float) reader.readDouble();
+                    int u = Arrays.binarySearch(users, user);
+                    if (u < 0 || fill[u] == userOffsets[u + 1]
+                            || (timeCol != null && !reader.hasMoreFields())) {
+                        throw new IOException(input + ": file changed while it was being converted");
+                    }
+                    int p = fill[u]++;
+                    userCol.putLong(p, user);
+                    itemCol.putLong(p, item);
+                    valueCol.putFloat(p, value);
+                    if (timeCol != null) {
+                        timeCol.putLong(p, reader.readLong());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            for (int u = 0; u < nusers; u++) {
+                if (fill[u] != userOffsets[u + 1]) {
+                    throw new IOException(input + ": file changed while it was being converted");
+                }
+            }
+            fill = null;
+
+            sortProfiles(userOffsets, maxProfile, itemCol, valueCol, timeCol);
+
+            // index the positions of each item's ratings; scanning in user order keeps them sorted
+            fill = Arrays.copyOf(itemOffsets, nitems);
+            for (int p = 0; p < n; p++) {
+                int i = Arrays.binarySearch(items, itemCol.getLong(p));
+                if (i < 0 || fill[i] == itemOffsets[i + 1]) {
+                    throw new IOException(input + ": file changed while it was being converted");
+                }
+                itemPositions.putInt(fill[i]++, p);
+            }
+
+            itemPositions.force();
+            userCol.force();
+            itemCol.force();
+            valueCol.force();
+            if (timeCol != null) {
+                timeCol.force();
+            }
+        } finally {
+            raf.close();
+        }
+        logger.info("wrote {} ratings by {} users of {} items to {}",
+                    new Object[]{n, nusers, nitems, output});
+    }
+
+    /**
+     * Sort each user's stored ratings by timestamp, if there are timestamps, and then by item.
+     *
+     * @param userOffsets The start of each user's ratings.
+     * @param maxProfile  The largest number of ratings of any user.
+     * @param itemCol     The item column.
+     * @param valueCol    The value column.
+     * @param timeCol     The timestamp column, or {@code null}.
+     */
+    private static void sortProfiles(int[] userOffsets, int maxProfile, Column itemCol,
+                                     Column valueCol, final Column timeCol) {
+        final long[] profileItems = new long[maxProfile];
+        float[] profileValues = new float[maxProfile];
+        final long[] profileTimes = timeCol == null ? null : new long[maxProfile];
+        int[] order = new int[maxProfile];
+        IntComparator cmp = new IntComparator() {
+            @Override
+            public int compare(int a, int b) {
+                int c = 0;
+                if (profileTimes != null) {
+                    c = compareLongs(profileTimes[a], profileTimes[b]);
+                }
+                if (c == 0) {
+                    c = compareLongs(profileItems[a], profileItems[b]);
+                }
+                return c;
+            }
+
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compare(a.intValue(), b.intValue());
+            }
+        };
+        for (int u = 0; u + 1 < userOffsets.length; u++) {
+            int start = userOffsets[u];
+            int k = userOffsets[u + 1] - start;
+            for (int j = 0; j < k; j++) {
+                order[j] = j;
+                profileItems[j] = itemCol.getLong(start + j);
+                profileValues[j] = valueCol.getFloat(start + j);
+                if (profileTimes != null) {
+                    profileTimes[j] = timeCol.getLong(start + j);
+                }
+            }
+            IntArrays.quickSort(order, 0, k, cmp);
+            for (int j = 0; j < k; j++) {
+                int r = order[j];
+                itemCol.putLong(start + j, profileItems[r]);
+                valueCol.putFloat(start + j, profileValues[r]);
+                if (profileTimes != null) {
+                    timeCol.putLong(start + j, profileTimes[r]);
+                }
+            }
+        }
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a > b ? 1 : 0);
+    }
+
+    private static long align(long pos) {
+        return (pos + 7) & ~7L;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long pos, long size) throws IOException {
+        return map(channel, FileChannel.MapMode.READ_ONLY, pos, size);
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode,
+                                        long pos, long size) throws IOException {
+        if (pos + size > channel.size()) {
+            throw new IOException("rating file is truncated");
+        }
+        MappedByteBuffer buf = channel.map(mode, pos, size);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        return buf;
+    }
+
+    /**
+     * A column of fixed-width values, mapped in windows that each fit in a single mapping.
+     * The window size is a multiple of every value width, so no value spans two windows.  A
+     * column mapped for writing is how {@link #convert(File, char, File)} fills the file.
+     */
+    private static final class Column {
+        private static final int WINDOW_SHIFT = 30;
+        private static final long WINDOW_MASK = (1L << WINDOW_SHIFT) - 1;
+
+        private final MappedByteBuffer[] windows;
+        private final int widthShift;
+
+        Column(FileChannel channel, long start, int width, int count) throws IOException {
+            this(channel, start, width, count, false);
+        }
+
+        Column(FileChannel channel, long start, int width, int count,
+               boolean writable) throws IOException {
+            FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE
+                                                : FileChannel.MapMode.READ_ONLY;
+            widthShift = Integer.numberOfTrailingZeros(width);
+            long size = (long) count << widthShift;
+            int nwindows = (int) ((size + WINDOW_MASK) >>> WINDOW_SHIFT);
+            windows = new MappedByteBuffer[nwindows];
+            for (int w = 0; w < nwindows; w++) {
+                long off = (long) w << WINDOW_SHIFT;
+                windows[w] = map(channel, mode, start + off,
+                                 Math.min(size - off, 1L << WINDOW_SHIFT));
+            }
+        }
+
+        long getLong(int i) {
+            long off = (long) i << widthShift;
+            return windows[(int) (off >>> WINDOW_SHIFT)].getLong((int) (off & WINDOW_MASK));
+        }
+
+        int getInt(int i) {
+            long off = (long) i << widthShift;
+            return windows[(int) (off >>> WINDOW_SHIFT)].getInt((int) (off & WINDOW_MASK));
+        }
+
+        float getFloat(int i) {
+            long off = (long) i << widthShift;
+            return windows[(int) (off >>> WINDOW_SHIFT)].getFloat((int) (off & WINDOW_MASK));
+        }
+
+        void putLong(int i, long v) {
+            long off = (long) i << widthShift;
+            windows[(int) (off >>> WINDOW_SHIFT)].putLong((int) (off & WINDOW_MASK), v);
+        }
+
+        void putInt(int i, int v) {
+            long off = (long) i << widthShift;
+            windows[(int) (off >>> WINDOW_SHIFT)].putInt((int) (off & WINDOW_MASK), v);
+        }
+
+        void putFloat(int i, float v) {
+            long off = (long) i << widthShift;
+            windows[(int) (off >>> WINDOW_SHIFT)].putFloat((int) (off & WINDOW_MASK), v);
+        }
+
+        /**
+         * Write any changes to the column back to the file.
+         */
+        void force() {
+            for (MappedByteBuffer window : windows) {
+                window.force();
+            }
+        }
+    }
+
+    /**
+     * Write primitive values to a channel through a fixed-size little-endian buffer.
+     */
+    private static class BlockWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long written;
+
+        BlockWriter(FileChannel chan) {
+            channel = chan;
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void putInt(int v) throws IOException {
+            ensureSpace(4);
+            buffer.putInt(v);
+        }
+
+        void putLong(long v) throws IOException {
+            ensureSpace(8);
+            buffer.putLong(v);
+        }
+
+        void putFloat(float v) throws IOException {
+            ensureSpace(4);
+            buffer.putFloat(v);
+        }
+
+        /**
+         * Pad the output with zeros to the next 8-byte boundary.
+         */
+        void align() throws IOException {
+            long pos = written + buffer.position();
+            for (long p = pos; p < ColumnarRatingStore.align(pos); p++) {
+                ensureSpace(1);
+                buffer.put((byte) 0);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensureSpace(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+}
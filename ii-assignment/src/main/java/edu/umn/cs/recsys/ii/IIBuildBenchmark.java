@@ -0,0 +1,75 @@
+package edu.umn.cs.recsys.ii;
+
+import edu.umn.cs.recsys.dao.MOOCItemDAO;
+import edu.umn.cs.recsys.dao.MOOCRatingDAO;
+import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Benchmark building the item-item model with different numbers of threads.  The arguments are
+ * the thread counts to try; by default, it tries powers of two up to the number of available
+ * processors.  Each count is built several times after a warm-up build, and the best time is
+ * reported with its speedup over the first count.  With {@code --inverted}, it benchmarks the
+ * {@link InvertedIndexItemItemModelBuilder} instead of the pairwise builder.
+ */
+public class IIBuildBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger("ii-assignment");
+    private static final int REPETITIONS = 3;
+
+    public static void main(String[] args) {
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        boolean inverted = false;
+        for (String arg : args) {
+            if (arg.equals("--inverted")) {
+                inverted = true;
+            } else {
+                threadCounts.add(Integer.parseInt(arg));
+            }
+        }
+        if (threadCounts.isEmpty()) {
+            int nprocs = Runtime.getRuntime().availableProcessors();
+            for (int n = 1; n < nprocs; n *= 2) {
+                threadCounts.add(n);
+            }
+            threadCounts.add(nprocs);
+        }
+
+        ItemDAO items = new MOOCItemDAO(new File("data/movie-titles.csv"));
+        UserEventDAO users = new MOOCRatingDAO(new File("data/ratings.csv"));
+
+        logger.info("warming up");
+        build(items, users, threadCounts.get(0), inverted);
+
+        System.out.println("Threads,Seconds,Speedup");
+        double baseTime = 0;
+        for (int nthreads : threadCounts) {
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < REPETITIONS; i++) {
+                long start = System.nanoTime();
+                build(items, users, nthreads, inverted);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            double seconds = best / 1.0e9;
+            if (baseTime == 0) {
+                baseTime = seconds;
+            }
+            System.out.format(Locale.ROOT, "%d,%.3f,%.2f\n", nthreads, seconds, baseTime / seconds);
+        }
+    }
+
+    private static SimpleItemItemModel build(ItemDAO items, UserEventDAO users, int nthreads,
+                                             boolean inverted) {
+        if (inverted) {
+            return new InvertedIndexItemItemModelBuilder(items, users, nthreads, 0, 0).get();
+        } else {
+            return new SimpleItemItemModelBuilder(items, users, nthreads, 0, 0).get();
+        }
+    }
+}
@@ -11,7 +11,9 @@ import org.grouplens.lenskit.core.LenskitConfiguration;
 import org.grouplens.lenskit.core.LenskitRecommender;
 import org.grouplens.lenskit.data.dao.EventDAO;
 import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.dao.ItemEventDAO;
 import org.grouplens.lenskit.data.dao.UserDAO;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
 import org.grouplens.lenskit.knn.NeighborhoodSize;
 import org.grouplens.lenskit.scored.ScoredId;
 import org.grouplens.lenskit.vectors.SparseVector;
@@ -19,6 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -35,6 +38,21 @@ public class IIMain {
      * @param args The <tt>user:item</tt> pairs to score.
      */
     public static void main(String[] args) {
+        // pull out the model file options, so the rest can be parsed as before
+        File loadModel = null;
+        File saveModel = null;
+        List<String> remaining = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.startsWith("--load-model=")) {
+                loadModel = new File(arg.substring("--load-model=".length()));
+            } else if (arg.startsWith("--save-model=")) {
+                saveModel = new File(arg.substring("--save-model=".length()));
+            } else {
+                remaining.add(arg);
+            }
+        }
+        args = remaining.toArray(new String[remaining.size()]);
+
         Map<Long, Set<Long>> toScore = null;
         Set<Long> basket = null;
         if (args.length == 1 && args[0].equals("--all")) {
@@ -48,7 +66,10 @@ public class IIMain {
             toScore = parseArgs(args);
         }
 
-        LenskitConfiguration config = configureRecommender();
+        LenskitConfiguration config = configureRecommender(loadModel);
+        if (saveModel != null) {
+            config.addRoot(SimpleItemItemModel.class);
+        }
         LenskitRecommender rec;
         try {
             rec = LenskitRecommender.build(config);
@@ -58,6 +79,16 @@ public class IIMain {
             throw new AssertionError(); // to de-confuse unreachable code detection
         }
 
+        if (saveModel != null) {
+            try {
+                rec.get(SimpleItemItemModel.class).write(saveModel);
+                logger.info("saved model to {}", saveModel);
+            } catch (IOException e) {
+                logger.error("cannot write model to " + saveModel, e);
+                System.exit(2);
+            }
+        }
+
         // Get the item title DAO, so we can look up movie titles
         ItemTitleDAO titleDAO = rec.get(ItemTitleDAO.class);
 
@@ -140,15 +171,21 @@ public class IIMain {
     /**
      * Create the LensKit recommender configuration.
      *
+     * @param modelFile A model file to load instead of building the model, or {@code null}.
      * @return The LensKit recommender configuration.
      */
     // LensKit configuration API generates some unchecked warnings, turn them off
     @SuppressWarnings("unchecked")
-    private static LenskitConfiguration configureRecommender() {
+    private static LenskitConfiguration configureRecommender(File modelFile) {
         LenskitConfiguration config = new LenskitConfiguration();
         // configure the rating data source
         config.bind(EventDAO.class)
                 .to(MOOCRatingDAO.class);
+        // and serve user and item lookups from its indexes
+        config.bind(UserEventDAO.class)
+                .to(MOOCRatingDAO.class);
+        config.bind(ItemEventDAO.class)
+                .to(MOOCRatingDAO.class);
         config.set(RatingFile.class)
                 .to(new File("data/ratings.csv"));
 
@@ -174,6 +211,12 @@ public class IIMain {
         config.bind(GlobalItemScorer.class).to(SimpleGlobalItemScorer.class);
         config.set(NeighborhoodSize.class)
                 .to(20);
+        if (modelFile != null) {
+            config.bind(SimpleItemItemModel.class)
+                    .toProvider(SimpleItemItemModelFileProvider.class);
+            config.set(ModelFile.class)
+                    .to(modelFile);
+        }
         return config;
     }
 }
@@ -0,0 +1,123 @@
+package edu.umn.cs.recsys.ii;
+
+import edu.umn.cs.recsys.dao.MOOCItemDAO;
+import edu.umn.cs.recsys.dao.MOOCRatingDAO;
+import edu.umn.cs.recsys.dao.MOOCUserDAO;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.dao.UserDAO;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.vectors.MutableSparseVector;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Benchmark scoring every item for every user, comparing the per-item neighborhood search with
+ * scoring driven by the user's ratings.  The optional argument is the neighborhood size (20 by
+ * default).  It reports the mean time per user for each method, and the largest difference
+ * between their scores.  The per-item search takes the first rated neighbors in model order, so
+ * the scores can differ when similarities tie at the neighborhood size cutoff.
+ */
+public class IIScoreBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger("ii-assignment");
+    private static final int REPETITIONS = 5;
+
+    public static void main(String[] args) {
+        int nnbrs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+        ItemDAO items = new MOOCItemDAO(new File("data/movie-titles.csv"));
+        UserDAO userDAO = new MOOCUserDAO(new File("data/users.csv"));
+        UserEventDAO users = new MOOCRatingDAO(new File("data/ratings.csv"));
+        SimpleItemItemModel model = new SimpleItemItemModelBuilder(items, users, 0, 0, 0).get();
+        SimpleItemItemScorer scorer = new SimpleItemItemScorer(model, users, nnbrs);
+
+        LongSet itemIds = items.getItemIds();
+        List<SparseVector> profiles = new ArrayList<SparseVector>();
+        for (long user : userDAO.getUserIds()) {
+            profiles.add(scorer.getUserRatingVector(user));
+        }
+        MutableSparseVector byItem = MutableSparseVector.create(itemIds);
+        MutableSparseVector byRatings = MutableSparseVector.create(itemIds);
+
+        logger.info("warming up with {} users", profiles.size());
+        double maxDiff = 0;
+        for (SparseVector ratings : profiles) {
+            scoreByItem(model, nnbrs, ratings, byItem);
+            scorer.scoreFromRatings(ratings, byRatings);
+            for (VectorEntry e : byItem.fast()) {
+                maxDiff = Math.max(maxDiff, Math.abs(e.getValue() - byRatings.get(e.getKey(), Double.NaN)));
+            }
+            if (byItem.size() != byRatings.size()) {
+                logger.warn("methods scored different numbers of items: {} and {}",
+                            byItem.size(), byRatings.size());
+            }
+        }
+
+        long itemTime = Long.MAX_VALUE;
+        long ratingTime = Long.MAX_VALUE;
+        for (int i = 0; i < REPETITIONS; i++) {
+            long start = System.nanoTime();
+            for (SparseVector ratings : profiles) {
+                scoreByItem(model, nnbrs, ratings, byItem);
+            }
+            itemTime = Math.min(itemTime, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (SparseVector ratings : profiles) {
+                scorer.scoreFromRatings(ratings, byRatings);
+            }
+            ratingTime = Math.min(ratingTime, System.nanoTime() - start);
+        }
+
+        System.out.println("Method,MeanMicros");
+        System.out.format(Locale.ROOT, "PerItem,%.2f\n", itemTime / 1000.0 / profiles.size());
+        System.out.format(Locale.ROOT, "RatingDriven,%.2f\n", ratingTime / 1000.0 / profiles.size());
+        System.out.format(Locale.ROOT, "max score difference: %.6g\n", maxDiff);
+    }
+
+    /**
+     * Score items one at a time, searching each item's neighborhood for items the user has
+     * rated.  This is the reference for the rating-driven scores.
+     *
+     * @param model   The item-item model.
+     * @param nnbrs   The neighborhood size, or 0 for all rated neighbors.
+     * @param ratings The user's ratings.
+     * @param scores  The score vector.
+     */
+    private static void scoreByItem(SimpleItemItemModel model, int nnbrs,
+                                    SparseVector ratings, MutableSparseVector scores) {
+        scores.clear();
+        for (VectorEntry e : scores.fast(VectorEntry.State.EITHER)) {
+            int idx = model.getItemIndex(e.getKey());
+            if (idx < 0) {
+                continue;
+            }
+            double sum = 0;
+            double weight = 0;
+            int used = 0;
+            // neighbors are sorted by decreasing similarity, so the first rated ones are the best
+            for (int p = model.getNeighborStart(idx); p < model.getNeighborEnd(idx); p++) {
+                if (nnbrs > 0 && used >= nnbrs) {
+                    break;
+                }
+                long nbr = model.getNeighborId(p);
+                if (ratings.containsKey(nbr)) {
+                    double sim = model.getNeighborScore(p);
+                    sum += sim * ratings.get(nbr);
+                    weight += Math.abs(sim);
+                    used += 1;
+                }
+            }
+            if (weight > 0) {
+                scores.set(e, sum / weight);
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package edu.umn.cs.recsys.ii;
+
+import it.unimi.dsi.fastutil.longs.LongSortedSet;
+import org.grouplens.lenskit.collections.LongUtils;
+import org.grouplens.lenskit.core.Transient;
+import org.grouplens.lenskit.cursors.Cursor;
+import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.data.event.Event;
+import org.grouplens.lenskit.data.history.RatingVectorUserHistorySummarizer;
+import org.grouplens.lenskit.data.history.UserHistory;
+import org.grouplens.lenskit.scored.ScoredId;
+import org.grouplens.lenskit.util.TopNScoredItemAccumulator;
+import org.grouplens.lenskit.vectors.MutableSparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
+
+/**
+ * Build an item-item model from an inverted index of the ratings.  Instead of taking the dot
+ * product of every pair of item vectors, it walks each item's raters and, through each rater's
+ * own ratings, accumulates dot products only for the items that share at least one user with it.
+ * The work is proportional to the number of co-ratings rather than to the square of the number
+ * of items.
+ * <p>
+ * The neighborhoods are the same as those of {@link SimpleItemItemModelBuilder}, except that
+ * items with no users in common are not listed as zero-similarity neighbors (they contribute
+ * nothing to any score).  To use it, bind {@link SimpleItemItemModel} to this provider.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class InvertedIndexItemItemModelBuilder implements Provider<SimpleItemItemModel> {
+    private static final Logger logger = LoggerFactory.getLogger(InvertedIndexItemItemModelBuilder.class);
+
+    private final ItemDAO itemDao;
+    private final UserEventDAO userEventDao;
+    private final int threadCount;
+    private final int modelSize;
+    private final double threshold;
+
+    @Inject
+    public InvertedIndexItemItemModelBuilder(@Transient ItemDAO idao,
+                                             @Transient UserEventDAO uedao,
+                                             @ThreadCount int nthreads,
+                                             @ModelSize int size,
+                                             @SimilarityThreshold double minSim) {
+        itemDao = idao;
+        userEventDao = uedao;
+        threadCount = nthreads;
+        modelSize = size;
+        threshold = minSim;
+    }
+
+    @Override
+    public SimpleItemItemModel get() {
+        LongSortedSet items = LongUtils.packedSet(itemDao.getItemIds());
+        final int n = items.size();
+        long[] ids = items.toLongArray();
+
+        // Index each user's mean-centered ratings by item index
+        List<int[]> userItems = new ArrayList<int[]>();
+        List<double[]> userValues = new ArrayList<double[]>();
+        int[] itemCounts = new int[n];
+        Cursor<UserHistory<Event>> stream = userEventDao.streamEventsByUser();
+        try {
+            for (UserHistory<Event> evt : stream) {
+                MutableSparseVector vector = RatingVectorUserHistorySummarizer.makeRatingVector(evt).mutableCopy();
+                vector.add(-vector.mean());
+                int[] uitems = new int[vector.size()];
+                double[] uvalues = new double[vector.size()];
+                int k = 0;
+                for (VectorEntry e : vector.fast()) {
+                    int idx = Arrays.binarySearch(ids, e.getKey());
+                    if (idx >= 0) {
+                        uitems[k] = idx;
+                        uvalues[k] = e.getValue();
+                        itemCounts[idx] += 1;
+                        k++;
+                    }
+                }
+                userItems.add(Arrays.copyOf(uitems, k));
+                userValues.add(Arrays.copyOf(uvalues, k));
+            }
+        } finally {
+            stream.close();
+        }
+
+        // Invert it into each item's raters, in compressed row form
+        int[] itemOffsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            itemOffsets[i + 1] = itemOffsets[i] + itemCounts[i];
+        }
+        int[] itemUsers = new int[itemOffsets[n]];
+        double[] itemValues = new double[itemOffsets[n]];
+        int[] fill = Arrays.copyOf(itemOffsets, n);
+        double[] norms = new double[n];
+        for (int u = 0; u < userItems.size(); u++) {
+            int[] uitems = userItems.get(u);
+            double[] uvalues = userValues.get(u);
+            for (int k = 0; k < uitems.length; k++) {
+                int i = uitems[k];
+                itemUsers[fill[i]] = u;
+                itemValues[fill[i]] = uvalues[k];
+                fill[i] += 1;
+                norms[i] += uvalues[k] * uvalues[k];
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            norms[i] = Math.sqrt(norms[i]);
+        }
+
+        int nthreads = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+        logger.info("computing co-rating similarities of {} items over {} ratings with {} threads",
+                    n, itemUsers.length, nthreads);
+        RowWorker[] workers = new RowWorker[nthreads];
+        for (int t = 0; t < nthreads; t++) {
+            workers[t] = new RowWorker(t, nthreads, ids, norms, itemOffsets, itemUsers, itemValues,
+                                       userItems, userValues, modelSize, threshold);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+        try {
+            SimpleItemItemModelBuilder.runAll(pool, workers);
+        } finally {
+            pool.shutdown();
+        }
+
+        List<List<ScoredId>> neighbours = new ArrayList<List<ScoredId>>(n);
+        for (int row = 0; row < n; row++) {
+            neighbours.add(workers[row % nthreads].results.get(row / nthreads));
+        }
+        return SimpleItemItemModel.pack(ids, neighbours);
+    }
+
+    /**
+     * Compute the neighborhoods of one interleaved stripe of items, using a dense work array to
+     * accumulate the dot products with each co-rated item.
+     */
+    private static class RowWorker implements Callable<Void> {
+        private final int start;
+        private final int step;
+        private final long[] ids;
+        private final double[] norms;
+        private final int[] itemOffsets;
+        private final int[] itemUsers;
+        private final double[] itemValues;
+        private final List<int[]> userItems;
+        private final List<double[]> userValues;
+        private final int modelSize;
+        private final double threshold;
+        private final List<List<ScoredId>> results = new ArrayList<List<ScoredId>>();
+
+        RowWorker(int first, int stride, long[] itemIds, double[] ns,
+                  int[] offsets, int[] users, double[] values,
+                  List<int[]> uitems, List<double[]> uvalues,
+                  int size, double minSim) {
+            start = first;
+            step = stride;
+            ids = itemIds;
+            norms = ns;
+            itemOffsets = offsets;
+            itemUsers = users;
+            itemValues = values;
+            userItems = uitems;
+            userValues = uvalues;
+            modelSize = size;
+            threshold = minSim;
+        }
+
+        @Override
+        public Void call() {
+            final int n = ids.length;
+            double[] dots = new double[n];
+            boolean[] seen = new boolean[n];
+            int[] touched = new int[n];
+            for (int i = start; i < n; i += step) {
+                int ntouched = 0;
+                for (int p = itemOffsets[i]; p < itemOffsets[i + 1]; p++) {
+                    int u = itemUsers[p];
+                    double v = itemValues[p];
+                    int[] uitems = userItems.get(u);
+                    double[] uvalues = userValues.get(u);
+                    for (int k = 0; k < uitems.length; k++) {
+                        int j = uitems[k];
+                        if (j != i) {
+                            if (!seen[j]) {
+                                seen[j] = true;
+                                touched[ntouched++] = j;
+                            }
+                            dots[j] += v * uvalues[k];
+                        }
+                    }
+                }
+
+                TopNScoredItemAccumulator accumulator = new TopNScoredItemAccumulator(
+                        SimpleItemItemModelBuilder.getNeighborhoodCapacity(modelSize, ntouched + 1));
+                for (int k = 0; k < ntouched; k++) {
+                    int j = touched[k];
+                    double denom = norms[i] * norms[j];
+                    double sim = denom == 0 ? 0 : dots[j] / denom;
+                    if (sim >= threshold) {
+                        accumulator.put(ids[j], sim);
+                    }
+                    dots[j] = 0;
+                    seen[j] = false;
+                }
+                results.add(accumulator.finish());
+            }
+            return null;
+        }
+    }
+}
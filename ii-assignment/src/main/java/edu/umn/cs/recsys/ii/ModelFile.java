@@ -0,0 +1,19 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.io.File;
+import java.lang.annotation.*;
+
+/**
+ * Parameter annotation for an item-item model file, as written by
+ * {@link SimpleItemItemModel#write(File)}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+@Qualifier
+@Parameter(File.class)
+public @interface ModelFile {
+}
@@ -0,0 +1,22 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the number of neighbors the item-item model keeps for each item.  If 0,
+ * every neighbor that passes the {@link SimilarityThreshold} is kept, and the model grows with
+ * the square of the number of items.  The default is well above the neighborhood sizes the
+ * scorer uses, but it also truncates the neighborhoods the global (basket) scorer sums over.
+ */
+@Documented
+@Qualifier
+@DefaultInteger(500)
+@Parameter(Integer.class)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ModelSize {
+}
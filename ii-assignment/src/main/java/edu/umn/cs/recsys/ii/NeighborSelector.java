@@ -0,0 +1,189 @@
+package edu.umn.cs.recsys.ii;
+
+/**
+ * Select the most similar neighbors from a stream of candidates, using a bounded min-heap of
+ * primitive IDs and similarities.  Offering <i>n</i> candidates costs O(<i>n</i> log <i>k</i>)
+ * for a neighborhood of size <i>k</i>, with no boxing.
+ * <p>
+ * Candidates whose similarity is below the minimum are ignored.  Ties are broken by ID, so that
+ * among equally similar candidates those with smaller IDs are kept; the selected neighbors do not
+ * depend on the order in which candidates are offered.  Each candidate can carry a position
+ * alongside its ID, such as the index of its rating, which does not affect the selection.  A
+ * selector can be {@linkplain #clear() cleared} and reused, so a scorer needs only one per
+ * request.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public final class NeighborSelector {
+    private final int capacity;
+    private final double minSimilarity;
+    private final long[] ids;
+    private final double[] sims;
+    private final int[] positions;
+    private int size;
+    private boolean sorted;
+
+    /**
+     * Create a neighbor selector.
+     *
+     * @param n      The number of neighbors to select.
+     * @param minSim The smallest similarity a neighbor may have.
+     */
+    public NeighborSelector(int n, double minSim) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("neighborhood size must be positive");
+        }
+        capacity = n;
+        minSimilarity = minSim;
+        ids = new long[n];
+        sims = new double[n];
+        positions = new int[n];
+    }
+
+    /**
+     * Offer a candidate neighbor.
+     *
+     * @param id  The candidate's ID.
+     * @param sim The candidate's similarity.
+     * @return {@code true} if the candidate is currently among the selected neighbors.
+     */
+    public boolean offer(long id, double sim) {
+        return offer(id, sim, -1);
+    }
+
+    /**
+     * Offer a candidate neighbor with a position.
+     *
+     * @param id  The candidate's ID.
+     * @param sim The candidate's similarity.
+     * @param pos The candidate's position, returned by {@link #getPosition(int)} if it is selected.
+     * @return {@code true} if the candidate is currently among the selected neighbors.
+     */
+    public boolean offer(long id, double sim, int pos) {
+        if (sorted) {
+            throw new IllegalStateException("selector has been finished");
+        }
+        if (Double.isNaN(sim) || sim < minSimilarity) {
+            return false;
+        }
+        if (size < capacity) {
+            ids[size] = id;
+            sims[size] = sim;
+            positions[size] = pos;
+            siftUp(size);
+            size += 1;
+            return true;
+        } else if (worse(0, id, sim)) {
+            ids[0] = id;
+            sims[0] = sim;
+            positions[0] = pos;
+            siftDown(0, size);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Finish selecting, sorting the selected neighbors by decreasing similarity.  No more
+     * candidates may be offered until the selector is cleared.
+     *
+     * @return The number of neighbors selected.
+     */
+    public int finish() {
+        if (!sorted) {
+            // heapsort: repeatedly move the least similar neighbor to the end
+            for (int end = size - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+            sorted = true;
+        }
+        return size;
+    }
+
+    /**
+     * Get the ID of a selected neighbor.
+     *
+     * @param i The neighbor's rank, after {@link #finish()}.
+     * @return The neighbor's ID.
+     */
+    public long getId(int i) {
+        return ids[i];
+    }
+
+    /**
+     * Get the similarity of a selected neighbor.
+     *
+     * @param i The neighbor's rank, after {@link #finish()}.
+     * @return The neighbor's similarity.
+     */
+    public double getSimilarity(int i) {
+        return sims[i];
+    }
+
+    /**
+     * Get the position of a selected neighbor.
+     *
+     * @param i The neighbor's rank, after {@link #finish()}.
+     * @return The position the neighbor was offered with, or -1 if it had none.
+     */
+    public int getPosition(int i) {
+        return positions[i];
+    }
+
+    /**
+     * Clear the selector so it can be reused.
+     */
+    public void clear() {
+        size = 0;
+        sorted = false;
+    }
+
+    /**
+     * Query whether the heap entry at a position is worse than a candidate.
+     */
+    private boolean worse(int i, long id, double sim) {
+        return sims[i] < sim || (sims[i] == sim && ids[i] > id);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!worse(i, ids[parent], sims[parent])) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int n) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                break;
+            }
+            if (child + 1 < n && worse(child + 1, ids[child], sims[child])) {
+                child += 1;
+            }
+            if (!worse(child, ids[i], sims[i])) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long ti = ids[i];
+        ids[i] = ids[j];
+        ids[j] = ti;
+        double ts = sims[i];
+        sims[i] = sims[j];
+        sims[j] = ts;
+        int tp = positions[i];
+        positions[i] = positions[j];
+        positions[j] = tp;
+    }
+}
@@ -0,0 +1,88 @@
+package edu.umn.cs.recsys.ii;
+
+/**
+ * The transpose of the neighborhoods in a {@link SimpleItemItemModel}: for each item, the items
+ * whose neighborhoods contain it, with the corresponding similarities.  This lets a scorer start
+ * from the items a user has rated (or a basket) and push their contributions to the items they
+ * are neighbors of, instead of searching every target item's neighborhood.
+ * <p>
+ * The entries for the item at index <i>j</i> occupy positions {@link #getStart(int) getStart(j)}
+ * to {@link #getEnd(int) getEnd(j)}; targets are item indexes in the model.
+ */
+final class ReverseNeighborIndex {
+    private final int[] offsets;
+    private final int[] targets;
+    private final float[] scores;
+
+    private ReverseNeighborIndex(int[] offs, int[] tgts, float[] ss) {
+        offsets = offs;
+        targets = tgts;
+        scores = ss;
+    }
+
+    /**
+     * Build the reverse index of a model.
+     *
+     * @param model The model.
+     * @return The reverse neighbor index.
+     */
+    static ReverseNeighborIndex build(SimpleItemItemModel model) {
+        final int n = model.getItemCount();
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            for (int p = model.getNeighborStart(i); p < model.getNeighborEnd(i); p++) {
+                int j = model.getItemIndex(model.getNeighborId(p));
+                if (j >= 0) {
+                    offsets[j + 1] += 1;
+                }
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            offsets[j + 1] += offsets[j];
+        }
+
+        int[] fill = new int[n];
+        System.arraycopy(offsets, 0, fill, 0, n);
+        int[] targets = new int[offsets[n]];
+        float[] scores = new float[offsets[n]];
+        for (int i = 0; i < n; i++) {
+            for (int p = model.getNeighborStart(i); p < model.getNeighborEnd(i); p++) {
+                int j = model.getItemIndex(model.getNeighborId(p));
+                if (j >= 0) {
+                    targets[fill[j]] = i;
+                    scores[fill[j]] = (float) model.getNeighborScore(p);
+                    fill[j] += 1;
+                }
+            }
+        }
+        return new ReverseNeighborIndex(offsets, targets, scores);
+    }
+
+    public int getStart(int item) {
+        return offsets[item];
+    }
+
+    public int getEnd(int item) {
+        return offsets[item + 1];
+    }
+
+    /**
+     * Get the target item of an entry.
+     *
+     * @param pos The entry position.
+     * @return The index of the item whose neighborhood contains the entry's item.
+     */
+    public int getTarget(int pos) {
+        return targets[pos];
+    }
+
+    /**
+     * Get the similarity of an entry.
+     *
+     * @param pos The entry position.
+     * @return The similarity between the entry's item and its target.
+     */
+    public double getScore(int pos) {
+        return scores[pos];
+    }
+}
@@ -0,0 +1,20 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.grapht.annotation.DefaultDouble;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the lowest similarity an item can have and still be stored as a
+ * neighbor in the item-item model.
+ */
+@Documented
+@Qualifier
+@DefaultDouble(0)
+@Parameter(Double.class)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface SimilarityThreshold {
+}
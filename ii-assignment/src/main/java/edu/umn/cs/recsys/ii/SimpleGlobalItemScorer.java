@@ -1,18 +1,22 @@
 package edu.umn.cs.recsys.ii;
 
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import org.grouplens.lenskit.basic.AbstractGlobalItemScorer;
-import org.grouplens.lenskit.scored.ScoredId;
 import org.grouplens.lenskit.vectors.MutableSparseVector;
-import org.grouplens.lenskit.vectors.VectorEntry;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
 
 /**
- * Global item scorer to find similar items.
+ * Global item scorer to find similar items.  Each item's score is the sum of its similarities to
+ * the items in the basket that are in its neighborhood.
+ * <p>
+ * Rather than searching every candidate's neighborhood for basket items, it walks each basket
+ * item's entries in the model's {@linkplain ReverseNeighborIndex reverse neighbor index}, so the
+ * work is proportional to the basket's reverse neighbors and linear in the basket size.
  *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
@@ -34,28 +38,23 @@ public class SimpleGlobalItemScorer extends AbstractGlobalItemScorer {
     @Override
     public void globalScore(@Nonnull Collection<Long> items, @Nonnull MutableSparseVector scores) {
         scores.fill(0);
-        // TODO score items in the domain of scores
-        // each item's score is the sum of its similarity to each item in items, if they are
-        // neighbors in the model.
 
-//        System.out.println(scores.toString());
-
-        List<Long> bucketItems = new ArrayList<Long>(items);
-
-        for (VectorEntry eachItem : scores.fast()) {
-
-            double scoreValue = 0;
-            List<ScoredId> neighborsForEachItemList = model.getNeighbors(eachItem.getKey());
-
-            for (ScoredId eachNeighbour : neighborsForEachItemList) {
-
-                if (bucketItems.contains(eachNeighbour.getId())) {
-                    scoreValue += eachNeighbour.getScore();
+        // count each basket item once, however the basket was given to us
+        LongSet basket = new LongOpenHashSet(items);
+        LongSet domain = scores.keyDomain();
+        ReverseNeighborIndex index = model.getReverseIndex();
+        LongIterator iter = basket.iterator();
+        while (iter.hasNext()) {
+            int j = model.getItemIndex(iter.nextLong());
+            if (j < 0) {
+                continue;
+            }
+            for (int p = index.getStart(j); p < index.getEnd(j); p++) {
+                long target = model.getItemId(index.getTarget(p));
+                if (domain.contains(target)) {
+                    scores.add(target, index.getScore(p));
                 }
             }
-
-            scores.set(eachItem.getKey(), scoreValue);
         }
-
     }
 }
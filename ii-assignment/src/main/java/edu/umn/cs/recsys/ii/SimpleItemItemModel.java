@@ -3,21 +3,33 @@ package edu.umn.cs.recsys.ii;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.grouplens.lenskit.core.Shareable;
 import org.grouplens.lenskit.scored.ScoredId;
+import org.grouplens.lenskit.scored.ScoredIdListBuilder;
+import org.grouplens.lenskit.scored.ScoredIds;
 
-import java.io.Serializable;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.io.*;
+import java.util.*;
 
 /**
+ * An item-item model, storing each item's neighborhood in flat primitive arrays.  The items are
+ * kept in a sorted array; the neighbors of the item at index <i>i</i> occupy positions
+ * {@link #getNeighborStart(int) getNeighborStart(i)} (inclusive) to
+ * {@link #getNeighborEnd(int) getNeighborEnd(i)} (exclusive) of parallel arrays of neighbor IDs
+ * and similarity scores, sorted by decreasing score.
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 @Shareable
 @DefaultProvider(SimpleItemItemModelBuilder.class)
 public class SimpleItemItemModel implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+    private static final int MAGIC = 0x49494D4D; // "IIMM"
+    private static final int VERSION = 1;
 
-    private final Map<Long, List<ScoredId>> neighborhoods;
+    private final long[] items;
+    private final int[] offsets;
+    private final long[] neighborIds;
+    private final float[] neighborScores;
+    private transient volatile ReverseNeighborIndex reverseIndex;
 
     /**
      * Create a new item-item model.
@@ -28,20 +40,236 @@ public class SimpleItemItemModel implements Serializable {
      *                 scores.
      */
     public SimpleItemItemModel(Map<Long, List<ScoredId>> nbrhoods) {
-        neighborhoods = nbrhoods;
+        long[] ids = new long[nbrhoods.size()];
+        int i = 0;
+        for (long item : nbrhoods.keySet()) {
+            ids[i++] = item;
+        }
+        Arrays.sort(ids);
+        List<List<ScoredId>> rows = new ArrayList<List<ScoredId>>(ids.length);
+        for (long item : ids) {
+            rows.add(nbrhoods.get(item));
+        }
+        SimpleItemItemModel packed = pack(ids, rows);
+        items = packed.items;
+        offsets = packed.offsets;
+        neighborIds = packed.neighborIds;
+        neighborScores = packed.neighborScores;
+    }
+
+    SimpleItemItemModel(long[] items, int[] offsets, long[] nbrs, float[] scores) {
+        this.items = items;
+        this.offsets = offsets;
+        neighborIds = nbrs;
+        neighborScores = scores;
     }
 
     /**
-     * Get the neighbors of an item.
+     * Pack neighborhoods into a model.
+     *
+     * @param ids  The item IDs, in increasing order.
+     * @param rows The neighborhood of each item, in the same order as the IDs, sorted by
+     *             decreasing score.  A {@code null} neighborhood is empty.
+     * @return The item-item model.
+     */
+    static SimpleItemItemModel pack(long[] ids, List<List<ScoredId>> rows) {
+        int[] offsets = new int[ids.length + 1];
+        for (int i = 0; i < ids.length; i++) {
+            List<ScoredId> row = rows.get(i);
+            offsets[i + 1] = offsets[i] + (row == null ? 0 : row.size());
+        }
+        long[] nbrs = new long[offsets[ids.length]];
+        float[] scores = new float[offsets[ids.length]];
+        for (int i = 0; i < ids.length; i++) {
+            List<ScoredId> row = rows.get(i);
+            if (row != null) {
+                int pos = offsets[i];
+                for (ScoredId id : row) {
+                    nbrs[pos] = id.getId();
+                    scores[pos] = (float) id.getScore();
+                    pos++;
+                }
+            }
+        }
+        return new SimpleItemItemModel(ids, offsets, nbrs, scores);
+    }
+
+    /**
+     * Get the number of items in the model.
+     *
+     * @return The number of items.
+     */
+    public int getItemCount() {
+        return items.length;
+    }
+
+    /**
+     * Get the index of an item.
+     *
+     * @param item The item ID.
+     * @return The item's index, or a negative value if the item is not in the model.
+     */
+    public int getItemIndex(long item) {
+        return Arrays.binarySearch(items, item);
+    }
+
+    /**
+     * Get the ID of the item at an index.
+     *
+     * @param idx The item index.
+     * @return The item ID.
+     */
+    public long getItemId(int idx) {
+        return items[idx];
+    }
+
+    /**
+     * Get the position of an item's first neighbor.
+     *
+     * @param idx The item index.
+     * @return The position of the item's first (most similar) neighbor.
+     */
+    public int getNeighborStart(int idx) {
+        return offsets[idx];
+    }
+
+    /**
+     * Get the position after an item's last neighbor.
+     *
+     * @param idx The item index.
+     * @return The position after the item's last neighbor.
+     */
+    public int getNeighborEnd(int idx) {
+        return offsets[idx + 1];
+    }
+
+    /**
+     * Get the ID of the neighbor at a position.
+     *
+     * @param pos The neighbor position.
+     * @return The neighbor's item ID.
+     */
+    public long getNeighborId(int pos) {
+        return neighborIds[pos];
+    }
+
+    /**
+     * Get the similarity of the neighbor at a position.
+     *
+     * @param pos The neighbor position.
+     * @return The neighbor's similarity to the item whose neighborhood contains it.
+     */
+    public double getNeighborScore(int pos) {
+        return neighborScores[pos];
+    }
+
+    /**
+     * Get the reverse neighbor index of this model, building it on first use.
+     *
+     * @return The reverse neighbor index.
+     */
+    ReverseNeighborIndex getReverseIndex() {
+        ReverseNeighborIndex index = reverseIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = reverseIndex;
+                if (index == null) {
+                    index = ReverseNeighborIndex.build(this);
+                    reverseIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Get the neighbors of an item.  This copies the neighborhood out of the model; scorers
+     * should prefer the positional accessors.
      *
      * @return The neighbors of the item, sorted by decreasing score.
      */
     public List<ScoredId> getNeighbors(long item) {
-        List<ScoredId> nbrs = neighborhoods.get(item);
-        if (nbrs == null) {
+        int idx = getItemIndex(item);
+        if (idx < 0) {
             return Collections.emptyList();
-        } else {
-            return nbrs;
+        }
+        ScoredIdListBuilder builder = ScoredIds.newListBuilder();
+        for (int pos = offsets[idx]; pos < offsets[idx + 1]; pos++) {
+            builder.add(neighborIds[pos], neighborScores[pos]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Write the model to a binary file.  The file holds a header (magic number, format version,
+     * item count and neighbor count) followed by the item IDs, the neighborhood offsets, the
+     * neighbor IDs and the neighbor scores, all big-endian.
+     *
+     * @param file The file to write.
+     * @throws IOException if there is an error writing the file.
+     */
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(items.length);
+            out.writeInt(neighborIds.length);
+            for (long item : items) {
+                out.writeLong(item);
+            }
+            for (int off : offsets) {
+                out.writeInt(off);
+            }
+            for (long nbr : neighborIds) {
+                out.writeLong(nbr);
+            }
+            for (float score : neighborScores) {
+                out.writeFloat(score);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read a model from a binary file written by {@link #write(File)}.
+     *
+     * @param file The file to read.
+     * @return The model.
+     * @throws IOException if there is an error reading the file, or it is not a model file.
+     */
+    public static SimpleItemItemModel read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + ": not an item-item model file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(file + ": unsupported model version " + version);
+            }
+            int nitems = in.readInt();
+            int nnbrs = in.readInt();
+            long[] items = new long[nitems];
+            for (int i = 0; i < nitems; i++) {
+                items[i] = in.readLong();
+            }
+            int[] offsets = new int[nitems + 1];
+            for (int i = 0; i <= nitems; i++) {
+                offsets[i] = in.readInt();
+            }
+            long[] nbrs = new long[nnbrs];
+            for (int i = 0; i < nnbrs; i++) {
+                nbrs[i] = in.readLong();
+            }
+            float[] scores = new float[nnbrs];
+            for (int i = 0; i < nnbrs; i++) {
+                scores[i] = in.readFloat();
+            }
+            return new SimpleItemItemModel(items, offsets, nbrs, scores);
+        } finally {
+            in.close();
         }
     }
 }
@@ -15,70 +15,212 @@ import org.grouplens.lenskit.util.TopNScoredItemAccumulator;
 import org.grouplens.lenskit.vectors.ImmutableSparseVector;
 import org.grouplens.lenskit.vectors.MutableSparseVector;
 import org.grouplens.lenskit.vectors.VectorEntry;
-import org.grouplens.lenskit.vectors.similarity.CosineVectorSimilarity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
 
 /**
+ * Build an item-item model by computing the cosine similarity of each pair of items.
+ * <p>
+ * Cosine similarity is symmetric, so each unordered pair is computed once and offered to both
+ * items' neighborhoods.  The items are split into twice as many blocks as there are threads,
+ * and the similarity matrix into tiles, one for each pair of blocks.  The tiles are computed in
+ * rounds, scheduled as a round-robin tournament between the blocks, so that no two tiles in a
+ * round touch the same block; a tile can then offer its similarities straight to the single
+ * accumulator of each of its items, and the build only holds one neighborhood per item.  Each
+ * neighborhood keeps at most {@link ModelSize} neighbors whose similarity is at least the
+ * {@link SimilarityThreshold}.
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class SimpleItemItemModelBuilder implements Provider<SimpleItemItemModel> {
     private final ItemDAO itemDao;
     private final UserEventDAO userEventDao;
+    private final int threadCount;
+    private final int modelSize;
+    private final double threshold;
     private static final Logger logger = LoggerFactory.getLogger(SimpleItemItemModelBuilder.class);
-    ;
 
     @Inject
     public SimpleItemItemModelBuilder(@Transient ItemDAO idao,
-                                      @Transient UserEventDAO uedao) {
+                                      @Transient UserEventDAO uedao,
+                                      @ThreadCount int nthreads,
+                                      @ModelSize int size,
+                                      @SimilarityThreshold double minSim) {
         itemDao = idao;
         userEventDao = uedao;
+        threadCount = nthreads;
+        modelSize = size;
+        threshold = minSim;
     }
 
-//    1024:77 1024:268 1024:462 1024:393 1024:36955 2048:77 2048:36955 2048:788
-
-
     @Override
     public SimpleItemItemModel get() {
         // Get the transposed rating matrix
         // This gives us a map of item IDs to those items' rating vectors
         Map<Long, ImmutableSparseVector> itemVectors = getItemVectors();
 
-        // Get all items - you might find this useful
+        // Get all items, and lay their vectors out in arrays so the inner loop does no lookups
         LongSortedSet items = LongUtils.packedSet(itemVectors.keySet());
+        final int n = items.size();
+        long[] ids = new long[n];
+        ImmutableSparseVector[] vectors = new ImmutableSparseVector[n];
+        double[] norms = new double[n];
+        int i = 0;
+        for (long item : items) {
+            ids[i] = item;
+            vectors[i] = itemVectors.get(item);
+            norms[i] = vectors[i].norm();
+            i++;
+        }
+
+        int nthreads = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+        logger.info("computing similarities of {} items with {} threads", n, nthreads);
+        int size = getNeighborhoodCapacity(modelSize, n);
+        TopNScoredItemAccumulator[] accumulators = new TopNScoredItemAccumulator[n];
+        int nblocks = 2 * nthreads;
+        int[] blockStarts = new int[nblocks + 1];
+        for (int b = 0; b <= nblocks; b++) {
+            blockStarts[b] = (int) ((long) n * b / nblocks);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+        try {
+            // the diagonal tiles first, then one round for each pairing of the blocks
+            TileWorker[] round = new TileWorker[nblocks];
+            for (int b = 0; b < nblocks; b++) {
+                round[b] = new TileWorker(b, b, blockStarts, ids, vectors, norms,
+                                          accumulators, size, threshold);
+            }
+            runAll(pool, round);
+            round = new TileWorker[nblocks / 2];
+            for (int r = 0; r < nblocks - 1; r++) {
+                round[0] = new TileWorker(r, nblocks - 1, blockStarts, ids, vectors, norms,
+                                          accumulators, size, threshold);
+                for (int k = 1; k < nblocks / 2; k++) {
+                    int b1 = (r + k) % (nblocks - 1);
+                    int b2 = (r - k + nblocks - 1) % (nblocks - 1);
+                    round[k] = new TileWorker(b1, b2, blockStarts, ids, vectors, norms,
+                                              accumulators, size, threshold);
+                }
+                runAll(pool, round);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        List<List<ScoredId>> neighbours = new ArrayList<List<ScoredId>>(n);
+        for (int row = 0; row < n; row++) {
+            TopNScoredItemAccumulator acc = accumulators[row];
+            neighbours.add(acc == null ? Collections.<ScoredId>emptyList() : acc.finish());
+            accumulators[row] = null;
+        }
+        return SimpleItemItemModel.pack(ids, neighbours);
+    }
+
+    /**
+     * Get the number of neighbors to accumulate for each item.
+     *
+     * @param modelSize The configured model size, or 0 for all neighbors.
+     * @param nitems    The number of items.
+     * @return The accumulator capacity.
+     */
+    static int getNeighborhoodCapacity(int modelSize, int nitems) {
+        int size = nitems - 1;
+        if (modelSize > 0 && modelSize < size) {
+            size = modelSize;
+        }
+        return Math.max(size, 1);
+    }
 
-        // Map items to vectors of item similarities
-//        Map<Long,MutableSparseVector> itemSimilarities = new HashMap<Long, MutableSparseVector>();
-        Map<Long, List<ScoredId>> neighbours = new HashMap<Long, List<ScoredId>>();
+    /**
+     * Run a batch of tasks on a pool and wait for all of them to finish.
+     *
+     * @param pool  The thread pool.
+     * @param tasks The tasks to run.
+     */
+    static void runAll(ExecutorService pool, Callable<?>[] tasks) {
+        List<Future<?>> results = new ArrayList<Future<?>>(tasks.length);
+        for (Callable<?> task : tasks) {
+            results.add(pool.submit(task));
+        }
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while building item-item model", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("error building item-item model", e.getCause());
+        }
+    }
 
-        // TODO FIXED Compute the similarities between each pair of items
+    /**
+     * Compute the similarities of one tile of the similarity matrix: the pairs of an item in one
+     * block with an item in another, or the pairs (<i>i</i>, <i>j</i>) with <i>j</i> &gt; <i>i</i>
+     * within a single block.  Only the accumulators of the two blocks' items are touched.
+     */
+    private static class TileWorker implements Callable<Void> {
+        private final int rowStart;
+        private final int rowEnd;
+        private final int colStart;
+        private final int colEnd;
+        private final boolean diagonal;
+        private final long[] ids;
+        private final ImmutableSparseVector[] vectors;
+        private final double[] norms;
+        private final TopNScoredItemAccumulator[] accumulators;
+        private final int neighborhoodSize;
+        private final double threshold;
 
-        CosineVectorSimilarity similarityObject = new CosineVectorSimilarity();
+        TileWorker(int rowBlock, int colBlock, int[] blockStarts, long[] itemIds,
+                   ImmutableSparseVector[] vecs, double[] ns, TopNScoredItemAccumulator[] accs,
+                   int size, double minSim) {
+            rowStart = blockStarts[rowBlock];
+            rowEnd = blockStarts[rowBlock + 1];
+            colStart = blockStarts[colBlock];
+            colEnd = blockStarts[colBlock + 1];
+            diagonal = rowBlock == colBlock;
+            ids = itemIds;
+            vectors = vecs;
+            norms = ns;
+            accumulators = accs;
+            neighborhoodSize = size;
+            threshold = minSim;
+        }
 
-        for (long itemId : items) {
-            TopNScoredItemAccumulator accumulator = new TopNScoredItemAccumulator(items.size() - 1);
-            for (long otherItemId : items) {
-                if (itemId != otherItemId) {
-                    double sim = similarityObject.similarity(itemVectors.get(itemId), itemVectors.get(otherItemId));
-                    if (sim >= 0) {
-                        accumulator.put(otherItemId, sim);
+        @Override
+        public Void call() {
+            for (int i = rowStart; i < rowEnd; i++) {
+                for (int j = diagonal ? i + 1 : colStart; j < colEnd; j++) {
+                    double denom = norms[i] * norms[j];
+                    double sim = denom == 0 ? 0 : vectors[i].dot(vectors[j]) / denom;
+                    if (sim >= threshold) {
+                        accumulator(i).put(ids[j], sim);
+                        accumulator(j).put(ids[i], sim);
                     }
                 }
             }
-            List<ScoredId> similarities = accumulator.finish();
-            neighbours.put(itemId, similarities);
-
+            return null;
         }
 
-        // It will need to be in a map of longs to lists of Scored IDs to store in the model
-//        return new SimpleItemItemModel(Collections.EMPTY_MAP);
-        return new SimpleItemItemModel(neighbours);
+        private TopNScoredItemAccumulator accumulator(int row) {
+            TopNScoredItemAccumulator acc = accumulators[row];
+            if (acc == null) {
+                acc = new TopNScoredItemAccumulator(neighborhoodSize);
+                accumulators[row] = acc;
+            }
+            return acc;
+        }
     }
 
     /**
@@ -0,0 +1,29 @@
+package edu.umn.cs.recsys.ii;
+
+import org.grouplens.lenskit.core.Transient;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Provide an item-item model by reading a model file instead of building it.
+ */
+public class SimpleItemItemModelFileProvider implements Provider<SimpleItemItemModel> {
+    private final File modelFile;
+
+    @Inject
+    public SimpleItemItemModelFileProvider(@Transient @ModelFile File file) {
+        modelFile = file;
+    }
+
+    @Override
+    public SimpleItemItemModel get() {
+        try {
+            return SimpleItemItemModel.read(modelFile);
+        } catch (IOException e) {
+            throw new RuntimeException("cannot read item-item model " + modelFile, e);
+        }
+    }
+}
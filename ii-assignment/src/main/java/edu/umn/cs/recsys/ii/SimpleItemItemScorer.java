@@ -7,22 +7,39 @@ import org.grouplens.lenskit.data.history.History;
 import org.grouplens.lenskit.data.history.RatingVectorUserHistorySummarizer;
 import org.grouplens.lenskit.data.history.UserHistory;
 import org.grouplens.lenskit.knn.NeighborhoodSize;
-import org.grouplens.lenskit.scored.ScoredId;
 import org.grouplens.lenskit.vectors.MutableSparseVector;
 import org.grouplens.lenskit.vectors.SparseVector;
 import org.grouplens.lenskit.vectors.VectorEntry;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
-import java.util.List;
+import java.util.Arrays;
 
 /**
+ * Item-item scorer.  An item's score is the similarity-weighted average of the user's ratings
+ * of the {@link NeighborhoodSize} most similar neighbors of the item that the user has rated.
+ * <p>
+ * Scoring is driven by the user's ratings: each rated item's contributions are pushed through
+ * the model's {@linkplain ReverseNeighborIndex reverse neighbor index} to the items being scored,
+ * so the work depends on the size of the user's profile rather than on the size of every target
+ * item's neighborhood.  The table mapping model items to the targets is kept per thread and only
+ * its touched entries are reset after each request, so a request does not allocate or clear
+ * anything proportional to the number of items in the model.
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class SimpleItemItemScorer extends AbstractItemScorer {
     private final SimpleItemItemModel model;
     private final UserEventDAO userEvents;
     private final int neighborhoodSize;
+    private final ThreadLocal<int[]> slotTables = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            int[] slots = new int[model.getItemCount()];
+            Arrays.fill(slots, -1);
+            return slots;
+        }
+    };
 
     @Inject
     public SimpleItemItemScorer(SimpleItemItemModel m, UserEventDAO dao,
@@ -42,31 +59,118 @@ public class SimpleItemItemScorer extends AbstractItemScorer {
     @Override
     public void score(long user, @Nonnull MutableSparseVector scores) {
         SparseVector ratings = getUserRatingVector(user);
+        scoreFromRatings(ratings, scores);
+    }
 
-        for (VectorEntry e : scores.fast(VectorEntry.State.EITHER)) {
-            long item = e.getKey();
-            // TODO Score this item and save the score into scores
-
-            List<ScoredId> neighbors = model.getNeighbors(item);
-            double score = 0;
-
-            for (ScoredId eachTop20ItemNeigh : neighbors) {
-
-                if (ratings.containsKey(eachTop20ItemNeigh.getId())) {
-
-                    score += ratings.get(eachTop20ItemNeigh.getId()) * eachTop20ItemNeigh.getScore();
+    /**
+     * Score items by pushing the user's ratings through the reverse neighbor index.
+     *
+     * @param ratings The user's ratings.
+     * @param scores  The score vector.
+     */
+    void scoreFromRatings(SparseVector ratings, MutableSparseVector scores) {
+        scores.clear();
+
+        // map the items being scored to slots; every entry is -1 between requests
+        int[] slots = slotTables.get();
+        long[] targets = new long[scores.keyDomain().size()];
+        int[] targetIndexes = new int[targets.length];
+        int ntargets = 0;
+        for (long item : scores.keyDomain()) {
+            int idx = model.getItemIndex(item);
+            if (idx >= 0) {
+                slots[idx] = ntargets;
+                targetIndexes[ntargets] = idx;
+                targets[ntargets++] = item;
+            }
+        }
+        try {
+            accumulateScores(ratings, slots, targets, ntargets, scores);
+        } finally {
+            for (int t = 0; t < ntargets; t++) {
+                slots[targetIndexes[t]] = -1;
+            }
+        }
+    }
 
+    /**
+     * Push the user's ratings to the targets and compute their scores.
+     *
+     * @param ratings  The user's ratings.
+     * @param slots    The slot of each model item among the targets, or -1 for other items.
+     * @param targets  The target item IDs, by slot.
+     * @param ntargets The number of targets.
+     * @param scores   The score vector.
+     */
+    private void accumulateScores(SparseVector ratings, int[] slots, long[] targets, int ntargets,
+                                  MutableSparseVector scores) {
+        ReverseNeighborIndex index = model.getReverseIndex();
+
+        // count the contributions to each target, then gather them
+        int[] offsets = new int[ntargets + 1];
+        for (VectorEntry e : ratings.fast()) {
+            int j = model.getItemIndex(e.getKey());
+            if (j >= 0) {
+                for (int p = index.getStart(j); p < index.getEnd(j); p++) {
+                    int slot = slots[index.getTarget(p)];
+                    if (slot >= 0) {
+                        offsets[slot + 1] += 1;
+                    }
                 }
             }
+        }
+        for (int t = 0; t < ntargets; t++) {
+            offsets[t + 1] += offsets[t];
+        }
+        long[] neighbors = new long[offsets[ntargets]];
+        double[] sims = new double[offsets[ntargets]];
+        double[] values = new double[offsets[ntargets]];
+        int[] fill = Arrays.copyOf(offsets, ntargets);
+        for (VectorEntry e : ratings.fast()) {
+            int j = model.getItemIndex(e.getKey());
+            if (j >= 0) {
+                for (int p = index.getStart(j); p < index.getEnd(j); p++) {
+                    int slot = slots[index.getTarget(p)];
+                    if (slot >= 0) {
+                        neighbors[fill[slot]] = e.getKey();
+                        sims[fill[slot]] = index.getScore(p);
+                        values[fill[slot]] = e.getValue();
+                        fill[slot] += 1;
+                    }
+                }
+            }
+        }
 
-            score /= 20;
-
-            score += ratings.mean();
-
-//            System.out.println(neighbors);
-
-            scores.set(item, score);
-
+        NeighborSelector selector = null;
+        for (int t = 0; t < ntargets; t++) {
+            int start = offsets[t];
+            int end = offsets[t + 1];
+            double sum = 0;
+            double weight = 0;
+            if (neighborhoodSize > 0 && end - start > neighborhoodSize) {
+                if (selector == null) {
+                    selector = new NeighborSelector(neighborhoodSize, Double.NEGATIVE_INFINITY);
+                }
+                selector.clear();
+                for (int p = start; p < end; p++) {
+                    // ties go to the smaller item ID; the position finds the rating
+                    selector.offer(neighbors[p], sims[p], p);
+                }
+                int n = selector.finish();
+                for (int k = 0; k < n; k++) {
+                    int p = selector.getPosition(k);
+                    sum += sims[p] * values[p];
+                    weight += Math.abs(sims[p]);
+                }
+            } else {
+                for (int p = start; p < end; p++) {
+                    sum += sims[p] * values[p];
+                    weight += Math.abs(sims[p]);
+                }
+            }
+            if (weight > 0) {
+                scores.set(targets[t], sum / weight);
+            }
         }
     }
 
@@ -76,7 +180,7 @@ public class SimpleItemItemScorer extends AbstractItemScorer {
      * @param user The user ID.
      * @return The ratings to retrieve.
      */
-    private SparseVector getUserRatingVector(long user) {
+    SparseVector getUserRatingVector(long user) {
         UserHistory<Rating> history = userEvents.getEventsForUser(user, Rating.class);
         if (history == null) {
             history = History.forUser(user);
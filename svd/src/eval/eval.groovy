@@ -2,6 +2,10 @@ import edu.umn.cs.recsys.dao.CSVItemTagDAO
 import edu.umn.cs.recsys.dao.TagFile
 import edu.umn.cs.recsys.dao.TitleFile
 import edu.umn.cs.recsys.svd.LatentFeatureCount
+import edu.umn.cs.recsys.svd.RandomizedSVDEngine
+import edu.umn.cs.recsys.svd.SGDModelBuilder
+import edu.umn.cs.recsys.svd.SVDEngine
+import edu.umn.cs.recsys.svd.SVDModel
 import edu.umn.cs.recsys.svd.SVDItemScorer
 import org.grouplens.lenskit.ItemScorer
 import org.grouplens.lenskit.baseline.*
@@ -134,5 +138,25 @@ trainTest {
             bind(BaselineScorer, ItemScorer) to UserMeanItemScorer
             bind(UserMeanBaseline, ItemScorer) to ItemMeanRatingItemScorer
         }
+
+        algorithm("SVDPersMeanRandomized") {
+            attributes["FeatureCount"] = size
+            bind ItemScorer to SVDItemScorer
+            set LatentFeatureCount to size
+            // compute only the leading singular vectors
+            bind SVDEngine to RandomizedSVDEngine
+            bind(BaselineScorer, ItemScorer) to UserMeanItemScorer
+            bind(UserMeanBaseline, ItemScorer) to ItemMeanRatingItemScorer
+        }
+
+        algorithm("SGDPersMean") {
+            attributes["FeatureCount"] = size
+            bind ItemScorer to SVDItemScorer
+            set LatentFeatureCount to size
+            // learn the factors from the observed ratings only
+            bind SVDModel toProvider SGDModelBuilder
+            bind(BaselineScorer, ItemScorer) to UserMeanItemScorer
+            bind(UserMeanBaseline, ItemScorer) to ItemMeanRatingItemScorer
+        }
     }
 }
@@ -3,13 +3,12 @@ package edu.umn.cs.recsys.dao;
 import com.google.common.collect.ImmutableSet;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
-import org.grouplens.lenskit.cursors.Cursor;
 import org.grouplens.lenskit.data.dao.DataAccessException;
-import org.grouplens.lenskit.util.DelimitedTextCursor;
 
 import javax.inject.Inject;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -35,25 +34,29 @@ public class CSVItemTagDAO extends MOOCItemDAO implements ItemTagDAO {
                 if (tagCache == null) {
                     tagCache = new Long2ObjectOpenHashMap<List<String>>();
                     ImmutableSet.Builder<String> vocabBuilder = ImmutableSet.builder();
-                    Cursor<String[]> lines = null;
+                    DelimitedFileReader reader;
                     try {
-                        lines = new DelimitedTextCursor(tagFile, ",");
+                        reader = new DelimitedFileReader(tagFile, ',');
                     } catch (FileNotFoundException e) {
                         throw new DataAccessException("cannot open file", e);
                     }
                     try {
-                        for (String[] line : lines) {
-                            long mid = Long.parseLong(line[0]);
+                        while (reader.nextRow()) {
+                            long mid = reader.readLong();
+                            // tags repeat heavily, so share one string per distinct tag
+                            String tag = reader.readInternedString();
                             List<String> tags = tagCache.get(mid);
                             if (tags == null) {
                                 tags = new ArrayList<String>();
                                 tagCache.put(mid, tags);
                             }
-                            tags.add(line[1]);
-                            vocabBuilder.add(line[1]);
+                            tags.add(tag);
+                            vocabBuilder.add(tag);
                         }
+                    } catch (IOException e) {
+                        throw new DataAccessException("cannot read file", e);
                     } finally {
-                        lines.close();
+                        reader.close();
                     }
                     vocabCache = vocabBuilder.build();
                 }
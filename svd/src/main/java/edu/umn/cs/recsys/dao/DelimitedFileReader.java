@@ -0,0 +1,388 @@
+package edu.umn.cs.recsys.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Fast reader for delimited text files such as the MOOC data files.  The file is read through a
+ * large NIO buffer and parsed in place: numeric fields are decoded straight from the bytes, and
+ * only string fields are decoded to {@link String}s.  Strings that repeat across the file, such
+ * as tags, can be read {@linkplain #readInternedString() interned}, so each distinct value is
+ * decoded and stored once.
+ * <p>
+ * Rows are read one field at a time, in order:
+ * <pre>
+ *     while (reader.nextRow()) {
+ *         long id = reader.readLong();
+ *         String name = reader.readString();
+ *     }
+ * </pre>
+ * Fields are split at every delimiter, with no quoting, and blank lines are skipped.  Reading a
+ * field past the end of a row yields an empty field; fields left unread are skipped by the next
+ * call to {@link #nextRow()}.  When the reader is closed, it logs how many rows it read and how
+ * fast.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public final class DelimitedFileReader implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(DelimitedFileReader.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    private final File file;
+    private final FileInputStream input;
+    private final FileChannel channel;
+    private final byte delimiter;
+    private final long startTime;
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    /**
+     * The number of valid bytes in the buffer.
+     */
+    private int limit;
+    /**
+     * The position of the next unread byte.
+     */
+    private int pos;
+    /**
+     * The end of the current row, excluding the line terminator.
+     */
+    private int rowEnd = -1;
+    private boolean eof;
+    private long rows;
+
+    private InternTable interned;
+
+    /**
+     * Open a delimited file.
+     *
+     * @param file      The file to read.
+     * @param delimiter The field delimiter, which must be an ASCII character.
+     * @throws FileNotFoundException if the file cannot be opened.
+     */
+    public DelimitedFileReader(File file, char delimiter) throws FileNotFoundException {
+        if (delimiter > 127) {
+            throw new IllegalArgumentException("delimiter must be ASCII");
+        }
+        this.file = file;
+        this.delimiter = (byte) delimiter;
+        input = new FileInputStream(file);
+        channel = input.getChannel();
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Advance to the next row.
+     *
+     * @return {@code true} if there is another row, {@code false} at the end of the file.
+     * @throws IOException if there is an error reading the file.
+     */
+    public boolean nextRow() throws IOException {
+        if (rowEnd >= 0) {
+            // skip the rest of the current row and its terminator
+            pos = Math.min(rowEnd + 1, limit);
+        }
+        while (true) {
+            int nl = indexOfNewline(pos);
+            while (nl < 0 && !eof) {
+                fill();
+                nl = indexOfNewline(pos);
+            }
+            if (nl < 0) {
+                // the last row may lack a terminator
+                nl = limit;
+            }
+            int end = nl;
+            if (end > pos && buffer[end - 1] == '\r') {
+                end -= 1;
+            }
+            if (end > pos) {
+                rowEnd = end;
+                rows += 1;
+                return true;
+            } else if (nl >= limit) {
+                rowEnd = -1;
+                pos = limit;
+                return false;
+            } else {
+                // blank line
+                pos = nl + 1;
+            }
+        }
+    }
+
+    /**
+     * Read the next field as a long integer.
+     *
+     * @return The field's value.
+     * @throws NumberFormatException if the field is not an integer.
+     */
+    public long readLong() {
+        int end = fieldEnd();
+        int p = pos;
+        boolean negative = false;
+        if (p < end && (buffer[p] == '-' || buffer[p] == '+')) {
+            negative = buffer[p] == '-';
+            p++;
+        }
+        if (p == end) {
+            throw badField("integer", end);
+        }
+        long value = 0;
+        for (; p < end; p++) {
+            int digit = buffer[p] - '0';
+            if (digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10) {
+                throw badField("integer", end);
+            }
+            // accumulate negatively, so Long.MIN_VALUE can be read
+            value = value * 10 - digit;
+        }
+        if (!negative && value == Long.MIN_VALUE) {
+            throw badField("integer", end);
+        }
+        skipField(end);
+        return negative ? value : -value;
+    }
+
+    /**
+     * Read the next field as a double.  Plain decimals with up to 15 significant digits are
+     * decoded directly; other forms are passed to {@link Double#parseDouble(String)}.
+     *
+     * @return The field's value.
+     * @throws NumberFormatException if the field is not a number.
+     */
+    public double readDouble() {
+        int end = fieldEnd();
+        int p = pos;
+        boolean negative = false;
+        if (p < end && (buffer[p] == '-' || buffer[p] == '+')) {
+            negative = buffer[p] == '-';
+            p++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1;
+        boolean simple = p < end;
+        for (; simple && p < end; p++) {
+            byte b = buffer[p];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits += 1;
+                if (scale >= 0) {
+                    scale += 1;
+                }
+            } else if (b == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                simple = false;
+            }
+        }
+        if (!simple || digits == 0 || digits > 15) {
+            String text = new String(buffer, pos, end - pos, UTF8);
+            skipField(end);
+            return Double.parseDouble(text);
+        }
+        // both operands are exact, so the quotient is correctly rounded
+        double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+        skipField(end);
+        return negative ? -value : value;
+    }
+
+    /**
+     * Read the next field as a string.
+     *
+     * @return The field's text.
+     */
+    public String readString() {
+        int end = fieldEnd();
+        String text = new String(buffer, pos, end - pos, UTF8);
+        skipField(end);
+        return text;
+    }
+
+    /**
+     * Read the next field as an interned string.  Every occurrence of the same text in this file
+     * returns the same string object, which is only decoded the first time it is read.
+     *
+     * @return The field's text.
+     */
+    public String readInternedString() {
+        int end = fieldEnd();
+        if (interned == null) {
+            interned = new InternTable();
+        }
+        String text = interned.intern(buffer, pos, end - pos);
+        skipField(end);
+        return text;
+    }
+
+    /**
+     * Query whether the current row has fields left to read.  Use this to read optional
+     * trailing fields.
+     *
+     * @return {@code true} if there is at least one more field in the current row.
+     */
+    public boolean hasMoreFields() {
+        return rowEnd >= 0 && pos < rowEnd;
+    }
+
+    /**
+     * Get the number of rows read so far.
+     *
+     * @return The number of rows.
+     */
+    public long getRowCount() {
+        return rows;
+    }
+
+    /**
+     * Close the file.  Errors closing the file are logged, since all of its data has been read.
+     */
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            input.close();
+        } catch (IOException e) {
+            logger.warn("error closing " + file, e);
+        }
+        double seconds = (System.nanoTime() - startTime) / 1.0e9;
+        logger.info("read {} rows from {} in {}",
+                    new Object[]{rows, file, String.format(Locale.ROOT, "%.3fs (%.0f rows/s)",
+                                                           seconds, rows / Math.max(seconds, 1.0e-9))});
+    }
+
+    private int fieldEnd() {
+        if (rowEnd < 0) {
+            throw new IllegalStateException("no current row");
+        }
+        int p = pos;
+        while (p < rowEnd && buffer[p] != delimiter) {
+            p++;
+        }
+        return p;
+    }
+
+    private void skipField(int end) {
+        // step over the delimiter, but never past the end of the row
+        pos = end < rowEnd ? end + 1 : rowEnd;
+    }
+
+    private NumberFormatException badField(String type, int end) {
+        return new NumberFormatException(String.format(Locale.ROOT, "invalid %s '%s' on row %d of %s",
+                                                       type, new String(buffer, pos, end - pos, UTF8),
+                                                       rows, file));
+    }
+
+    private int indexOfNewline(int from) {
+        for (int p = from; p < limit; p++) {
+            if (buffer[p] == '\n') {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Read more of the file, keeping the unread bytes from {@link #pos}.
+     */
+    private void fill() throws IOException {
+        int remaining = limit - pos;
+        if (remaining == buffer.length) {
+            // a single row fills the buffer, make room for more
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        } else if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, remaining);
+        }
+        pos = 0;
+        limit = remaining;
+        ByteBuffer target = ByteBuffer.wrap(buffer, limit, buffer.length - limit);
+        int n = channel.read(target);
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+    }
+
+    /**
+     * Open-addressed table of strings keyed by their encoded bytes.
+     */
+    private static final class InternTable {
+        private byte[][] keys = new byte[1024][];
+        private String[] values = new String[1024];
+        private int size;
+
+        String intern(byte[] buf, int off, int len) {
+            int mask = keys.length - 1;
+            int h = hash(buf, off, len) & mask;
+            while (keys[h] != null) {
+                if (matches(keys[h], buf, off, len)) {
+                    return values[h];
+                }
+                h = (h + 1) & mask;
+            }
+            byte[] key = Arrays.copyOfRange(buf, off, off + len);
+            String value = new String(key, UTF8);
+            keys[h] = key;
+            values[h] = value;
+            size += 1;
+            if (size * 2 > keys.length) {
+                grow();
+            }
+            return value;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int h = hash(oldKeys[i], 0, oldKeys[i].length) & mask;
+                    while (keys[h] != null) {
+                        h = (h + 1) & mask;
+                    }
+                    keys[h] = oldKeys[i];
+                    values[h] = oldValues[i];
+                }
+            }
+        }
+
+        private static int hash(byte[] buf, int off, int len) {
+            int h = len;
+            for (int i = off; i < off + len; i++) {
+                h = h * 31 + buf[i];
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean matches(byte[] key, byte[] buf, int off, int len) {
+            if (key.length != len) {
+                return false;
+            }
+            for (int i = 0; i < len; i++) {
+                if (key[i] != buf[off + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package edu.umn.cs.recsys.dao;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.cursors.Cursor;
+import org.grouplens.lenskit.cursors.Cursors;
+import org.grouplens.lenskit.data.dao.EventCollectionDAO;
+import org.grouplens.lenskit.data.dao.ItemEventDAO;
+import org.grouplens.lenskit.data.dao.PrefetchingUserEventDAO;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.data.event.Event;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.history.UserHistory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Benchmark the latency of the rating lookups that scorers make in their inner loops: a user's
+ * ratings, an item's ratings and an item's raters.  It compares the {@link MOOCRatingDAO}
+ * indexes with LensKit's prefetching DAO over the cached event list, and with the
+ * {@link ColumnarRatingDAO} if the columnar file exists.  The arguments are the rating CSV file
+ * and the columnar file, which default to {@code data/ratings.csv} and {@code data/ratings.bin}.
+ * It reports the best mean time per lookup over several passes through every user or item in a
+ * random order.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class RatingLookupBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(RatingLookupBenchmark.class);
+    private static final int REPETITIONS = 5;
+
+    public static void main(String[] args) {
+        File csvFile = new File(args.length > 0 ? args[0] : "data/ratings.csv");
+        File columnarFile = new File(args.length > 1 ? args[1] : "data/ratings.bin");
+
+        long start = System.nanoTime();
+        MOOCRatingDAO indexed = new MOOCRatingDAO(csvFile);
+        LongOpenHashSet userSet = new LongOpenHashSet();
+        LongOpenHashSet itemSet = new LongOpenHashSet();
+        Cursor<Event> events = indexed.streamEvents();
+        try {
+            for (Event e : events) {
+                userSet.add(e.getUserId());
+                itemSet.add(e.getItemId());
+            }
+        } finally {
+            events.close();
+        }
+        logger.info("loaded {} users and {} items in {}ms",
+                    new Object[]{userSet.size(), itemSet.size(), (System.nanoTime() - start) / 1000000});
+        long[] users = shuffle(userSet.toLongArray());
+        long[] items = shuffle(itemSet.toLongArray());
+
+        System.out.println("DAO,Lookup,Lookups,MeanNanos");
+        report("Indexed", indexed, indexed, users, items);
+
+        UserEventDAO prefetching =
+                new PrefetchingUserEventDAO(new EventCollectionDAO(Cursors.makeList(indexed.streamEvents())));
+        report("Prefetching", prefetching, null, users, items);
+
+        if (columnarFile.exists()) {
+            ColumnarRatingDAO columnar = new ColumnarRatingDAO(columnarFile);
+            report("Columnar", columnar, columnar, users, items);
+        } else {
+            logger.info("{} does not exist, skipping the columnar DAO", columnarFile);
+        }
+    }
+
+    private static void report(String name, UserEventDAO userDao, ItemEventDAO itemDao,
+                               long[] users, long[] items) {
+        double checksum = 0;
+        // the first pass warms up the JIT and any lazily-loaded data
+        checksum += userLookups(userDao, users);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < REPETITIONS; i++) {
+            long start = System.nanoTime();
+            checksum += userLookups(userDao, users);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.format(Locale.ROOT, "%s,EventsForUser,%d,%.1f\n", name, users.length,
+                          (double) best / users.length);
+
+        if (itemDao != null) {
+            checksum += itemEventLookups(itemDao, items);
+            best = Long.MAX_VALUE;
+            for (int i = 0; i < REPETITIONS; i++) {
+                long start = System.nanoTime();
+                checksum += itemEventLookups(itemDao, items);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.format(Locale.ROOT, "%s,EventsForItem,%d,%.1f\n", name, items.length,
+                              (double) best / items.length);
+
+            checksum += userSetLookups(itemDao, items);
+            best = Long.MAX_VALUE;
+            for (int i = 0; i < REPETITIONS; i++) {
+                long start = System.nanoTime();
+                checksum += userSetLookups(itemDao, items);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.format(Locale.ROOT, "%s,UsersForItem,%d,%.1f\n", name, items.length,
+                              (double) best / items.length);
+        }
+        // log the checksum, so the lookups cannot be optimized away
+        logger.debug("{} checksum: {}", name, checksum);
+    }
+
+    private static double userLookups(UserEventDAO dao, long[] users) {
+        double sum = 0;
+        for (long user : users) {
+            UserHistory<Rating> history = dao.getEventsForUser(user, Rating.class);
+            for (Rating r : history) {
+                sum += r.getValue();
+            }
+        }
+        return sum;
+    }
+
+    private static double itemEventLookups(ItemEventDAO dao, long[] items) {
+        double sum = 0;
+        for (long item : items) {
+            List<Rating> ratings = dao.getEventsForItem(item, Rating.class);
+            for (Rating r : ratings) {
+                sum += r.getValue();
+            }
+        }
+        return sum;
+    }
+
+    private static double userSetLookups(ItemEventDAO dao, long[] items) {
+        double sum = 0;
+        for (long item : items) {
+            LongSet raters = dao.getUsersForItem(item);
+            sum += raters.size();
+        }
+        return sum;
+    }
+
+    private static long[] shuffle(long[] ids) {
+        Random rng = new Random(42);
+        for (int i = ids.length - 1; i > 0; i--) {
+            int j = rng.nextInt(i + 1);
+            long tmp = ids[i];
+            ids[i] = ids[j];
+            ids[j] = tmp;
+        }
+        return ids;
+    }
+}
@@ -6,42 +6,38 @@ import org.grouplens.lenskit.core.LenskitConfiguration;
 
 /**
  * Baseline modes for the SVD recommender.  Used by {@link SVDMain} to control configuration. You
- * don't need to do anything with these.
+ * don't need to do anything with these.  The baseline is bound everywhere, not just within
+ * {@link SVDItemScorer}, so the recommender and the {@link ItemFactorIndex} use the same one.
  */
 public enum BaselineMode {
     GLOBAL_MEAN {
         @Override
         public void configure(LenskitConfiguration config) {
-            config.within(SVDItemScorer.class)
-                    .bind(BaselineScorer.class, ItemScorer.class)
-                    .to(GlobalMeanRatingItemScorer.class);
+            config.bind(BaselineScorer.class, ItemScorer.class)
+                  .to(GlobalMeanRatingItemScorer.class);
         }
     },
     USER_MEAN {
         @Override
         public void configure(LenskitConfiguration config) {
-            config.within(SVDItemScorer.class)
-                    .bind(BaselineScorer.class, ItemScorer.class)
-                    .to(UserMeanItemScorer.class);
+            config.bind(BaselineScorer.class, ItemScorer.class)
+                  .to(UserMeanItemScorer.class);
         }
     },
     ITEM_MEAN {
         @Override
         public void configure(LenskitConfiguration config) {
-            config.within(SVDItemScorer.class)
-                    .bind(BaselineScorer.class, ItemScorer.class)
-                    .to(ItemMeanRatingItemScorer.class);
+            config.bind(BaselineScorer.class, ItemScorer.class)
+                  .to(ItemMeanRatingItemScorer.class);
         }
     },
     USER_ITEM_MEAN {
         @Override
         public void configure(LenskitConfiguration config) {
-            config.within(SVDItemScorer.class)
-                    .bind(BaselineScorer.class, ItemScorer.class)
-                    .to(UserMeanItemScorer.class);
-            config.within(SVDItemScorer.class)
-                    .bind(UserMeanBaseline.class, ItemScorer.class)
-                    .to(ItemMeanRatingItemScorer.class);
+            config.bind(BaselineScorer.class, ItemScorer.class)
+                  .to(UserMeanItemScorer.class);
+            config.bind(UserMeanBaseline.class, ItemScorer.class)
+                  .to(ItemMeanRatingItemScorer.class);
         }
     };
 
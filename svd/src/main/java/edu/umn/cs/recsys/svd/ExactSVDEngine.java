@@ -0,0 +1,24 @@
+package edu.umn.cs.recsys.svd;
+
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+
+import java.util.Arrays;
+
+/**
+ * SVD engine that computes the full decomposition with commons-math and then truncates it.  This
+ * is exact, but takes cubic time and expands the sparse matrix into a dense one.
+ */
+public class ExactSVDEngine implements SVDEngine {
+    @Override
+    public TruncatedSVD decompose(SparseRatingMatrix matrix, int rank) {
+        // All the work is done in the constructor
+        SingularValueDecomposition svd = new SingularValueDecomposition(matrix.toDense());
+
+        RealMatrix u = svd.getU();
+        RealMatrix v = svd.getV();
+        return new TruncatedSVD(u.getSubMatrix(0, u.getRowDimension() - 1, 0, rank - 1),
+                                Arrays.copyOf(svd.getSingularValues(), rank),
+                                v.getSubMatrix(0, v.getRowDimension() - 1, 0, rank - 1));
+    }
+}
@@ -0,0 +1,264 @@
+package edu.umn.cs.recsys.svd;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.DoubleBuffer;
+
+/**
+ * A dense matrix of latent factors, stored row-major so that the rows used for scoring can be
+ * read without allocating any objects.  Matrices built on the heap keep their values in a flat
+ * array, which the scoring loops read directly; matrices opened from a memory-mapped
+ * {@linkplain SVDModelFile model file} read them through the mapped buffer.
+ */
+final class FactorMatrix implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int nrows;
+    private final int ncols;
+    private final DoubleBuffer data;
+    /**
+     * The values, if the matrix is on the heap; {@code null} if it is mapped.
+     */
+    private final double[] array;
+
+    private FactorMatrix(int nr, int nc, DoubleBuffer values) {
+        nrows = nr;
+        ncols = nc;
+        data = values;
+        array = null;
+    }
+
+    private FactorMatrix(int nr, int nc, double[] values) {
+        nrows = nr;
+        ncols = nc;
+        data = DoubleBuffer.wrap(values);
+        array = values;
+    }
+
+    /**
+     * Wrap a buffer of factors.
+     *
+     * @param nrows  The number of rows.
+     * @param ncols  The number of columns.
+     * @param values The values, in row-major order.  The buffer must not be modified afterwards.
+     * @return The factor matrix.
+     */
+    static FactorMatrix wrap(int nrows, int ncols, DoubleBuffer values) {
+        if (values.remaining() != nrows * ncols) {
+            throw new IllegalArgumentException("factor buffer has incorrect size");
+        }
+        return new FactorMatrix(nrows, ncols, values.slice());
+    }
+
+    /**
+     * Copy a matrix into a factor matrix, multiplying each column by a weight.
+     *
+     * @param m       The matrix.
+     * @param weights The column weights, or {@code null} to copy the matrix unchanged.
+     * @return The factor matrix.
+     */
+    static FactorMatrix copyOf(RealMatrix m, double[] weights) {
+        final int nr = m.getRowDimension();
+        final int nc = m.getColumnDimension();
+        double[] values = new double[nr * nc];
+        for (int r = 0; r < nr; r++) {
+            for (int c = 0; c < nc; c++) {
+                double v = m.getEntry(r, c);
+                values[r * nc + c] = weights == null ? v : v * weights[c];
+            }
+        }
+        return new FactorMatrix(nr, nc, values);
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return The number of rows (users or items).
+     */
+    public int getRowCount() {
+        return nrows;
+    }
+
+    /**
+     * Get the number of columns.
+     *
+     * @return The number of latent features.
+     */
+    public int getFeatureCount() {
+        return ncols;
+    }
+
+    /**
+     * Get a read-only view of the values.
+     *
+     * @return The values, in row-major order.
+     */
+    DoubleBuffer getValues() {
+        return data.asReadOnlyBuffer();
+    }
+
+    /**
+     * Get a single entry.
+     *
+     * @param row The row.
+     * @param col The column.
+     * @return The value at ({@code row}, {@code col}).
+     */
+    public double get(int row, int col) {
+        return array != null ? array[row * ncols + col] : data.get(row * ncols + col);
+    }
+
+    /**
+     * Compute the dot product of a row of this matrix with a row of another matrix.
+     *
+     * @param row        The row of this matrix.
+     * @param other      The other matrix (must have the same number of columns).
+     * @param otherRow   The row of the other matrix.
+     * @return The dot product of the two rows.
+     */
+    public double dot(int row, FactorMatrix other, int otherRow) {
+        int i = row * ncols;
+        int j = otherRow * ncols;
+        double sum = 0;
+        if (array != null && other.array != null) {
+            final double[] values = array;
+            final double[] ovalues = other.array;
+            for (int f = 0; f < ncols; f++) {
+                sum += values[i + f] * ovalues[j + f];
+            }
+        } else {
+            final DoubleBuffer odata = other.data;
+            for (int f = 0; f < ncols; f++) {
+                sum += data.get(i + f) * odata.get(j + f);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Compute the dot product of a row of this matrix with a vector.
+     *
+     * @param row    The row.
+     * @param vector The vector (must have one value per column).
+     * @return The dot product of the row and the vector.
+     */
+    public double dot(int row, double[] vector) {
+        int i = row * ncols;
+        double sum = 0;
+        if (array != null) {
+            final double[] values = array;
+            for (int f = 0; f < ncols; f++) {
+                sum += values[i + f] * vector[f];
+            }
+        } else {
+            for (int f = 0; f < ncols; f++) {
+                sum += data.get(i + f) * vector[f];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Add a multiple of a row to a vector.
+     *
+     * @param row    The row.
+     * @param scale  The multiplier.
+     * @param vector The vector to add to (must have one value per column).
+     */
+    public void addScaledRow(int row, double scale, double[] vector) {
+        int i = row * ncols;
+        if (array != null) {
+            final double[] values = array;
+            for (int f = 0; f < ncols; f++) {
+                vector[f] += values[i + f] * scale;
+            }
+        } else {
+            for (int f = 0; f < ncols; f++) {
+                vector[f] += data.get(i + f) * scale;
+            }
+        }
+    }
+
+    /**
+     * Copy a row out as an array.
+     *
+     * @param row The row.
+     * @return A new array containing the row's values.
+     */
+    public double[] getRow(int row) {
+        return getRow(row, null);
+    }
+
+    /**
+     * Copy a row out as a 1 x k matrix.
+     *
+     * @param row The row.
+     * @param weights Divisors for each column, or {@code null} to copy the row unchanged.  A
+     *                column whose divisor is zero is returned as zero.
+     * @return A row matrix containing the row's values.
+     */
+    public RealMatrix getRowMatrix(int row, double[] weights) {
+        double[][] out = new double[1][];
+        out[0] = getRow(row, weights);
+        return new Array2DRowRealMatrix(out, false);
+    }
+
+    /**
+     * Copy this matrix into a commons-math matrix.
+     *
+     * @param weights Divisors for each column, or {@code null} to copy the matrix unchanged.  A
+     *                column whose divisor is zero is returned as zero.
+     * @return A copy of the matrix.
+     */
+    public RealMatrix toMatrix(double[] weights) {
+        double[][] out = new double[nrows][];
+        for (int r = 0; r < nrows; r++) {
+            out[r] = getRow(r, weights);
+        }
+        return new Array2DRowRealMatrix(out, false);
+    }
+
+    private double[] getRow(int row, double[] weights) {
+        double[] values = new double[ncols];
+        for (int c = 0; c < ncols; c++) {
+            double v = get(row, c);
+            if (weights != null) {
+                v = weights[c] == 0 ? 0 : v / weights[c];
+            }
+            values[c] = v;
+        }
+        return values;
+    }
+
+    /**
+     * Serialize the matrix as a plain array, since buffers are not serializable.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        double[] values = new double[nrows * ncols];
+        getValues().get(values);
+        return new SerialForm(nrows, ncols, values);
+    }
+
+    /**
+     * The serialized form of a factor matrix.
+     */
+    private static class SerialForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int nrows;
+        private final int ncols;
+        private final double[] values;
+
+        SerialForm(int nr, int nc, double[] vals) {
+            nrows = nr;
+            ncols = nc;
+            values = vals;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return new FactorMatrix(nrows, ncols, values);
+        }
+    }
+}
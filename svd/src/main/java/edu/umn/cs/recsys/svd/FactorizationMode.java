@@ -0,0 +1,42 @@
+package edu.umn.cs.recsys.svd;
+
+import org.grouplens.lenskit.core.LenskitConfiguration;
+
+/**
+ * Factorization modes for the SVD recommender.  Used by {@link SVDMain} to control how the
+ * {@link SVDModel} is computed.
+ */
+public enum FactorizationMode {
+    /**
+     * Compute the full SVD and truncate it.
+     */
+    EXACT_SVD {
+        @Override
+        public void configure(LenskitConfiguration config) {
+            config.bind(SVDEngine.class)
+                    .to(ExactSVDEngine.class);
+        }
+    },
+    /**
+     * Compute only the leading singular vectors with a randomized range finder.
+     */
+    RANDOMIZED_SVD {
+        @Override
+        public void configure(LenskitConfiguration config) {
+            config.bind(SVDEngine.class)
+                    .to(RandomizedSVDEngine.class);
+        }
+    },
+    /**
+     * Learn the factors from the observed ratings with stochastic gradient descent.
+     */
+    SGD {
+        @Override
+        public void configure(LenskitConfiguration config) {
+            config.bind(SVDModel.class)
+                    .toProvider(SGDModelBuilder.class);
+        }
+    };
+
+    public abstract void configure(LenskitConfiguration config);
+}
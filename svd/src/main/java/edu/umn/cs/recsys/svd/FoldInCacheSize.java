@@ -0,0 +1,21 @@
+package edu.umn.cs.recsys.svd;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the number of folded-in user vectors the {@link SVDItemScorer} caches.
+ * If 0, users who are not in the model, or whose ratings have changed since it was built, are
+ * folded in on every request.
+ */
+@Documented
+@Qualifier
+@DefaultInteger(1000)
+@Parameter(Integer.class)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface FoldInCacheSize {
+}
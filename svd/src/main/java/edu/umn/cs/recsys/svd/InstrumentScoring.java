@@ -0,0 +1,19 @@
+package edu.umn.cs.recsys.svd;
+
+import org.grouplens.grapht.annotation.DefaultBoolean;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling whether {@link ScoringInstrumentation} collects timings.
+ */
+@Documented
+@Qualifier
+@DefaultBoolean(false)
+@Parameter(Boolean.class)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface InstrumentScoring {
+}
@@ -0,0 +1,359 @@
+package edu.umn.cs.recsys.svd;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.grouplens.lenskit.ItemScorer;
+import org.grouplens.lenskit.baseline.BaselineScorer;
+import org.grouplens.lenskit.collections.LongUtils;
+import org.grouplens.lenskit.core.Shareable;
+import org.grouplens.lenskit.core.Transient;
+import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.indexes.IdIndexMapping;
+import org.grouplens.lenskit.vectors.MutableSparseVector;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.Serializable;
+
+/**
+ * A maximum inner product search index over the item factors of an {@link SVDModel}.  Items are
+ * ranked by the norm of their weighted factor vectors, so for a user vector <i>u</i> the offset
+ * of every item after position <i>p</i> is bounded by |<i>u</i>| &middot; {@link #getNorm(int)
+ * getNorm(p)} (Cauchy&ndash;Schwarz).  A search can therefore stop as soon as that bound falls
+ * below the scores it has already found.
+ * <p>
+ * The index also bounds the baseline part of the scores.  It stores each item's <i>item
+ * baseline</i>, its baseline score for a user with no ratings, and the largest item baseline at
+ * or after each position.  If the baseline is a per-user offset plus a per-item score, as the
+ * mean baselines of {@link BaselineMode} are, a user's baseline for any item is the item baseline
+ * plus that user's {@linkplain #getBaselineOffset(SparseVector) offset}, and a search never has
+ * to score the whole catalogue to find the largest baseline.  The offset is computed from a
+ * small set of probe items, which also checks that the user's baselines have this form; the
+ * builder runs the same check on a sample of the model's users, and if it fails
+ * {@link #isBaselineAdditive()} is false and the item baselines must not be used as bounds.
+ * Items in the catalogue that are not in the model are kept separately, in decreasing order of
+ * item baseline.
+ */
+@Shareable
+@DefaultProvider(ItemFactorIndex.Builder.class)
+public class ItemFactorIndex implements Serializable {
+    private static final long serialVersionUID = 3L;
+    private static final Logger logger = LoggerFactory.getLogger(ItemFactorIndex.class);
+    private static final int CHECK_USERS = 16;
+    private static final int CHECK_ITEMS = 32;
+    private static final double CHECK_TOLERANCE = 1.0e-9;
+    /**
+     * The user whose baselines are the item baselines; no user is expected to have this ID.
+     */
+    static final long REFERENCE_USER = Long.MIN_VALUE;
+
+    private final int[] itemRows;
+    private final double[] norms;
+    private final double[] baselines;
+    private final double[] maxBaselines;
+    private final long[] extraItems;
+    private final double[] extraBaselines;
+    private final long[] probeItems;
+    private final double[] probeBaselines;
+    private final boolean baselineAdditive;
+
+    ItemFactorIndex(int[] rows, double[] ns, double[] bases, double[] maxBases,
+                    long[] extras, double[] extraBases, long[] probes, double[] probeBases,
+                    boolean additive) {
+        itemRows = rows;
+        norms = ns;
+        baselines = bases;
+        maxBaselines = maxBases;
+        extraItems = extras;
+        extraBaselines = extraBases;
+        probeItems = probes;
+        probeBaselines = probeBases;
+        baselineAdditive = additive;
+    }
+
+    /**
+     * Get the number of items in the index.
+     *
+     * @return The number of items.
+     */
+    public int size() {
+        return itemRows.length;
+    }
+
+    /**
+     * Get the model row of the item at a position.
+     *
+     * @param pos The position, in decreasing order of norm.
+     * @return The item's row in the model's item factor matrix.
+     */
+    public int getItemRow(int pos) {
+        return itemRows[pos];
+    }
+
+    /**
+     * Get the norm of the weighted factors of the item at a position.
+     *
+     * @param pos The position.
+     * @return The norm of the item's weighted factor vector.  Norms never increase with position.
+     */
+    public double getNorm(int pos) {
+        return norms[pos];
+    }
+
+    /**
+     * Get the item baseline of the item at a position.
+     *
+     * @param pos The position.
+     * @return The item's baseline score for a user with no ratings, or {@link Double#NaN} if the
+     *         item is not in the catalogue or has no baseline score.
+     */
+    public double getBaseline(int pos) {
+        return baselines[pos];
+    }
+
+    /**
+     * Get the largest item baseline of the items at or after a position.
+     *
+     * @param pos The position.
+     * @return The largest item baseline from {@code pos} on, or negative infinity if there is none.
+     */
+    public double getMaxBaseline(int pos) {
+        return maxBaselines[pos];
+    }
+
+    /**
+     * Get the number of catalogue items that are not in the model.
+     *
+     * @return The number of items with no factors.
+     */
+    public int getExtraItemCount() {
+        return extraItems.length;
+    }
+
+    /**
+     * Get a catalogue item that is not in the model.
+     *
+     * @param i The item's position, in decreasing order of item baseline.
+     * @return The item ID.
+     */
+    public long getExtraItem(int i) {
+        return extraItems[i];
+    }
+
+    /**
+     * Get the item baseline of a catalogue item that is not in the model.
+     *
+     * @param i The item's position.
+     * @return The item baseline.  These never increase with position.
+     */
+    public double getExtraBaseline(int i) {
+        return extraBaselines[i];
+    }
+
+    /**
+     * Get the items whose baselines determine a user's baseline offset.
+     *
+     * @return The probe items, or an empty set if no catalogue item has a baseline score.
+     */
+    public LongSet getProbeItems() {
+        return LongUtils.packedSet(probeItems);
+    }
+
+    /**
+     * Get the amount to add to the item baselines to get a user's baselines.
+     *
+     * @param userBaselines The user's baselines for the {@linkplain #getProbeItems() probe items}.
+     * @return The user's baseline offset, or {@link Double#NaN} if the user's baselines for the
+     *         probe items are not their item baselines plus a single offset.
+     */
+    public double getBaselineOffset(SparseVector userBaselines) {
+        return baselineOffset(probeItems, probeBaselines, userBaselines);
+    }
+
+    private static double baselineOffset(long[] items, double[] bases, SparseVector userBaselines) {
+        if (items.length == 0) {
+            return Double.NaN;
+        }
+        double offset = userBaselines.get(items[0], Double.NaN) - bases[0];
+        for (int i = 1; i < items.length; i++) {
+            double expected = bases[i] + offset;
+            double actual = userBaselines.get(items[i], Double.NaN);
+            // NaN fails this test too
+            if (!(Math.abs(actual - expected) <= CHECK_TOLERANCE * (1 + Math.abs(expected)))) {
+                return Double.NaN;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Query whether the baseline was found to be a per-user offset plus a per-item score, so the
+     * item baselines and a user's reference item offset give that user's baselines.
+     *
+     * @return {@code true} if the item baselines can be used to bound a user's baselines.
+     */
+    public boolean isBaselineAdditive() {
+        return baselineAdditive;
+    }
+
+    /**
+     * Build an item factor index from an SVD model and the baseline scores of the catalogue.
+     */
+    public static class Builder implements Provider<ItemFactorIndex> {
+        private final SVDModel model;
+        private final ItemScorer baselineScorer;
+        private final ItemDAO itemDAO;
+
+        @Inject
+        public Builder(@Transient SVDModel m,
+                       @Transient @BaselineScorer ItemScorer baseline,
+                       @Transient ItemDAO idao) {
+            model = m;
+            baselineScorer = baseline;
+            itemDAO = idao;
+        }
+
+        @Override
+        public ItemFactorIndex get() {
+            FactorMatrix items = model.getWeightedItemFactors();
+            final int n = items.getRowCount();
+            final double[] rowNorms = new double[n];
+            int[] rows = new int[n];
+            for (int i = 0; i < n; i++) {
+                rows[i] = i;
+                rowNorms[i] = Math.sqrt(items.dot(i, items, i));
+            }
+            IntArrays.quickSort(rows, new IntComparator() {
+                @Override
+                public int compare(int r1, int r2) {
+                    return Double.compare(rowNorms[r2], rowNorms[r1]);
+                }
+
+                @Override
+                public int compare(Integer r1, Integer r2) {
+                    return compare(r1.intValue(), r2.intValue());
+                }
+            });
+
+            double[] sorted = new double[n];
+            for (int i = 0; i < n; i++) {
+                sorted[i] = rowNorms[rows[i]];
+            }
+
+            MutableSparseVector itemBaselines = MutableSparseVector.create(itemDAO.getItemIds());
+            baselineScorer.score(REFERENCE_USER, itemBaselines);
+            IdIndexMapping mapping = model.getItemIndMapping();
+            long refItem = 0;
+            double refBase = Double.NaN;
+
+            double[] bases = new double[n];
+            double[] maxBases = new double[n];
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = n - 1; i >= 0; i--) {
+                long item = mapping.getId(rows[i]);
+                bases[i] = itemBaselines.get(item, Double.NaN);
+                if (!Double.isNaN(bases[i])) {
+                    max = Math.max(max, bases[i]);
+                    refItem = item;
+                    refBase = bases[i];
+                }
+                maxBases[i] = max;
+            }
+
+            LongArrayList extraIds = new LongArrayList();
+            for (VectorEntry e : itemBaselines.fast()) {
+                if (mapping.tryGetIndex(e.getKey()) < 0) {
+                    extraIds.add(e.getKey());
+                }
+            }
+            final long[] extras = extraIds.toLongArray();
+            final double[] extraBases = new double[extras.length];
+            for (int i = 0; i < extras.length; i++) {
+                extraBases[i] = itemBaselines.get(extras[i]);
+            }
+            int[] order = new int[extras.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            IntArrays.quickSort(order, new IntComparator() {
+                @Override
+                public int compare(int i1, int i2) {
+                    return Double.compare(extraBases[i2], extraBases[i1]);
+                }
+
+                @Override
+                public int compare(Integer i1, Integer i2) {
+                    return compare(i1.intValue(), i2.intValue());
+                }
+            });
+            long[] sortedExtras = new long[extras.length];
+            double[] sortedExtraBases = new double[extras.length];
+            for (int i = 0; i < order.length; i++) {
+                sortedExtras[i] = extras[order[i]];
+                sortedExtraBases[i] = extraBases[order[i]];
+            }
+            if (Double.isNaN(refBase) && sortedExtras.length > 0) {
+                refItem = sortedExtras[0];
+                refBase = sortedExtraBases[0];
+            }
+
+            // the reference item comes first, then items spread over the catalogue
+            LongArrayList probes = new LongArrayList();
+            if (!Double.isNaN(refBase)) {
+                probes.add(refItem);
+                int stride = Math.max(1, itemBaselines.size() / CHECK_ITEMS);
+                int i = 0;
+                for (VectorEntry e : itemBaselines.fast()) {
+                    if (i++ % stride == 0 && e.getKey() != refItem) {
+                        probes.add(e.getKey());
+                    }
+                }
+            }
+            long[] probeIds = probes.toLongArray();
+            double[] probeBases = new double[probeIds.length];
+            for (int i = 0; i < probeIds.length; i++) {
+                probeBases[i] = itemBaselines.get(probeIds[i]);
+            }
+
+            boolean additive = isAdditive(probeIds, probeBases);
+            if (!additive) {
+                logger.warn("baseline {} is not a user offset plus an item score, " +
+                            "recommendations will score every item", baselineScorer);
+            }
+            return new ItemFactorIndex(rows, sorted, bases, maxBases, sortedExtras, sortedExtraBases,
+                                       probeIds, probeBases, additive);
+        }
+
+        /**
+         * Check, on a sample of the model's users, that each user's baselines for the probe items
+         * are their item baselines plus a single offset.
+         *
+         * @param probes     The probe items.
+         * @param probeBases The probe items' item baselines.
+         * @return {@code true} if every sampled user's baselines have that form.
+         */
+        private boolean isAdditive(long[] probes, double[] probeBases) {
+            if (probes.length == 0) {
+                // no item has a baseline, so there is nothing to bound
+                return true;
+            }
+            IdIndexMapping users = model.getUserIndexMapping();
+            int stride = Math.max(1, users.size() / CHECK_USERS);
+            for (int u = 0; u < users.size(); u += stride) {
+                MutableSparseVector scores = MutableSparseVector.create(probes);
+                baselineScorer.score(users.getId(u), scores);
+                if (Double.isNaN(baselineOffset(probes, probeBases, scores))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
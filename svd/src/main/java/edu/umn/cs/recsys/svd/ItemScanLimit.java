@@ -0,0 +1,21 @@
+package edu.umn.cs.recsys.svd;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the maximum number of items whose factors the {@link SVDItemRecommender}
+ * examines for a single recommendation.  If 0, the search is exact and stops only when no
+ * remaining item can beat the current top-N.
+ */
+@Documented
+@Qualifier
+@DefaultInteger(0)
+@Parameter(Integer.class)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ItemScanLimit {
+}
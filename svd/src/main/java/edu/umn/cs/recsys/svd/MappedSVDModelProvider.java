@@ -0,0 +1,31 @@
+package edu.umn.cs.recsys.svd;
+
+import org.grouplens.lenskit.core.Transient;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Provide an SVD model by memory-mapping a model file instead of training it.  The factors are
+ * paged in by the operating system as they are used, so opening even a large model is cheap and
+ * several processes can share the same pages.
+ */
+public class MappedSVDModelProvider implements Provider<SVDModel> {
+    private final File modelFile;
+
+    @Inject
+    public MappedSVDModelProvider(@Transient @ModelFile File file) {
+        modelFile = file;
+    }
+
+    @Override
+    public SVDModel get() {
+        try {
+            return SVDModelFile.open(modelFile);
+        } catch (IOException e) {
+            throw new RuntimeException("cannot open SVD model " + modelFile, e);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package edu.umn.cs.recsys.svd;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the number of extra random directions sampled by the
+ * {@linkplain RandomizedSVDEngine randomized SVD} beyond the number of latent features.
+ */
+@Documented
+@Qualifier
+@DefaultInteger(10)
+@Parameter(Integer.class)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface OversampleCount {
+}
@@ -0,0 +1,108 @@
+package edu.umn.cs.recsys.svd;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * SVD engine using a randomized range finder (Halko, Martinsson and Tropp, 2011).  It projects
+ * the matrix onto a few random directions, orthonormalizes the result to find an approximate basis
+ * for the dominant column space, and then decomposes the small projected matrix exactly.  Only the
+ * requested number of singular triplets are ever produced, and the rating matrix is only touched
+ * through its sparse multiplication kernels.
+ */
+public class RandomizedSVDEngine implements SVDEngine {
+    private static final Logger logger = LoggerFactory.getLogger(RandomizedSVDEngine.class);
+    // fixed seed, so repeated builds on the same data produce the same model
+    private static final long SEED = 0x5eedL;
+
+    private final int oversample;
+    private final int powerIterations;
+
+    /**
+     * Construct a randomized SVD engine.
+     *
+     * @param extra The number of extra random directions to sample.
+     * @param iters The number of power iterations to run.
+     */
+    @Inject
+    public RandomizedSVDEngine(@OversampleCount int extra,
+                               @PowerIterationCount int iters) {
+        oversample = extra;
+        powerIterations = iters;
+    }
+
+    @Override
+    public TruncatedSVD decompose(SparseRatingMatrix matrix, int rank) {
+        final int nrows = matrix.getRowDimension();
+        final int ncols = matrix.getColumnDimension();
+        final int width = Math.min(rank + oversample, Math.min(nrows, ncols));
+        logger.debug("sampling {} directions for rank-{} SVD", width, rank);
+
+        // sample the range of the matrix
+        Random rng = new Random(SEED);
+        double[][] omega = new double[ncols][width];
+        for (double[] row : omega) {
+            for (int j = 0; j < width; j++) {
+                row[j] = rng.nextGaussian();
+            }
+        }
+        RealMatrix q = orthonormalize(matrix.multiply(new Array2DRowRealMatrix(omega, false)));
+
+        // power iterations sharpen the spectrum so the basis captures the leading vectors
+        for (int i = 0; i < powerIterations; i++) {
+            RealMatrix z = orthonormalize(matrix.transposeMultiply(q));
+            q = orthonormalize(matrix.multiply(z));
+        }
+
+        // decompose the small projected matrix B = Q^T A exactly
+        // we decompose its transpose A^T Q = V S Ub^T, which is cheaper to compute from the sparse matrix
+        SingularValueDecomposition svd = new SingularValueDecomposition(matrix.transposeMultiply(q));
+        int k = Math.min(rank, width);
+        RealMatrix v = svd.getU();
+        RealMatrix ub = svd.getV();
+        return new TruncatedSVD(q.multiply(ub.getSubMatrix(0, ub.getRowDimension() - 1, 0, k - 1)),
+                                Arrays.copyOf(svd.getSingularValues(), k),
+                                v.getSubMatrix(0, v.getRowDimension() - 1, 0, k - 1));
+    }
+
+    /**
+     * Orthonormalize the columns of a matrix with modified Gram-Schmidt.  Columns that are
+     * (numerically) dependent on earlier columns are zeroed.
+     *
+     * @param m The matrix.
+     * @return A matrix whose columns are an orthonormal basis for the column space of {@code m}.
+     */
+    static RealMatrix orthonormalize(RealMatrix m) {
+        final int nrows = m.getRowDimension();
+        final int ncols = m.getColumnDimension();
+        double[][] data = m.getData();
+        for (int j = 0; j < ncols; j++) {
+            for (int p = 0; p < j; p++) {
+                double dot = 0;
+                for (int i = 0; i < nrows; i++) {
+                    dot += data[i][j] * data[i][p];
+                }
+                for (int i = 0; i < nrows; i++) {
+                    data[i][j] -= dot * data[i][p];
+                }
+            }
+            double norm = 0;
+            for (int i = 0; i < nrows; i++) {
+                norm += data[i][j] * data[i][j];
+            }
+            norm = Math.sqrt(norm);
+            double scale = norm > 1.0e-10 ? 1 / norm : 0;
+            for (int i = 0; i < nrows; i++) {
+                data[i][j] *= scale;
+            }
+        }
+        return new Array2DRowRealMatrix(data, false);
+    }
+}
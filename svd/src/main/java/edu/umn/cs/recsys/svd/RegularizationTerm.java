@@ -0,0 +1,20 @@
+package edu.umn.cs.recsys.svd;
+
+import org.grouplens.grapht.annotation.DefaultDouble;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the regularization applied to the latent factors by {@link SGDModelBuilder},
+ * and to the user vectors {@linkplain SVDModel#foldIn folded in} by {@link SVDItemScorer}.
+ */
+@Documented
+@Qualifier
+@DefaultDouble(0.02)
+@Parameter(Double.class)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RegularizationTerm {
+}
@@ -0,0 +1,267 @@
+package edu.umn.cs.recsys.svd;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.grouplens.lenskit.ItemScorer;
+import org.grouplens.lenskit.baseline.BaselineScorer;
+import org.grouplens.lenskit.core.Transient;
+import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.dao.UserDAO;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.indexes.IdIndexMapping;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+
+/**
+ * Model builder that learns the latent factors by stochastic gradient descent over the observed
+ * (baseline-normalized) ratings, instead of decomposing the imputed-zero rating matrix.
+ * <p>
+ * Each epoch visits the users in a random order; the users are split into one block per thread,
+ * and the threads update the shared item factors without locking (Hogwild).  Since the ratings
+ * are sparse, conflicting updates to the same item factor are rare and do not hurt convergence.
+ * <p>
+ * The resulting model has identity feature weights, so it can be used by {@link SVDItemScorer}
+ * just like a model built by {@link SVDModelBuilder}.  To use it, bind {@link SVDModel} to this
+ * provider.
+ */
+public class SGDModelBuilder implements Provider<SVDModel> {
+    private static final Logger logger = LoggerFactory.getLogger(SGDModelBuilder.class);
+    // fixed seed, so repeated builds on the same data produce similar models
+    private static final long SEED = 0x5eedL;
+    private static final double INIT_SCALE = 0.1;
+
+    private final UserEventDAO userEventDAO;
+    private final UserDAO userDAO;
+    private final ItemDAO itemDAO;
+    private final ItemScorer baselineScorer;
+    private final int featureCount;
+    private final int epochs;
+    private final double learningRate;
+    private final double regularization;
+    private final int threadCount;
+
+    /**
+     * Construct the model builder.
+     *
+     * @param uedao     The user event DAO.
+     * @param udao      The user DAO.
+     * @param idao      The item DAO.
+     * @param baseline  The baseline scorer (this will be used to compute means).
+     * @param nfeatures The number of latent features to train.
+     * @param niters    The number of training epochs.
+     * @param lrate     The learning rate.
+     * @param reg       The regularization term.
+     * @param nthreads  The number of training threads (0 for one per processor).
+     */
+    @Inject
+    public SGDModelBuilder(@Transient UserEventDAO uedao,
+                           @Transient UserDAO udao,
+                           @Transient ItemDAO idao,
+                           @Transient @BaselineScorer ItemScorer baseline,
+                           @LatentFeatureCount int nfeatures,
+                           @IterationCount int niters,
+                           @LearningRate double lrate,
+                           @RegularizationTerm double reg,
+                           @ThreadCount int nthreads) {
+        userEventDAO = uedao;
+        userDAO = udao;
+        itemDAO = idao;
+        baselineScorer = baseline;
+        featureCount = nfeatures;
+        epochs = niters;
+        learningRate = lrate;
+        regularization = reg;
+        threadCount = nthreads > 0 ? nthreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Train the factor model.
+     *
+     * @return A latent factor model with identity feature weights.
+     */
+    @Override
+    public SVDModel get() {
+        long start = System.nanoTime();
+        IdIndexMapping userMapping = IdIndexMapping.create(userDAO.getUserIds());
+        logger.debug("indexed {} users", userMapping.size());
+        IdIndexMapping itemMapping = IdIndexMapping.create(itemDAO.getItemIds());
+        logger.debug("indexed {} items", itemMapping.size());
+
+        long[] fingerprints = new long[userMapping.size()];
+        SparseRatingMatrix matrix = SVDModelBuilder.createRatingMatrix(userEventDAO, baselineScorer,
+                                                                       userMapping, itemMapping, fingerprints);
+        final int nusers = matrix.getRowDimension();
+        final int nitems = matrix.getColumnDimension();
+
+        // factors are stored row-major: feature f of user u is at u * featureCount + f
+        Random rng = new Random(SEED);
+        double[] userFactors = new double[nusers * featureCount];
+        double[] itemFactors = new double[nitems * featureCount];
+        for (int i = 0; i < userFactors.length; i++) {
+            userFactors[i] = rng.nextGaussian() * INIT_SCALE;
+        }
+        for (int i = 0; i < itemFactors.length; i++) {
+            itemFactors[i] = rng.nextGaussian() * INIT_SCALE;
+        }
+
+        int[] order = new int[nusers];
+        for (int i = 0; i < nusers; i++) {
+            order[i] = i;
+        }
+
+        logger.info("training {} features over {} ratings with {} threads",
+                    featureCount, matrix.getEntryCount(), threadCount);
+        ExecutorService pool = threadCount > 1 ? Executors.newFixedThreadPool(threadCount) : null;
+        try {
+            for (int epoch = 0; epoch < epochs; epoch++) {
+                shuffle(order, rng);
+                double sse = runEpoch(pool, matrix, order, userFactors, itemFactors);
+                logger.debug("epoch {}: training RMSE {}", epoch + 1,
+                             Math.sqrt(sse / Math.max(matrix.getEntryCount(), 1)));
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+
+        clearUntrainedFactors(matrix, userFactors, itemFactors);
+        logger.debug("trained SGD model in {} ms", (System.nanoTime() - start) / 1000000);
+        return new SVDModel(userMapping, itemMapping,
+                            toMatrix(userFactors, nusers), toMatrix(itemFactors, nitems),
+                            MatrixUtils.createRealIdentityMatrix(featureCount), fingerprints);
+    }
+
+    /**
+     * Run one training epoch, splitting the users into one contiguous block of the (shuffled)
+     * order per thread.
+     *
+     * @return The sum of squared training errors seen during the epoch.
+     */
+    private double runEpoch(ExecutorService pool, SparseRatingMatrix matrix, int[] order,
+                            double[] userFactors, double[] itemFactors) {
+        if (pool == null) {
+            return new EpochWorker(matrix, order, 0, order.length, userFactors, itemFactors).call();
+        }
+
+        List<Future<Double>> results = new ArrayList<Future<Double>>(threadCount);
+        int blockSize = (order.length + threadCount - 1) / threadCount;
+        for (int lo = 0; lo < order.length; lo += blockSize) {
+            int hi = Math.min(lo + blockSize, order.length);
+            results.add(pool.submit(new EpochWorker(matrix, order, lo, hi, userFactors, itemFactors)));
+        }
+
+        double sse = 0;
+        try {
+            for (Future<Double> result : results) {
+                sse += result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while training model", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("error training model", e.getCause());
+        }
+        return sse;
+    }
+
+    /**
+     * Zero the factors of users and items with no ratings, so they only receive baseline scores.
+     */
+    private void clearUntrainedFactors(SparseRatingMatrix matrix, double[] userFactors, double[] itemFactors) {
+        boolean[] itemSeen = new boolean[matrix.getColumnDimension()];
+        for (int u = 0; u < matrix.getRowDimension(); u++) {
+            int start = matrix.getRowStart(u);
+            int end = matrix.getRowEnd(u);
+            if (start == end) {
+                for (int f = 0; f < featureCount; f++) {
+                    userFactors[u * featureCount + f] = 0;
+                }
+            }
+            for (int i = start; i < end; i++) {
+                itemSeen[matrix.getColumn(i)] = true;
+            }
+        }
+        for (int item = 0; item < itemSeen.length; item++) {
+            if (!itemSeen[item]) {
+                for (int f = 0; f < featureCount; f++) {
+                    itemFactors[item * featureCount + f] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Convert a row-major factor array into a matrix.
+     */
+    private Array2DRowRealMatrix toMatrix(double[] factors, int nrows) {
+        double[][] data = new double[nrows][featureCount];
+        for (int r = 0; r < nrows; r++) {
+            System.arraycopy(factors, r * featureCount, data[r], 0, featureCount);
+        }
+        return new Array2DRowRealMatrix(data, false);
+    }
+
+    private static void shuffle(int[] order, Random rng) {
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = rng.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+
+    /**
+     * Trains the factors on the ratings of a block of users.
+     */
+    private class EpochWorker implements Callable<Double> {
+        private final SparseRatingMatrix matrix;
+        private final int[] order;
+        private final int lo;
+        private final int hi;
+        private final double[] userFactors;
+        private final double[] itemFactors;
+
+        EpochWorker(SparseRatingMatrix m, int[] ord, int lo, int hi, double[] ufs, double[] ifs) {
+            matrix = m;
+            order = ord;
+            this.lo = lo;
+            this.hi = hi;
+            userFactors = ufs;
+            itemFactors = ifs;
+        }
+
+        @Override
+        public Double call() {
+            final int k = featureCount;
+            double sse = 0;
+            for (int n = lo; n < hi; n++) {
+                final int user = order[n];
+                final int uoff = user * k;
+                for (int i = matrix.getRowStart(user), end = matrix.getRowEnd(user); i < end; i++) {
+                    final int ioff = matrix.getColumn(i) * k;
+                    double pred = 0;
+                    for (int f = 0; f < k; f++) {
+                        pred += userFactors[uoff + f] * itemFactors[ioff + f];
+                    }
+                    final double err = matrix.getValue(i) - pred;
+                    sse += err * err;
+                    for (int f = 0; f < k; f++) {
+                        final double uf = userFactors[uoff + f];
+                        final double itf = itemFactors[ioff + f];
+                        userFactors[uoff + f] += learningRate * (err * itf - regularization * uf);
+                        itemFactors[ioff + f] += learningRate * (err * uf - regularization * itf);
+                    }
+                }
+            }
+            return sse;
+        }
+    }
+}
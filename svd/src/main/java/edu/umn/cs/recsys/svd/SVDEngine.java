@@ -0,0 +1,19 @@
+package edu.umn.cs.recsys.svd;
+
+import org.grouplens.grapht.annotation.DefaultImplementation;
+
+/**
+ * Strategy for computing the truncated SVD used by {@link SVDModelBuilder}.  Bind this interface
+ * to select how the decomposition is computed.
+ */
+@DefaultImplementation(ExactSVDEngine.class)
+public interface SVDEngine {
+    /**
+     * Compute the leading singular triplets of a matrix.
+     *
+     * @param matrix The matrix to decompose.
+     * @param rank   The number of singular values to retain.
+     * @return The truncated decomposition.
+     */
+    TruncatedSVD decompose(SparseRatingMatrix matrix, int rank);
+}
@@ -0,0 +1,250 @@
+package edu.umn.cs.recsys.svd;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.ItemScorer;
+import org.grouplens.lenskit.baseline.BaselineScorer;
+import org.grouplens.lenskit.basic.AbstractItemRecommender;
+import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.history.UserHistory;
+import org.grouplens.lenskit.indexes.IdIndexMapping;
+import org.grouplens.lenskit.scored.ScoredId;
+import org.grouplens.lenskit.vectors.MutableSparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SVD-based item recommender.  Rather than scoring every item and sorting, it walks the
+ * {@link ItemFactorIndex} in decreasing order of item norm and stops once the Cauchy&ndash;Schwarz
+ * bound on the remaining items' scores cannot beat the current top-N.  With a nonzero
+ * {@link ItemScanLimit}, it also stops after examining that many items, trading recall for
+ * latency.
+ * <p>
+ * Scores are the same as those of {@link SVDItemScorer}: the baseline plus the model offset,
+ * computed with the user vector the scorer provides, so users who are not in the model or whose
+ * ratings have changed are folded in (and cached) the same way.
+ * <p>
+ * The bound on the remaining baselines comes from the index's item baselines plus the user's
+ * baseline offset, so baselines are only computed, and exclusions only checked, for the items
+ * the scan visits.  Those items are scored in blocks of increasing size, to keep the number of
+ * baseline calls logarithmic in the length of the scan.  This bound is only valid for a baseline
+ * that is a per-user offset plus a per-item score, such as the mean baselines of
+ * {@link BaselineMode}; the index checks this when it is built, and with any other baseline
+ * (or an explicit candidate set) every candidate item is scored instead.
+ */
+public class SVDItemRecommender extends AbstractItemRecommender {
+    private static final int MIN_BLOCK_SIZE = 32;
+
+    private final SVDModel model;
+    private final ItemFactorIndex index;
+    private final SVDItemScorer scorer;
+    private final ItemScorer baselineScorer;
+    private final UserEventDAO userEvents;
+    private final ItemDAO itemDAO;
+    private final int scanLimit;
+
+    /**
+     * Construct an SVD item recommender.
+     *
+     * @param m        The model to use when generating scores.
+     * @param idx      The index over the model's item factors and the catalogue's baselines.
+     * @param svd      The item scorer, providing the user vectors.
+     * @param baseline The baseline scorer (providing means).
+     * @param uedao    A DAO to get user rating profiles, to exclude items the user has rated.
+     * @param idao     A DAO to get the items to recommend from, if the baseline is not additive.
+     * @param limit    The maximum number of items to examine, or 0 for an exact search.
+     */
+    @Inject
+    public SVDItemRecommender(SVDModel m, ItemFactorIndex idx, SVDItemScorer svd,
+                              @BaselineScorer ItemScorer baseline,
+                              UserEventDAO uedao, ItemDAO idao,
+                              @ItemScanLimit int limit) {
+        model = m;
+        index = idx;
+        scorer = svd;
+        baselineScorer = baseline;
+        userEvents = uedao;
+        itemDAO = idao;
+        scanLimit = limit;
+    }
+
+    @Override
+    protected List<ScoredId> recommend(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
+        return recommend(user, n, candidates, exclude, scanLimit);
+    }
+
+    /**
+     * Recommend items with an explicit scan limit.
+     *
+     * @param user       The user ID.
+     * @param n          The number of items to recommend, or a negative number for all items.
+     * @param candidates The candidate items, or {@code null} for all items.
+     * @param exclude    The items to exclude, or {@code null} to exclude the user's rated items.
+     * @param limit      The maximum number of items to examine, or 0 for an exact search.
+     * @return The recommendations, in decreasing order of score.
+     */
+    List<ScoredId> recommend(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude,
+                             int limit) {
+        if (exclude == null) {
+            exclude = getRatedItems(user);
+        }
+        if (n == 0) {
+            return Collections.emptyList();
+        }
+        double[] userVector = scorer.getUserVector(user);
+        if (candidates != null) {
+            return recommendCandidates(user, userVector, n, candidates, exclude);
+        }
+        LongSet probes = index.getProbeItems();
+        if (probes.isEmpty()) {
+            // no item can be scored
+            return Collections.emptyList();
+        }
+
+        MutableSparseVector probeBaselines = MutableSparseVector.create(probes);
+        baselineScorer.score(user, probeBaselines);
+        double offset = index.getBaselineOffset(probeBaselines);
+        if (!index.isBaselineAdditive() || Double.isNaN(offset)) {
+            // the item baselines do not bound this user's baselines
+            return recommendCandidates(user, userVector, n, itemDAO.getItemIds(), exclude);
+        }
+        ScoredItemHeap heap = new ScoredItemHeap(n < 0 ? index.size() + index.getExtraItemCount() : n);
+        long[] block = new long[MIN_BLOCK_SIZE];
+        int[] blockRows = new int[MIN_BLOCK_SIZE];
+
+        // the items with no factors are sorted by baseline, so stop at the first that cannot enter
+        int next = 0;
+        boolean done = false;
+        while (next < index.getExtraItemCount() && !done) {
+            int count = 0;
+            while (next < index.getExtraItemCount() && count < block.length) {
+                if (heap.isFull() && index.getExtraBaseline(next) + offset <= heap.getThreshold()) {
+                    done = true;
+                    break;
+                }
+                long item = index.getExtraItem(next++);
+                if (!exclude.contains(item)) {
+                    block[count++] = item;
+                }
+            }
+            offerBlock(user, null, block, blockRows, count, heap);
+            if (count == block.length) {
+                block = new long[block.length * 2];
+                blockRows = new int[block.length];
+            }
+        }
+
+        double userNorm = 0;
+        if (userVector != null) {
+            for (double v : userVector) {
+                userNorm += v * v;
+            }
+            userNorm = Math.sqrt(userNorm);
+        }
+        IdIndexMapping itemMapping = model.getItemIndMapping();
+        int scanned = 0;
+        int pos = 0;
+        done = false;
+        while (pos < index.size() && !done) {
+            int count = 0;
+            while (pos < index.size() && count < block.length) {
+                if (heap.isFull()
+                        && index.getMaxBaseline(pos) + offset + userNorm * index.getNorm(pos) <= heap.getThreshold()) {
+                    done = true;
+                    break;
+                }
+                if (limit > 0 && scanned + count >= limit) {
+                    done = true;
+                    break;
+                }
+                int itemRow = index.getItemRow(pos);
+                boolean scorable = !Double.isNaN(index.getBaseline(pos));
+                pos += 1;
+                if (scorable) {
+                    long item = itemMapping.getId(itemRow);
+                    if (!exclude.contains(item)) {
+                        block[count] = item;
+                        blockRows[count] = itemRow;
+                        count += 1;
+                    }
+                }
+            }
+            offerBlock(user, userVector, block, blockRows, count, heap);
+            scanned += count;
+            if (count == block.length) {
+                block = new long[block.length * 2];
+                blockRows = new int[block.length];
+            }
+        }
+        return heap.finish();
+    }
+
+    /**
+     * Score a block of items and offer them to the heap.
+     *
+     * @param user       The user ID.
+     * @param userVector The user's feature vector, or {@code null} to score the items by their
+     *                   baselines.
+     * @param items      The item IDs.
+     * @param itemRows   The items' rows in the model (only used with a user vector).
+     * @param count      The number of items in the block.
+     * @param heap       The heap to offer the scored items to.
+     */
+    private void offerBlock(long user, @Nullable double[] userVector, long[] items, int[] itemRows, int count,
+                            ScoredItemHeap heap) {
+        if (count == 0) {
+            return;
+        }
+        MutableSparseVector baselines = MutableSparseVector.create(Arrays.copyOf(items, count));
+        baselineScorer.score(user, baselines);
+        for (int i = 0; i < count; i++) {
+            if (baselines.containsKey(items[i])) {
+                double score = baselines.get(items[i]);
+                if (userVector != null) {
+                    score += model.score(userVector, itemRows[i]);
+                }
+                heap.offer(items[i], score);
+            }
+        }
+    }
+
+    /**
+     * Score every item in an explicit candidate set.
+     */
+    private List<ScoredId> recommendCandidates(long user, @Nullable double[] userVector, int n,
+                                               LongSet candidates, LongSet exclude) {
+        LongSet items = candidates;
+        if (!exclude.isEmpty()) {
+            items = new LongOpenHashSet(candidates);
+            items.removeAll(exclude);
+        }
+
+        MutableSparseVector baselines = MutableSparseVector.create(items);
+        baselineScorer.score(user, baselines);
+        ScoredItemHeap heap = new ScoredItemHeap(n < 0 ? baselines.size() : n);
+        for (VectorEntry e : baselines.fast()) {
+            int itemRow = userVector == null ? -1 : model.tryGetItemRow(e.getKey());
+            double score = e.getValue();
+            if (itemRow >= 0) {
+                score += model.score(userVector, itemRow);
+            }
+            heap.offer(e.getKey(), score);
+        }
+        return heap.finish();
+    }
+
+    private LongSet getRatedItems(long user) {
+        UserHistory<Rating> history = userEvents.getEventsForUser(user, Rating.class);
+        if (history == null) {
+            return new LongOpenHashSet();
+        }
+        return history.itemSet();
+    }
+}
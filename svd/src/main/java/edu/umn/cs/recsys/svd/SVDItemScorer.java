@@ -1,46 +1,62 @@
 package edu.umn.cs.recsys.svd;
 
-import org.apache.commons.math3.linear.RealMatrix;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edu.umn.cs.recsys.svd.ScoringInstrumentation.Phase;
 import org.grouplens.lenskit.ItemScorer;
 import org.grouplens.lenskit.baseline.BaselineScorer;
 import org.grouplens.lenskit.basic.AbstractItemScorer;
 import org.grouplens.lenskit.data.dao.UserEventDAO;
 import org.grouplens.lenskit.data.event.Rating;
-import org.grouplens.lenskit.data.history.History;
-import org.grouplens.lenskit.data.history.RatingVectorUserHistorySummarizer;
+import org.grouplens.lenskit.data.event.Ratings;
 import org.grouplens.lenskit.data.history.UserHistory;
 import org.grouplens.lenskit.vectors.MutableSparseVector;
-import org.grouplens.lenskit.vectors.SparseVector;
 import org.grouplens.lenskit.vectors.VectorEntry;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 /**
- * SVD-based item scorer.
+ * SVD-based item scorer.  A user is scored with their row of the model if their ratings are the
+ * ones the model was built from; users who were not present when the model was built, or whose
+ * ratings have changed since, are {@linkplain SVDModel#foldIn(org.grouplens.lenskit.vectors.SparseVector,
+ * double) folded in} from their current ratings instead.  Folded-in vectors are cached along with
+ * the fingerprint of the ratings they were computed from, and refolded as soon as the user's
+ * ratings no longer match it.
  */
 public class SVDItemScorer extends AbstractItemScorer {
-    private static final Logger logger = LoggerFactory.getLogger(SVDItemScorer.class);
     private final SVDModel model;
     private final ItemScorer baselineScorer;
     private final UserEventDAO userEvents;
-    public static int inter = 0;
+    private final ScoringInstrumentation instrumentation;
+    private final double regularization;
+    private final Cache<Long, CachedVector> foldInCache;
 
     /**
      * Construct an SVD item scorer using a model.
      *
-     * @param m        The model to use when generating scores.
-     * @param uedao    A DAO to get user rating profiles.
-     * @param baseline The baseline scorer (providing means).
+     * @param m         The model to use when generating scores.
+     * @param uedao     A DAO to get user rating profiles.
+     * @param baseline  The baseline scorer (providing means).
+     * @param instr     The instrumentation recording where scoring time goes.
+     * @param reg       The regularization applied to folded-in user vectors.
+     * @param cacheSize The number of folded-in user vectors to cache.
      */
     @Inject
     public SVDItemScorer(SVDModel m, UserEventDAO uedao,
-                         @BaselineScorer ItemScorer baseline) {
+                         @BaselineScorer ItemScorer baseline,
+                         ScoringInstrumentation instr,
+                         @RegularizationTerm double reg,
+                         @FoldInCacheSize int cacheSize) {
         model = m;
         baselineScorer = baseline;
         userEvents = uedao;
+        instrumentation = instr;
+        regularization = reg;
+        foldInCache = CacheBuilder.newBuilder()
+                                  .maximumSize(cacheSize)
+                                  .build();
     }
 
     /**
@@ -48,67 +64,92 @@ public class SVDItemScorer extends AbstractItemScorer {
      * items to score, and the score method sets the values for each item to
      * its score (or unsets it, if no score can be provided). The previous
      * values are discarded.
+     * <p>
+     * The baseline scores for all items are computed in one call; the user's vector is then
+     * looked up once and each item's offset is added with a dot product over the model's flat
+     * factor arrays, without allocating anything per item.
      *
      * @param user   The user ID.
      * @param scores The score vector.
      */
-
-
     @Override
     public void score(long user, @Nonnull MutableSparseVector scores) {
-        // TODO Score the items in the key domain of scores
-
-        for (VectorEntry e : scores.fast(VectorEntry.State.EITHER)) {
-            long item = e.getKey();
-            logger.info("scoring user{} and item{}", user, item);
-
-            RealMatrix itemVec = model.getItemVector(item);
-            RealMatrix userVec = model.getUserVector(user);
-            RealMatrix S = model.getFeatureWeights();
-
-            RealMatrix itemVecTranspose = itemVec.transpose();
-
-            System.out.println("user Vector" + userVec.getRowDimension() + "X" + userVec.getColumnDimension());
-            System.out.println("Weights Vector" + S.getRowDimension() + "X" + S.getColumnDimension());
-            System.out.println("item Vector" + itemVecTranspose.getRowDimension() + "X" + itemVecTranspose.getColumnDimension());
-
-            System.out.println("===============================================================================");
-
-            System.out.println(S);
-
-            System.out.println("===============================================================================");
-
-            SparseVector userHistory = getUserRatingVector(user);
-            double userMean = userHistory.mean();
-            System.out.println(user + "user mean =" + userMean);
-
-            double score = baselineScorer.score(user, item);
-
-            System.out.println("baseLine score=" + score);
-
-            if (userVec != null && itemVec != null) {
+        long start = instrumentation.start();
+        scores.clear();
+        baselineScorer.score(user, scores);
+        instrumentation.record(Phase.BASELINE, start, scores.keyDomain().size());
+
+        double[] userVector = getUserVector(user);
+        if (userVector == null) {
+            // no ratings, the baseline is all we have
+            return;
+        }
 
-                RealMatrix R = userVec.multiply(S.multiply(itemVec.transpose()));
-                score += R.getEntry(0, 0);
-                logger.info("scoring iteration {} , current score={} ", ++inter, R.getEntry(0, 0));
+        start = instrumentation.start();
+        int n = 0;
+        for (VectorEntry e : scores.fast()) {
+            int itemRow = model.tryGetItemRow(e.getKey());
+            if (itemRow >= 0) {
+                scores.set(e, e.getValue() + model.score(userVector, itemRow));
+                n += 1;
             }
-            scores.set(e, score);
-            // TODO Set the scores
         }
+        instrumentation.record(Phase.DOT_PRODUCT, start, n);
     }
 
     /**
-     * Get a user's ratings.
+     * Get the feature vector to score a user with: their row of the model if it reflects their
+     * current ratings, and their folded-in ratings otherwise.
      *
      * @param user The user ID.
-     * @return The ratings to retrieve.
+     * @return The user's feature vector, usable with {@link SVDModel#score(double[], int)}, or
+     *         {@code null} if the user has no ratings and is not in the model.
      */
-    private SparseVector getUserRatingVector(long user) {
+    @Nullable
+    double[] getUserVector(long user) {
+        long start = instrumentation.start();
         UserHistory<Rating> history = userEvents.getEventsForUser(user, Rating.class);
-        if (history == null) {
-            history = History.forUser(user);
+        MutableSparseVector ratings = null;
+        long fingerprint = 0;
+        if (history != null && !history.isEmpty()) {
+            ratings = Ratings.userRatingVector(history);
+            fingerprint = SVDModel.fingerprint(ratings);
+        }
+        int userRow = model.tryGetUserRow(user);
+        boolean current = userRow >= 0 && model.isUserCurrent(userRow, fingerprint);
+        CachedVector cached = current || ratings == null ? null : foldInCache.getIfPresent(user);
+        instrumentation.record(Phase.MODEL_LOOKUP, start, 1);
+
+        if (current) {
+            return model.getUserFeatures(userRow);
+        } else if (ratings == null) {
+            return null;
+        } else if (cached != null && cached.fingerprint == fingerprint) {
+            return cached.vector;
         }
 
-        return RatingVectorUserHistorySummarizer.makeRatingVector(history);
+        start = instrumentation.start();
+        MutableSparseVector offsets = ratings.mutableCopy();
+        baselineScorer.score(user, offsets);
+        for (VectorEntry e : offsets.fast()) {
+            offsets.set(e, ratings.get(e.getKey()) - e.getValue());
+        }
+        double[] vector = model.foldIn(offsets, regularization);
+        foldInCache.put(user, new CachedVector(vector, fingerprint));
+        instrumentation.record(Phase.FOLD_IN, start, ratings.size());
+        return vector;
+    }
+
+    /**
+     * A folded-in user vector and the fingerprint of the ratings it was computed from.
+     */
+    private static final class CachedVector {
+        private final double[] vector;
+        private final long fingerprint;
+
+        CachedVector(double[] v, long fp) {
+            vector = v;
+            fingerprint = fp;
+        }
     }
 }
@@ -3,18 +3,26 @@ package edu.umn.cs.recsys.svd;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import edu.umn.cs.recsys.dao.*;
+import org.grouplens.lenskit.ItemRecommender;
 import org.grouplens.lenskit.ItemScorer;
 import org.grouplens.lenskit.RecommenderBuildException;
 import org.grouplens.lenskit.core.LenskitConfiguration;
 import org.grouplens.lenskit.core.LenskitRecommender;
 import org.grouplens.lenskit.data.dao.EventDAO;
 import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.dao.ItemEventDAO;
 import org.grouplens.lenskit.data.dao.UserDAO;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.scored.ScoredId;
 import org.grouplens.lenskit.vectors.SparseVector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
@@ -46,6 +54,12 @@ public class SVDMain {
      */
     public static SVDMain initialize(String[] args) {
         BaselineMode baselineMode = BaselineMode.GLOBAL_MEAN;
+        FactorizationMode factorizationMode = FactorizationMode.EXACT_SVD;
+        boolean timings = false;
+        File timingsFile = null;
+        File loadModel = null;
+        File saveModel = null;
+        boolean recallReport = false;
         Map<Long, Set<Long>> toScore = Maps.newHashMap();
         for (String arg : args) {
             logger.debug("parsing argument: {}", arg);
@@ -57,6 +71,23 @@ public class SVDMain {
                 baselineMode = BaselineMode.ITEM_MEAN;
             } else if (arg.equals("--user-item-mean")) {
                 baselineMode = BaselineMode.USER_ITEM_MEAN;
+            } else if (arg.equals("--exact-svd")) {
+                factorizationMode = FactorizationMode.EXACT_SVD;
+            } else if (arg.equals("--randomized-svd")) {
+                factorizationMode = FactorizationMode.RANDOMIZED_SVD;
+            } else if (arg.equals("--sgd")) {
+                factorizationMode = FactorizationMode.SGD;
+            } else if (arg.equals("--timings")) {
+                timings = true;
+            } else if (arg.startsWith("--timings-csv=")) {
+                timings = true;
+                timingsFile = new File(arg.substring("--timings-csv=".length()));
+            } else if (arg.startsWith("--load-model=")) {
+                loadModel = new File(arg.substring("--load-model=".length()));
+            } else if (arg.startsWith("--save-model=")) {
+                saveModel = new File(arg.substring("--save-model=".length()));
+            } else if (arg.equals("--recall-report")) {
+                recallReport = true;
             } else if (arg.equals("--all")) {
                 toScore = null;
             } else if (arg.startsWith("--")) {
@@ -75,20 +106,34 @@ public class SVDMain {
                 }
             }
         }
-        return new SVDMain(baselineMode, toScore);
+        SVDMain program = new SVDMain(baselineMode, factorizationMode, toScore);
+        program.collectTimings = timings;
+        program.timingsFile = timingsFile;
+        program.loadModelFile = loadModel;
+        program.saveModelFile = saveModel;
+        program.recallReport = recallReport;
+        return program;
     }
 
     BaselineMode baselineMode;
+    FactorizationMode factorizationMode;
     Map<Long, Set<Long>> toScore;
+    boolean collectTimings;
+    File timingsFile;
+    File loadModelFile;
+    File saveModelFile;
+    boolean recallReport;
 
     /**
      * Construct a new SVD program.
      *
      * @param base     The baseline mode.
+     * @param factor   The factorization mode.
      * @param requests The items to score for each user.
      */
-    public SVDMain(BaselineMode base, Map<Long, Set<Long>> requests) {
+    public SVDMain(BaselineMode base, FactorizationMode factor, Map<Long, Set<Long>> requests) {
         baselineMode = base;
+        factorizationMode = factor;
         toScore = requests;
     }
 
@@ -104,6 +149,11 @@ public class SVDMain {
         // configure the rating data source
         config.bind(EventDAO.class)
                 .to(MOOCRatingDAO.class);
+        // and serve user and item lookups from its indexes
+        config.bind(UserEventDAO.class)
+                .to(MOOCRatingDAO.class);
+        config.bind(ItemEventDAO.class)
+                .to(MOOCRatingDAO.class);
         config.set(RatingFile.class)
                 .to(new File("data/ratings.csv"));
 
@@ -126,15 +176,38 @@ public class SVDMain {
         // use the item-item scorer you will implement to score items
         config.bind(ItemScorer.class)
                 .to(SVDItemScorer.class);
+        // and recommend from the item factor index
+        config.bind(ItemRecommender.class)
+                .to(SVDItemRecommender.class);
+        config.addRoot(SVDItemRecommender.class);
         baselineMode.configure(config);
+        factorizationMode.configure(config);
         config.set(LatentFeatureCount.class)
                 .to(10);
+        if (loadModelFile != null) {
+            // map a previously saved model instead of training one
+            config.bind(SVDModel.class)
+                    .toProvider(MappedSVDModelProvider.class);
+            config.set(ModelFile.class)
+                    .to(loadModelFile);
+        }
+        if (saveModelFile != null) {
+            config.addRoot(SVDModel.class);
+        }
+
+        // make the scoring instrumentation available, so we can report it at the end
+        config.set(InstrumentScoring.class)
+                .to(collectTimings);
+        config.addRoot(ScoringInstrumentation.class);
         return config;
     }
 
     public void run() {
         LenskitConfiguration config = configureRecommender();
         LenskitRecommender rec;
+        long start = System.nanoTime();
+        // this program owns the JVM, so it is safe to reset the pools' peak usage here
+        resetPeakHeapUsage();
         try {
             rec = LenskitRecommender.build(config);
         } catch (RecommenderBuildException e) {
@@ -142,6 +215,19 @@ public class SVDMain {
             System.exit(2);
             throw new AssertionError(); // to de-confuse unreachable code detection
         }
+        logger.info("built recommender in {} ms, peak heap {} MiB",
+                    (System.nanoTime() - start) / 1000000,
+                    getPeakHeapUsage() / (1024 * 1024));
+
+        if (saveModelFile != null) {
+            try {
+                SVDModelFile.write(rec.get(SVDModel.class), saveModelFile);
+                logger.info("saved model to {}", saveModelFile);
+            } catch (IOException e) {
+                logger.error("cannot write model to " + saveModelFile, e);
+                System.exit(2);
+            }
+        }
 
         // Get the item title DAO, so we can look up movie titles
         ItemTitleDAO titleDAO = rec.get(ItemTitleDAO.class);
@@ -163,11 +249,13 @@ public class SVDMain {
             }
         }
 
+        // buffer the output, so writing scores does not flush the console for every line
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
         logger.info("scoring for {} users", toScore.size());
         for (Map.Entry<Long, Set<Long>> scoreRequest : toScore.entrySet()) {
             long user = scoreRequest.getKey();
             Set<Long> items = scoreRequest.getValue();
-            logger.info("scoring {} items for user {}", items.size(), user);
+            logger.debug("scoring {} items for user {}", items.size(), user);
             // We call the score method that takes a set of items.
             // AbstractItemScorer delegates this method to the one you are supposed to implement.
             SparseVector scores = scorer.score(user, items);
@@ -179,8 +267,113 @@ public class SVDMain {
                     score = "NA";
                 }
                 String title = titleDAO.getItemTitle(item);
-                System.out.format("%d,%d,%s,%s\n", user, item, score, title);
+                out.format("%d,%d,%s,%s\n", user, item, score, title);
+            }
+        }
+        out.flush();
+
+        if (collectTimings) {
+            reportTimings(rec.get(ScoringInstrumentation.class));
+        }
+        if (recallReport) {
+            reportRecall(rec.get(SVDItemRecommender.class),
+                         rec.get(ItemFactorIndex.class).size(),
+                         toScore.keySet());
+        }
+    }
+
+    /**
+     * Compare approximate top-N recommendation against the exact search, printing the recall and
+     * mean latency for a range of scan limits.
+     *
+     * @param recommender The SVD item recommender.
+     * @param nitems      The number of items in the factor index.
+     * @param users       The users to recommend for.
+     */
+    private void reportRecall(SVDItemRecommender recommender, int nitems, Set<Long> users) {
+        final int n = 10;
+        Map<Long, Set<Long>> exact = Maps.newHashMap();
+        long start = System.nanoTime();
+        for (long user : users) {
+            Set<Long> ids = Sets.newHashSet();
+            for (ScoredId id : recommender.recommend(user, n, null, null, 0)) {
+                ids.add(id.getId());
+            }
+            exact.put(user, ids);
+        }
+        long exactTime = System.nanoTime() - start;
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        out.println("ScanLimit,Recall,MeanMicros");
+        out.format(Locale.ROOT, "%d,%.4f,%.2f\n", 0, 1.0, exactTime / 1000.0 / users.size());
+        for (double fraction : new double[]{0.01, 0.02, 0.05, 0.1, 0.25, 0.5}) {
+            int limit = Math.max(n, (int) (fraction * nitems));
+            int found = 0;
+            int total = 0;
+            start = System.nanoTime();
+            for (long user : users) {
+                List<ScoredId> recs = recommender.recommend(user, n, null, null, limit);
+                Set<Long> truth = exact.get(user);
+                for (ScoredId id : recs) {
+                    if (truth.contains(id.getId())) {
+                        found += 1;
+                    }
+                }
+                total += truth.size();
+            }
+            long time = System.nanoTime() - start;
+            out.format(Locale.ROOT, "%d,%.4f,%.2f\n", limit,
+                       total == 0 ? 1.0 : (double) found / total,
+                       time / 1000.0 / users.size());
+        }
+        out.flush();
+    }
+
+    /**
+     * Report the scoring timings to the log, and to the CSV file if one was requested.
+     *
+     * @param instrumentation The scoring instrumentation.
+     */
+    private void reportTimings(ScoringInstrumentation instrumentation) {
+        instrumentation.dump(logger);
+        if (timingsFile != null) {
+            try {
+                Writer writer = new FileWriter(timingsFile);
+                try {
+                    instrumentation.writeCSV(writer);
+                } finally {
+                    writer.close();
+                }
+            } catch (IOException e) {
+                logger.error("cannot write timings to " + timingsFile, e);
+            }
+        }
+    }
+
+    /**
+     * Reset the peak usage counters of the heap memory pools, so that {@link #getPeakHeapUsage()}
+     * reports the peak for the recommender build.
+     */
+    private static void resetPeakHeapUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Get the peak heap usage since the last reset.
+     *
+     * @return The sum of the peak usage of the heap memory pools, in bytes.
+     */
+    private static long getPeakHeapUsage() {
+        long total = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                total += pool.getPeakUsage().getUsed();
             }
         }
+        return total;
     }
 }
@@ -1,26 +1,44 @@
 package edu.umn.cs.recsys.svd;
 
 import com.google.common.base.Preconditions;
+import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.grouplens.lenskit.core.Shareable;
 import org.grouplens.lenskit.indexes.IdIndexMapping;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
 
 import javax.annotation.Nullable;
+import java.io.File;
 import java.io.Serializable;
 
 /**
  * SVD model for collaborative filtering.
+ * <p>
+ * The factors are stored in flat row-major arrays.  The feature weights (singular values) are
+ * folded into the item factors when the model is constructed, so a prediction offset is a single
+ * dot product of a user row and an item row (see {@link #score(int, int)}).
+ * <p>
+ * Besides Java serialization, a model can be written to a compact binary file with
+ * {@link SVDModelFile#write(SVDModel, File)} and opened by memory-mapping it with
+ * {@link SVDModelFile#open(File)}.
+ * <p>
+ * The model also records a {@linkplain #fingerprint(SparseVector) fingerprint} of each user's
+ * ratings at build time, so a scorer can tell when a known user's row no longer reflects their
+ * ratings and fold them in instead.
  */
 @Shareable
 @DefaultProvider(SVDModelBuilder.class)
 public class SVDModel implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 3L;
     private final IdIndexMapping userMapping;
     private final IdIndexMapping itemMapping;
-    private final RealMatrix userFeatureMatrix;
-    private final RealMatrix itemFeatureMatrix;
-    private final RealMatrix featureWeights;
+    private final FactorMatrix userFactors;
+    private final FactorMatrix weightedItemFactors;
+    private final double[] featureWeights;
+    @Nullable
+    private final long[] userFingerprints;
 
     /**
      * Construct an SVD model.  The matrices represent the decomposition, such that the predictions
@@ -31,8 +49,10 @@ public class SVDModel implements Serializable {
      * @param umat    The user feature matrix (users x features)
      * @param imat    The item feature matrix (items x features)
      * @param weights The singular value matrix (diagonal matrix, features x features)
+     * @param prints  The fingerprints of the users' ratings, by row, or {@code null} if unknown.
      */
-    SVDModel(IdIndexMapping umap, IdIndexMapping imap, RealMatrix umat, RealMatrix imat, RealMatrix weights) {
+    SVDModel(IdIndexMapping umap, IdIndexMapping imap, RealMatrix umat, RealMatrix imat, RealMatrix weights,
+             @Nullable long[] prints) {
         Preconditions.checkArgument(weights.isSquare(),
                 "singular value matrix is not square");
         Preconditions.checkArgument(umat.getColumnDimension() == weights.getRowDimension(),
@@ -41,9 +61,114 @@ public class SVDModel implements Serializable {
                 "item matrix has incorrect column dimension");
         userMapping = umap;
         itemMapping = imap;
-        userFeatureMatrix = umat;
-        itemFeatureMatrix = imat;
+        featureWeights = new double[weights.getRowDimension()];
+        for (int f = 0; f < featureWeights.length; f++) {
+            featureWeights[f] = weights.getEntry(f, f);
+        }
+        userFactors = FactorMatrix.copyOf(umat, null);
+        weightedItemFactors = FactorMatrix.copyOf(imat, featureWeights);
+        userFingerprints = prints;
+    }
+
+    /**
+     * Construct an SVD model from factor matrices whose item factors already include the feature
+     * weights.
+     *
+     * @param umap    The mapping between user IDs and row numbers.
+     * @param imap    The mapping between item IDs and row numbers.
+     * @param umat    The user factors.
+     * @param wimat   The item factors, with each feature multiplied by its weight.
+     * @param weights The feature weights.
+     * @param prints  The fingerprints of the users' ratings, by row, or {@code null} if unknown.
+     */
+    SVDModel(IdIndexMapping umap, IdIndexMapping imap, FactorMatrix umat, FactorMatrix wimat, double[] weights,
+             @Nullable long[] prints) {
+        Preconditions.checkArgument(umat.getFeatureCount() == weights.length,
+                "user matrix has incorrect column dimension");
+        Preconditions.checkArgument(wimat.getFeatureCount() == weights.length,
+                "item matrix has incorrect column dimension");
+        userMapping = umap;
+        itemMapping = imap;
+        userFactors = umat;
+        weightedItemFactors = wimat;
         featureWeights = weights;
+        userFingerprints = prints;
+    }
+
+    /**
+     * Compute the fingerprint of a user's ratings.  Two rating vectors with the same items and
+     * values have the same fingerprint.
+     *
+     * @param ratings The user's rating vector.
+     * @return The fingerprint of the ratings.
+     */
+    static long fingerprint(SparseVector ratings) {
+        long fingerprint = ratings.size();
+        // sparse vectors iterate in key order, so equal vectors hash the same way
+        for (VectorEntry e : ratings.fast()) {
+            fingerprint = fingerprint * 31 + e.getKey();
+            fingerprint = fingerprint * 31 + Double.doubleToLongBits(e.getValue());
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Get the fingerprints of the users' ratings when the model was built.
+     *
+     * @return The fingerprints, by user row, or {@code null} if the model does not record them.
+     */
+    @Nullable
+    long[] getUserFingerprints() {
+        return userFingerprints;
+    }
+
+    /**
+     * Query whether a user's row in the model reflects their current ratings.
+     *
+     * @param userRow     The user's row number.
+     * @param fingerprint The {@linkplain #fingerprint(SparseVector) fingerprint} of the user's
+     *                    current ratings.
+     * @return {@code true} if the user had the same ratings when the model was built, or if the
+     *         model does not record the users' fingerprints.
+     */
+    public boolean isUserCurrent(int userRow, long fingerprint) {
+        return userFingerprints == null || userFingerprints[userRow] == fingerprint;
+    }
+
+    /**
+     * Get the user factors.
+     *
+     * @return The user factor matrix.
+     */
+    FactorMatrix getUserFactors() {
+        return userFactors;
+    }
+
+    /**
+     * Get the item factors, with the feature weights folded in.
+     *
+     * @return The weighted item factor matrix.
+     */
+    FactorMatrix getWeightedItemFactors() {
+        return weightedItemFactors;
+    }
+
+    /**
+     * Get the feature weights as an array.
+     *
+     * @return A copy of the feature weights.
+     */
+    double[] getFeatureWeightArray() {
+        return featureWeights.clone();
+    }
+
+    /**
+     * Get the number of latent features.
+     *
+     * @return The number of latent features in the model.
+     */
+    public int getFeatureCount() {
+        return featureWeights.length;
     }
 
     /**
@@ -52,7 +177,7 @@ public class SVDModel implements Serializable {
      * @return The diagonal matrix of feature weights.
      */
     public RealMatrix getFeatureWeights() {
-        return featureWeights;
+        return MatrixUtils.createRealDiagonalMatrix(featureWeights);
     }
 
     /**
@@ -66,7 +191,7 @@ public class SVDModel implements Serializable {
     public RealMatrix getUserVector(long user) {
         int row = userMapping.tryGetIndex(user);
         if (row >= 0) {
-            return userFeatureMatrix.getRowMatrix(row);
+            return userFactors.getRowMatrix(row, null);
         } else {
             return null;
         }
@@ -82,7 +207,7 @@ public class SVDModel implements Serializable {
     public RealMatrix getItemVector(long item) {
         int row = itemMapping.tryGetIndex(item);
         if (row >= 0) {
-            return itemFeatureMatrix.getRowMatrix(row);
+            return weightedItemFactors.getRowMatrix(row, featureWeights);
         } else {
             return null;
         }
@@ -91,10 +216,10 @@ public class SVDModel implements Serializable {
     /**
      * Get a item feature vector matrix.  Its rows are items and its columns are latent features.
      *
-     * @return The item-feature matrix (this must not be modified).
+     * @return A copy of the item-feature matrix.
      */
     public RealMatrix getItemFeatureMatrix() {
-        return itemFeatureMatrix;
+        return weightedItemFactors.toMatrix(featureWeights);
     }
 
     /**
@@ -125,4 +250,150 @@ public class SVDModel implements Serializable {
     public int getItemRow(long item) {
         return itemMapping.getIndex(item);
     }
+
+    /**
+     * Get the row number for a user in the user-feature matrix.
+     *
+     * @param user The user ID.
+     * @return The row number for the user, or a negative value if the user is unknown.
+     */
+    public int tryGetUserRow(long user) {
+        return userMapping.tryGetIndex(user);
+    }
+
+    /**
+     * Get the row number for an item in the item-feature matrix.
+     *
+     * @param item The item ID.
+     * @return The row number for the item, or a negative value if the item is unknown.
+     */
+    public int tryGetItemRow(long item) {
+        return itemMapping.tryGetIndex(item);
+    }
+
+    /**
+     * Compute the predicted offset from the baseline for a user and an item, i.e. the entry of
+     * {@code umat * weights * imat.transpose()} for that user and item.
+     *
+     * @param userRow The user's row number.
+     * @param itemRow The item's row number.
+     * @return The predicted offset.
+     */
+    public double score(int userRow, int itemRow) {
+        return userFactors.dot(userRow, weightedItemFactors, itemRow);
+    }
+
+    /**
+     * Project a user's rating offsets into the latent feature space, so a user who was not
+     * present when the model was built, or whose ratings have changed since, can be scored
+     * without rebuilding it.  The user's vector <i>x</i> is the regularized least-squares fit of
+     * the offsets to the weighted factors <i>W</i> of the rated items, the solution of
+     * {@code (W'W + reg * n * I) x = W'r} for <i>n</i> rated items.  This is the same objective
+     * {@link SGDModelBuilder} minimizes for each user, and unlike projecting with the transposed
+     * factors it does not need the item factors to be orthonormal.  Items not in the model are
+     * ignored.
+     *
+     * @param offsets The user's ratings, less their baseline scores.
+     * @param reg     The regularization applied to the user vector for each rating.
+     * @return The user's feature vector, usable with {@link #score(double[], int)}.
+     */
+    public double[] foldIn(SparseVector offsets, double reg) {
+        final int k = featureWeights.length;
+        double[] gram = new double[k * k];
+        double[] vector = new double[k];
+        double[] factors = new double[k];
+        int n = 0;
+        for (VectorEntry e : offsets.fast()) {
+            int row = itemMapping.tryGetIndex(e.getKey());
+            if (row >= 0) {
+                weightedItemFactors.addScaledRow(row, e.getValue(), vector);
+                for (int f = 0; f < k; f++) {
+                    factors[f] = weightedItemFactors.get(row, f);
+                }
+                // accumulate the lower triangle; the solver does not read the rest
+                for (int f = 0; f < k; f++) {
+                    for (int g = 0; g <= f; g++) {
+                        gram[f * k + g] += factors[f] * factors[g];
+                    }
+                }
+                n += 1;
+            }
+        }
+        if (n == 0) {
+            return vector;
+        }
+        double ridge = reg * n;
+        for (int f = 0; f < k; f++) {
+            gram[f * k + f] += ridge;
+        }
+        solveCholesky(gram, vector, k);
+        return vector;
+    }
+
+    /**
+     * Solve {@code A x = b} in place for a symmetric positive semi-definite matrix by Cholesky
+     * decomposition.  Pivots that vanish (a singular system, possible without regularization)
+     * set the corresponding component to zero.
+     *
+     * @param a The matrix, row-major; only its lower triangle is read, and it is overwritten with
+     *          the Cholesky factor.
+     * @param b The right-hand side; it is overwritten with the solution.
+     * @param k The dimension of the system.
+     */
+    private static void solveCholesky(double[] a, double[] b, int k) {
+        for (int j = 0; j < k; j++) {
+            double d = a[j * k + j];
+            for (int p = 0; p < j; p++) {
+                d -= a[j * k + p] * a[j * k + p];
+            }
+            d = d > 1.0e-12 ? Math.sqrt(d) : 0;
+            a[j * k + j] = d;
+            for (int i = j + 1; i < k; i++) {
+                double s = a[i * k + j];
+                for (int p = 0; p < j; p++) {
+                    s -= a[i * k + p] * a[j * k + p];
+                }
+                a[i * k + j] = d == 0 ? 0 : s / d;
+            }
+        }
+        // forward substitution with L, then back substitution with L'
+        for (int i = 0; i < k; i++) {
+            double s = b[i];
+            for (int p = 0; p < i; p++) {
+                s -= a[i * k + p] * b[p];
+            }
+            double d = a[i * k + i];
+            b[i] = d == 0 ? 0 : s / d;
+        }
+        for (int i = k - 1; i >= 0; i--) {
+            double s = b[i];
+            for (int p = i + 1; p < k; p++) {
+                s -= a[p * k + i] * b[p];
+            }
+            double d = a[i * k + i];
+            b[i] = d == 0 ? 0 : s / d;
+        }
+    }
+
+    /**
+     * Get a known user's feature vector as an array.
+     *
+     * @param userRow The user's row number.
+     * @return A copy of the user's feature vector, usable with {@link #score(double[], int)}.
+     */
+    public double[] getUserFeatures(int userRow) {
+        return userFactors.getRow(userRow);
+    }
+
+    /**
+     * Compute the predicted offset from the baseline for a folded-in user and an item.
+     *
+     * @param userVector The user's feature vector, from {@link #foldIn(SparseVector, double)} or
+     *                   {@link #getUserFeatures(int)}.
+     * @param itemRow    The item's row number.
+     * @return The predicted offset.
+     */
+    public double score(double[] userVector, int itemRow) {
+        return weightedItemFactors.dot(itemRow, userVector);
+    }
 }
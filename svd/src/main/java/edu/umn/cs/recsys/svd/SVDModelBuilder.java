@@ -1,8 +1,5 @@
 package edu.umn.cs.recsys.svd;
 
-import org.apache.commons.math3.linear.MatrixUtils;
-import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.SingularValueDecomposition;
 import org.grouplens.lenskit.ItemScorer;
 import org.grouplens.lenskit.baseline.BaselineScorer;
 import org.grouplens.lenskit.core.Transient;
@@ -33,6 +30,7 @@ public class SVDModelBuilder implements Provider<SVDModel> {
     private final UserDAO userDAO;
     private final ItemDAO itemDAO;
     private final ItemScorer baselineScorer;
+    private final SVDEngine engine;
     private final int featureCount;
 
     /**
@@ -42,6 +40,7 @@ public class SVDModelBuilder implements Provider<SVDModel> {
      * @param udao      The user DAO.
      * @param idao      The item DAO.
      * @param baseline  The baseline scorer (this will be used to compute means).
+     * @param svd       The engine used to compute the truncated decomposition.
      * @param nfeatures The number of latent features to train.
      */
     @Inject
@@ -49,12 +48,14 @@ public class SVDModelBuilder implements Provider<SVDModel> {
                            @Transient UserDAO udao,
                            @Transient ItemDAO idao,
                            @Transient @BaselineScorer ItemScorer baseline,
+                           @Transient SVDEngine svd,
                            @LatentFeatureCount int nfeatures) {
         logger.debug("user DAO: {}", udao);
         userEventDAO = uedao;
         userDAO = udao;
         itemDAO = idao;
         baselineScorer = baseline;
+        engine = svd;
         featureCount = nfeatures;
     }
 
@@ -65,9 +66,10 @@ public class SVDModelBuilder implements Provider<SVDModel> {
      */
     @Override
     public SVDModel get() {
+        long start = System.nanoTime();
+
         // Create index mappings of user and item IDs.
         // You can use these to find row and columns in the matrix based on user/item IDs.
-
         IdIndexMapping userMapping = IdIndexMapping.create(userDAO.getUserIds());
         logger.debug("indexed {} users", userMapping.size());
         IdIndexMapping itemMapping = IdIndexMapping.create(itemDAO.getItemIds());
@@ -75,81 +77,66 @@ public class SVDModelBuilder implements Provider<SVDModel> {
 
         // We have to do 2 things:
         // First, prepare a matrix containing the rating data.
-        RealMatrix matrix = createRatingMatrix(userMapping, itemMapping);
-
-
-        logger.info(" building SVD");
-
-        // Second, compute its factorization
-        // All the work is done in the constructor
-        SingularValueDecomposition svd = new SingularValueDecomposition(matrix);
-
-        logger.info(" finised building SVD");
-
-        // Third, truncate the decomposed matrix
-        // TODO Truncate the matrices and construct the SVD model
-
-
-        RealMatrix U = svd.getU().getSubMatrix(0, userMapping.size() - 1, 0, featureCount - 1);
-        RealMatrix Sigma = svd.getS().getSubMatrix(0, featureCount - 1, 0, featureCount - 1);
-        RealMatrix V = svd.getV().getSubMatrix(0, itemMapping.size() - 1, 0, featureCount - 1);
-
-        // TODO Replace this throw line with returning the model when you are finished
+        long[] fingerprints = new long[userMapping.size()];
+        SparseRatingMatrix matrix = createRatingMatrix(userEventDAO, baselineScorer, userMapping, itemMapping,
+                                                       fingerprints);
 
-        SVDModel svdModel = new SVDModel(userMapping, itemMapping, U, V, Sigma);
+        // Second, compute its truncated factorization
+        logger.info("computing rank-{} SVD with {}", featureCount, engine.getClass().getSimpleName());
+        TruncatedSVD svd = engine.decompose(matrix, featureCount);
 
-        return svdModel;
-//        throw new UnsupportedOperationException("SVD model not yet implemented");
+        logger.debug("built SVD model in {} ms", (System.nanoTime() - start) / 1000000);
+        return new SVDModel(userMapping, itemMapping, svd.getU(), svd.getV(), svd.getS(), fingerprints);
     }
 
     /**
      * Build a rating matrix from the rating data.  Each user's ratings are first normalized
-     * by subtracting a baseline score (usually a mean).
+     * by subtracting a baseline score (usually a mean).  The matrix is filled in a single pass over
+     * the users' rating histories.
      *
-     * @param userMapping The index mapping of user IDs to column numbers.
-     * @param itemMapping The index mapping of item IDs to row numbers.
-     * @return A matrix storing the <i>normalized</i> user ratings.
+     * @param userEventDAO   The DAO providing user rating histories.
+     * @param baselineScorer The baseline scorer used to normalize ratings.
+     * @param userMapping    The index mapping of user IDs to row numbers.
+     * @param itemMapping    The index mapping of item IDs to column numbers.
+     * @param fingerprints   An array, indexed by user row, to receive the
+     *                       {@linkplain SVDModel#fingerprint(org.grouplens.lenskit.vectors.SparseVector)
+     *                       fingerprints} of the users' ratings.
+     * @return A sparse matrix storing the <i>normalized</i> user ratings.
      */
-    private RealMatrix createRatingMatrix(IdIndexMapping userMapping, IdIndexMapping itemMapping) {
+    static SparseRatingMatrix createRatingMatrix(UserEventDAO userEventDAO, ItemScorer baselineScorer,
+                                                 IdIndexMapping userMapping, IdIndexMapping itemMapping,
+                                                 long[] fingerprints) {
         final int nusers = userMapping.size();
         final int nitems = itemMapping.size();
 
         // Create a matrix with users on rows and items on columns
         logger.info("creating {} by {} rating matrix", nusers, nitems);
-        RealMatrix matrix = MatrixUtils.createRealMatrix(nusers, nitems);
+        SparseRatingMatrix.Builder matrix = SparseRatingMatrix.newBuilder(nusers, nitems);
 
         // populate it with data
         Cursor<UserHistory<Event>> users = userEventDAO.streamEventsByUser();
         try {
-
             for (UserHistory<Event> user : users) {
                 // Get the row number for this user
-                // TODO Populate this user's row with their ratings, minus the baseline scores
-
                 int userPosition = userMapping.getIndex(user.getUserId());
 
                 MutableSparseVector ratings = Ratings.userRatingVector(user.filter(Rating.class));
+                fingerprints[userPosition] = SVDModel.fingerprint(ratings);
                 MutableSparseVector baselines = MutableSparseVector.create(ratings.keySet());
                 baselineScorer.score(user.getUserId(), baselines);
 
                 for (VectorEntry eachEvent : ratings.fast()) {
-
                     double normalizedRating = eachEvent.getValue() - baselines.get(eachEvent.getKey());
-
                     int itemPosition = itemMapping.getIndex(eachEvent.getKey());
-                    matrix.setEntry(userPosition, itemPosition, normalizedRating);
-
+                    matrix.add(userPosition, itemPosition, normalizedRating);
                 }
-
-
             }
-
         } finally {
             users.close();
-
-            logger.info("finished real matrix building");
         }
 
-        return matrix;
+        SparseRatingMatrix result = matrix.build();
+        logger.debug("rating matrix has {} entries", result.getEntryCount());
+        return result;
     }
 }
@@ -0,0 +1,233 @@
+package edu.umn.cs.recsys.svd;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.grouplens.lenskit.indexes.IdIndexMapping;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read and write SVD models in a compact binary format that can be memory-mapped.
+ * <p>
+ * The file is little-endian and laid out as follows:
+ * <ol>
+ * <li>a 24-byte header: the magic number, the format version, the user count, the item count,
+ * the feature count, and a flags integer;</li>
+ * <li>the user IDs, as longs, in row order;</li>
+ * <li>if the {@code FINGERPRINTS} flag is set, the fingerprints of the users' ratings, as longs,
+ * in row order;</li>
+ * <li>the item IDs, as longs, in row order;</li>
+ * <li>the feature weights, as doubles;</li>
+ * <li>the user factors, as doubles, row-major;</li>
+ * <li>the item factors with the feature weights folded in, as doubles, row-major.</li>
+ * </ol>
+ * Every section starts on an 8-byte boundary.  Flags other than {@code FINGERPRINTS} are
+ * reserved, and files that set them are rejected.  The two factor blocks are mapped separately, so
+ * each must fit in a single mapping (2<sup>31</sup> - 1 bytes, about 268 million factors).
+ */
+public final class SVDModelFile {
+    private static final int MAGIC = 0x5356444D; // "SVDM"
+    private static final int VERSION = 1;
+    private static final int FINGERPRINTS = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private SVDModelFile() {}
+
+    /**
+     * Write a model to a file.
+     *
+     * @param model The model to write.
+     * @param file  The file to write to.
+     * @throws IOException if there is an error writing the file.
+     */
+    public static void write(SVDModel model, File file) throws IOException {
+        IdIndexMapping users = model.getUserIndexMapping();
+        IdIndexMapping items = model.getItemIndMapping();
+        int nfeatures = model.getFeatureCount();
+        long[] fingerprints = model.getUserFingerprints();
+
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            BlockWriter out = new BlockWriter(stream.getChannel());
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(users.size());
+            out.putInt(items.size());
+            out.putInt(nfeatures);
+            out.putInt(fingerprints == null ? 0 : FINGERPRINTS);
+            for (int i = 0; i < users.size(); i++) {
+                out.putLong(users.getId(i));
+            }
+            if (fingerprints != null) {
+                for (long fp: fingerprints) {
+                    out.putLong(fp);
+                }
+            }
+            for (int i = 0; i < items.size(); i++) {
+                out.putLong(items.getId(i));
+            }
+            for (double w: model.getFeatureWeightArray()) {
+                out.putDouble(w);
+            }
+            out.putDoubles(model.getUserFactors().getValues());
+            out.putDoubles(model.getWeightedItemFactors().getValues());
+            out.flush();
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Open a model file by memory-mapping its factors.
+     *
+     * @param file The file to open.
+     * @return The model, backed by the mapped file.
+     * @throws IOException if the file cannot be read or is not a valid model file.
+     */
+    public static SVDModel open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + ": not an SVD model file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + ": unsupported model version " + version);
+            }
+            int nusers = header.getInt();
+            int nitems = header.getInt();
+            int nfeatures = header.getInt();
+            int flags = header.getInt();
+            if ((flags & ~FINGERPRINTS) != 0) {
+                throw new IOException(file + ": unsupported model flags " + flags);
+            }
+
+            long pos = HEADER_SIZE;
+            IdIndexMapping users = readMapping(channel, pos, nusers);
+            pos += 8L * nusers;
+            long[] fingerprints = null;
+            if ((flags & FINGERPRINTS) != 0) {
+                fingerprints = new long[nusers];
+                map(channel, pos, 8L * nusers).asLongBuffer().get(fingerprints);
+                pos += 8L * nusers;
+            }
+            IdIndexMapping items = readMapping(channel, pos, nitems);
+            pos += 8L * nitems;
+
+            double[] weights = new double[nfeatures];
+            map(channel, pos, 8L * nfeatures).asDoubleBuffer().get(weights);
+            pos += 8L * nfeatures;
+
+            long userBytes = 8L * nusers * nfeatures;
+            long itemBytes = 8L * nitems * nfeatures;
+            if (channel.size() != pos + userBytes + itemBytes) {
+                throw new IOException(file + ": model file has incorrect size");
+            }
+            DoubleBuffer userValues = map(channel, pos, userBytes).asDoubleBuffer();
+            pos += userBytes;
+            DoubleBuffer itemValues = map(channel, pos, itemBytes).asDoubleBuffer();
+
+            // the mappings remain valid after the channel is closed
+            return new SVDModel(users, items,
+                                FactorMatrix.wrap(nusers, nfeatures, userValues),
+                                FactorMatrix.wrap(nitems, nfeatures, itemValues),
+                                weights, fingerprints);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long pos, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("model section of " + size + " bytes is too large to map");
+        }
+        if (pos + size > channel.size()) {
+            throw new IOException("model file is truncated");
+        }
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        return buf;
+    }
+
+    private static IdIndexMapping readMapping(FileChannel channel, long pos, int n) throws IOException {
+        ByteBuffer buf = map(channel, pos, 8L * n);
+        LongArrayList ids = new LongArrayList(n);
+        for (int i = 0; i < n; i++) {
+            ids.add(buf.getLong());
+        }
+        IdIndexMapping mapping = IdIndexMapping.create(ids);
+        // the factor rows are stored in the order of the IDs, so the mapping must agree with it
+        for (int i = 0; i < n; i++) {
+            if (mapping.getIndex(ids.getLong(i)) != i) {
+                throw new IOException("model file has duplicate or unordered IDs");
+            }
+        }
+        return mapping;
+    }
+
+    /**
+     * Write primitive values to a channel through a fixed-size little-endian buffer.
+     */
+    private static class BlockWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        BlockWriter(FileChannel chan) {
+            channel = chan;
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void putInt(int v) throws IOException {
+            ensureSpace(4);
+            buffer.putInt(v);
+        }
+
+        void putLong(long v) throws IOException {
+            ensureSpace(8);
+            buffer.putLong(v);
+        }
+
+        void putDouble(double v) throws IOException {
+            ensureSpace(8);
+            buffer.putDouble(v);
+        }
+
+        void putDoubles(DoubleBuffer values) throws IOException {
+            while (values.hasRemaining()) {
+                ensureSpace(8);
+                DoubleBuffer out = buffer.asDoubleBuffer();
+                int n = Math.min(out.remaining(), values.remaining());
+                DoubleBuffer chunk = values.duplicate();
+                chunk.limit(chunk.position() + n);
+                out.put(chunk);
+                values.position(values.position() + n);
+                buffer.position(buffer.position() + n * 8);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensureSpace(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+}
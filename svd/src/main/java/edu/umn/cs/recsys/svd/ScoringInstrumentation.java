@@ -0,0 +1,166 @@
+package edu.umn.cs.recsys.svd;
+
+import org.slf4j.Logger;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Opt-in timing instrumentation for the SVD scoring path.  For each {@linkplain Phase phase} of a
+ * scoring request it counts calls and items and keeps a latency histogram with power-of-two
+ * nanosecond buckets.  When disabled (the default), {@link #start()} does not read the clock and
+ * {@link #record(Phase, long, int)} does nothing.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class ScoringInstrumentation {
+    /**
+     * The phases of a scoring request.
+     */
+    public static enum Phase {
+        /**
+         * Looking up the user's ratings and row in the model, and checking the row is current.
+         */
+        MODEL_LOOKUP,
+        /**
+         * Folding a user who is not in the model, or whose ratings have changed, into the latent
+         * space.
+         */
+        FOLD_IN,
+        /**
+         * Computing the baseline scores.
+         */
+        BASELINE,
+        /**
+         * Computing the latent factor offsets.
+         */
+        DOT_PRODUCT
+    }
+
+    private final boolean enabled;
+    private final PhaseStats[] stats;
+
+    /**
+     * Construct the instrumentation.
+     *
+     * @param enable Whether to collect timings.
+     */
+    @Inject
+    public ScoringInstrumentation(@InstrumentScoring boolean enable) {
+        enabled = enable;
+        stats = new PhaseStats[Phase.values().length];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new PhaseStats();
+        }
+    }
+
+    /**
+     * Query whether timings are being collected.
+     *
+     * @return {@code true} if this instrumentation is enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start timing a phase.
+     *
+     * @return The start time to pass to {@link #record(Phase, long, int)}.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the completion of a phase.
+     *
+     * @param phase The phase.
+     * @param start The start time returned by {@link #start()}.
+     * @param items The number of items the phase processed.
+     */
+    public void record(Phase phase, long start, int items) {
+        if (enabled) {
+            stats[phase.ordinal()].add(System.nanoTime() - start, items);
+        }
+    }
+
+    /**
+     * Log a summary of the collected timings.
+     *
+     * @param logger The logger to write to.
+     */
+    public void dump(Logger logger) {
+        for (Phase phase : Phase.values()) {
+            PhaseStats ps = stats[phase.ordinal()];
+            long count = ps.calls.get();
+            logger.info("{}: {} calls, {} items, mean {} us, p50 <= {} us, p99 <= {} us, max {} us",
+                        phase, count, ps.items.get(),
+                        String.format(Locale.ROOT, "%.2f", count == 0 ? 0.0 : ps.totalNanos.get() / 1000.0 / count),
+                        ps.percentile(0.5) / 1000, ps.percentile(0.99) / 1000,
+                        ps.maxNanos.get() / 1000);
+        }
+    }
+
+    /**
+     * Write the collected timings as CSV, with one row per phase.  Times are in nanoseconds;
+     * percentiles are the upper bounds of their histogram buckets.
+     *
+     * @param out The output.
+     * @throws IOException if there is an error writing the output.
+     */
+    public void writeCSV(Writer out) throws IOException {
+        out.write("Phase,Calls,Items,TotalNanos,MeanNanos,P50Nanos,P90Nanos,P99Nanos,MaxNanos\n");
+        for (Phase phase : Phase.values()) {
+            PhaseStats ps = stats[phase.ordinal()];
+            long count = ps.calls.get();
+            out.write(String.format(Locale.ROOT, "%s,%d,%d,%d,%.1f,%d,%d,%d,%d\n",
+                                    phase, count, ps.items.get(), ps.totalNanos.get(),
+                                    count == 0 ? 0.0 : (double) ps.totalNanos.get() / count,
+                                    ps.percentile(0.5), ps.percentile(0.9), ps.percentile(0.99),
+                                    ps.maxNanos.get()));
+        }
+    }
+
+    /**
+     * Counters and latency histogram for one phase.  Bucket {@code b} counts durations in
+     * {@code [2^(b-1), 2^b)} nanoseconds.
+     */
+    private static class PhaseStats {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong items = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        void add(long nanos, int nitems) {
+            calls.incrementAndGet();
+            items.addAndGet(nitems);
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)));
+        }
+
+        /**
+         * Get the upper bound of the bucket containing a percentile.
+         */
+        long percentile(double p) {
+            long target = (long) Math.ceil(calls.get() * p);
+            long seen = 0;
+            for (int b = 0; b < 64; b++) {
+                seen += buckets.get(b);
+                if (seen >= target && seen > 0) {
+                    return b == 0 ? 0 : 1L << Math.min(b, 62);
+                }
+            }
+            return 0;
+        }
+    }
+}
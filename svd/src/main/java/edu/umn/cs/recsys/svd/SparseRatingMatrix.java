@@ -0,0 +1,274 @@
+package edu.umn.cs.recsys.svd;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+
+import java.util.Arrays;
+
+/**
+ * A sparse rating matrix in compressed sparse row (CSR) layout.  The entries of row {@code r} are
+ * stored at positions {@link #getRowStart(int) getRowStart(r)} (inclusive) to
+ * {@link #getRowEnd(int) getRowEnd(r)} (exclusive) of the column and value arrays, so the memory
+ * used is proportional to the number of ratings rather than the size of the matrix.
+ * <p>
+ * Matrices are immutable once built; use {@link #newBuilder(int, int)} to create one.
+ */
+public class SparseRatingMatrix {
+    private final int nrows;
+    private final int ncols;
+    private final int[] rowOffsets;
+    private final int[] columns;
+    private final double[] values;
+
+    private SparseRatingMatrix(int nr, int nc, int[] offsets, int[] cols, double[] vals) {
+        nrows = nr;
+        ncols = nc;
+        rowOffsets = offsets;
+        columns = cols;
+        values = vals;
+    }
+
+    /**
+     * Create a builder for a sparse matrix.
+     *
+     * @param nrows The number of rows.
+     * @param ncols The number of columns.
+     * @return A new builder.
+     */
+    public static Builder newBuilder(int nrows, int ncols) {
+        return new Builder(nrows, ncols);
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return The row dimension of the matrix.
+     */
+    public int getRowDimension() {
+        return nrows;
+    }
+
+    /**
+     * Get the number of columns.
+     *
+     * @return The column dimension of the matrix.
+     */
+    public int getColumnDimension() {
+        return ncols;
+    }
+
+    /**
+     * Get the number of stored entries.
+     *
+     * @return The number of non-zero entries in the matrix.
+     */
+    public int getEntryCount() {
+        return values.length;
+    }
+
+    /**
+     * Get the position of the first entry of a row.
+     *
+     * @param row The row number.
+     * @return The position of the row's first entry.
+     */
+    public int getRowStart(int row) {
+        return rowOffsets[row];
+    }
+
+    /**
+     * Get the position just past the last entry of a row.
+     *
+     * @param row The row number.
+     * @return The position after the row's last entry.
+     */
+    public int getRowEnd(int row) {
+        return rowOffsets[row + 1];
+    }
+
+    /**
+     * Get the column of an entry.
+     *
+     * @param pos The entry position.
+     * @return The column number of the entry.
+     */
+    public int getColumn(int pos) {
+        return columns[pos];
+    }
+
+    /**
+     * Get the value of an entry.
+     *
+     * @param pos The entry position.
+     * @return The value of the entry.
+     */
+    public double getValue(int pos) {
+        return values[pos];
+    }
+
+    /**
+     * Compute {@code y = A x}.
+     *
+     * @param x The input vector (one entry per column).
+     * @param y The output vector (one entry per row).  Its contents are overwritten.
+     */
+    public void multiply(double[] x, double[] y) {
+        Preconditions.checkArgument(x.length == ncols, "input vector has incorrect dimension");
+        Preconditions.checkArgument(y.length == nrows, "output vector has incorrect dimension");
+        for (int r = 0; r < nrows; r++) {
+            double sum = 0;
+            for (int i = rowOffsets[r], end = rowOffsets[r + 1]; i < end; i++) {
+                sum += values[i] * x[columns[i]];
+            }
+            y[r] = sum;
+        }
+    }
+
+    /**
+     * Compute {@code y = A.transpose() x}.
+     *
+     * @param x The input vector (one entry per row).
+     * @param y The output vector (one entry per column).  Its contents are overwritten.
+     */
+    public void transposeMultiply(double[] x, double[] y) {
+        Preconditions.checkArgument(x.length == nrows, "input vector has incorrect dimension");
+        Preconditions.checkArgument(y.length == ncols, "output vector has incorrect dimension");
+        Arrays.fill(y, 0);
+        for (int r = 0; r < nrows; r++) {
+            final double xr = x[r];
+            for (int i = rowOffsets[r], end = rowOffsets[r + 1]; i < end; i++) {
+                y[columns[i]] += values[i] * xr;
+            }
+        }
+    }
+
+    /**
+     * Compute {@code A M} for a dense matrix {@code M}.
+     *
+     * @param m The matrix to multiply by (columns x k).
+     * @return The product (rows x k).
+     */
+    public RealMatrix multiply(RealMatrix m) {
+        Preconditions.checkArgument(m.getRowDimension() == ncols, "matrix has incorrect row dimension");
+        final int width = m.getColumnDimension();
+        double[][] in = m.getData();
+        double[][] out = new double[nrows][width];
+        for (int r = 0; r < nrows; r++) {
+            double[] orow = out[r];
+            for (int i = rowOffsets[r], end = rowOffsets[r + 1]; i < end; i++) {
+                final double v = values[i];
+                double[] irow = in[columns[i]];
+                for (int j = 0; j < width; j++) {
+                    orow[j] += v * irow[j];
+                }
+            }
+        }
+        return new Array2DRowRealMatrix(out, false);
+    }
+
+    /**
+     * Compute {@code A.transpose() M} for a dense matrix {@code M}.
+     *
+     * @param m The matrix to multiply by (rows x k).
+     * @return The product (columns x k).
+     */
+    public RealMatrix transposeMultiply(RealMatrix m) {
+        Preconditions.checkArgument(m.getRowDimension() == nrows, "matrix has incorrect row dimension");
+        final int width = m.getColumnDimension();
+        double[][] in = m.getData();
+        double[][] out = new double[ncols][width];
+        for (int r = 0; r < nrows; r++) {
+            double[] irow = in[r];
+            for (int i = rowOffsets[r], end = rowOffsets[r + 1]; i < end; i++) {
+                final double v = values[i];
+                double[] orow = out[columns[i]];
+                for (int j = 0; j < width; j++) {
+                    orow[j] += v * irow[j];
+                }
+            }
+        }
+        return new Array2DRowRealMatrix(out, false);
+    }
+
+    /**
+     * Expand this matrix into a dense matrix.
+     *
+     * @return A dense copy of the matrix.
+     */
+    public RealMatrix toDense() {
+        double[][] data = new double[nrows][ncols];
+        for (int r = 0; r < nrows; r++) {
+            for (int i = rowOffsets[r], end = rowOffsets[r + 1]; i < end; i++) {
+                data[r][columns[i]] = values[i];
+            }
+        }
+        return new Array2DRowRealMatrix(data, false);
+    }
+
+    /**
+     * Builder for sparse rating matrices.  Entries can be added in any order; each (row, column)
+     * pair should be added at most once.
+     */
+    public static class Builder {
+        private final int nrows;
+        private final int ncols;
+        private int[] rows = new int[1024];
+        private int[] cols = new int[1024];
+        private double[] vals = new double[1024];
+        private int size = 0;
+
+        private Builder(int nr, int nc) {
+            nrows = nr;
+            ncols = nc;
+        }
+
+        /**
+         * Add an entry to the matrix.
+         *
+         * @param row   The row number.
+         * @param col   The column number.
+         * @param value The value.
+         * @return The builder (for chaining).
+         */
+        public Builder add(int row, int col, double value) {
+            Preconditions.checkElementIndex(row, nrows, "row");
+            Preconditions.checkElementIndex(col, ncols, "column");
+            if (size == rows.length) {
+                int cap = size * 2;
+                rows = Arrays.copyOf(rows, cap);
+                cols = Arrays.copyOf(cols, cap);
+                vals = Arrays.copyOf(vals, cap);
+            }
+            rows[size] = row;
+            cols[size] = col;
+            vals[size] = value;
+            size += 1;
+            return this;
+        }
+
+        /**
+         * Build the matrix.  This groups the entries by row with a counting sort.
+         *
+         * @return The sparse matrix.
+         */
+        public SparseRatingMatrix build() {
+            int[] offsets = new int[nrows + 1];
+            for (int i = 0; i < size; i++) {
+                offsets[rows[i] + 1] += 1;
+            }
+            for (int r = 0; r < nrows; r++) {
+                offsets[r + 1] += offsets[r];
+            }
+            int[] next = Arrays.copyOf(offsets, nrows);
+            int[] sortedCols = new int[size];
+            double[] sortedVals = new double[size];
+            for (int i = 0; i < size; i++) {
+                int pos = next[rows[i]]++;
+                sortedCols[pos] = cols[i];
+                sortedVals[pos] = vals[i];
+            }
+            return new SparseRatingMatrix(nrows, ncols, offsets, sortedCols, sortedVals);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package edu.umn.cs.recsys.svd;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * The leading singular triplets of a matrix, as computed by an {@link SVDEngine}.  The matrix is
+ * approximated by {@code U * S * V.transpose()}.
+ */
+public class TruncatedSVD {
+    private final RealMatrix leftVectors;
+    private final double[] singularValues;
+    private final RealMatrix rightVectors;
+
+    /**
+     * Construct a truncated decomposition.
+     *
+     * @param u     The left singular vectors (rows x rank).
+     * @param sigma The singular values, in non-increasing order.
+     * @param v     The right singular vectors (columns x rank).
+     */
+    public TruncatedSVD(RealMatrix u, double[] sigma, RealMatrix v) {
+        Preconditions.checkArgument(u.getColumnDimension() == sigma.length,
+                "left singular vectors have incorrect column dimension");
+        Preconditions.checkArgument(v.getColumnDimension() == sigma.length,
+                "right singular vectors have incorrect column dimension");
+        leftVectors = u;
+        singularValues = sigma;
+        rightVectors = v;
+    }
+
+    /**
+     * Get the number of singular values retained.
+     *
+     * @return The rank of the decomposition.
+     */
+    public int getRank() {
+        return singularValues.length;
+    }
+
+    /**
+     * Get the left singular vectors.
+     *
+     * @return The left singular vector matrix (rows x rank).
+     */
+    public RealMatrix getU() {
+        return leftVectors;
+    }
+
+    /**
+     * Get the singular values as a diagonal matrix.
+     *
+     * @return The singular value matrix (rank x rank).
+     */
+    public RealMatrix getS() {
+        return MatrixUtils.createRealDiagonalMatrix(singularValues);
+    }
+
+    /**
+     * Get the right singular vectors.
+     *
+     * @return The right singular vector matrix (columns x rank).
+     */
+    public RealMatrix getV() {
+        return rightVectors;
+    }
+}
@@ -0,0 +1,102 @@
+import edu.umn.cs.recsys.uu.CandidateStrategy
+import edu.umn.cs.recsys.uu.CoRatingCandidateStrategy
+import edu.umn.cs.recsys.uu.LSHBitCount
+import edu.umn.cs.recsys.uu.LSHCandidateStrategy
+import edu.umn.cs.recsys.uu.LSHTableCount
+import edu.umn.cs.recsys.uu.MaxCandidates
+import edu.umn.cs.recsys.uu.MinCoRatings
+import edu.umn.cs.recsys.uu.ModelSize
+import edu.umn.cs.recsys.uu.NeighborListCandidateStrategy
+import edu.umn.cs.recsys.uu.SampledCandidateStrategy
+import edu.umn.cs.recsys.uu.SimpleUserUserItemScorer
+import org.grouplens.lenskit.ItemScorer
+import org.grouplens.lenskit.baseline.ItemMeanRatingItemScorer
+import org.grouplens.lenskit.baseline.UserMeanBaseline
+import org.grouplens.lenskit.baseline.UserMeanItemScorer
+import org.grouplens.lenskit.eval.data.crossfold.RandomOrder
+import org.grouplens.lenskit.eval.metrics.predict.CoveragePredictMetric
+import org.grouplens.lenskit.eval.metrics.predict.RMSEPredictMetric
+
+// Compare the accuracy and latency of the user-user candidate strategies.
+// The results file has the RMSE and coverage of each algorithm along with its
+// BuildTime and TestTime, so accuracy can be plotted against scoring time.
+
+fullData = crossfold("FullData") {
+    source csvfile("MOOCRatings") {
+        file "${project.config.dataDir}/ratings.csv"
+        delimiter ","
+        domain {
+            minimum 0.5
+            maximum 5.0
+            precision 0.5
+        }
+    }
+    test "target/crossfold-5/test.%d.csv"
+    train "target/crossfold-5/train.%d.csv"
+
+    // hold out 5 random items from each user
+    order RandomOrder
+    holdout 5
+
+    // split users into 5 sets
+    partitions 5
+}
+
+trainTest {
+    dataset fullData
+
+    output "${project.config.analysisDir}/eval-results.csv"
+    userOutput "${project.config.analysisDir}/eval-user.csv"
+
+    metric CoveragePredictMetric
+    metric RMSEPredictMetric
+
+    algorithm("PersMean") {
+        bind ItemScorer to UserMeanItemScorer
+        bind(UserMeanBaseline, ItemScorer) to ItemMeanRatingItemScorer
+    }
+
+    algorithm("AllRaters") {
+        attributes["Candidates"] = "all"
+        bind ItemScorer to SimpleUserUserItemScorer
+    }
+
+    for (max in [50, 100, 200, 500, 1000]) {
+        algorithm("Sampled") {
+            attributes["Candidates"] = max
+            bind ItemScorer to SimpleUserUserItemScorer
+            bind CandidateStrategy to SampledCandidateStrategy
+            set MaxCandidates to max
+        }
+    }
+
+    for (size in [50, 100, 200, 500]) {
+        algorithm("NeighborList") {
+            attributes["Candidates"] = size
+            bind ItemScorer to SimpleUserUserItemScorer
+            bind CandidateStrategy to NeighborListCandidateStrategy
+            set ModelSize to size
+        }
+    }
+
+    for (min in [2, 3, 5, 10, 20]) {
+        algorithm("CoRating") {
+            attributes["Candidates"] = min
+            bind ItemScorer to SimpleUserUserItemScorer
+            bind CandidateStrategy to CoRatingCandidateStrategy
+            set MinCoRatings to min
+        }
+    }
+
+    for (tables in [4, 8, 16]) {
+        for (bits in [6, 8, 10]) {
+            algorithm("LSH") {
+                attributes["Candidates"] = "${tables}x${bits}"
+                bind ItemScorer to SimpleUserUserItemScorer
+                bind CandidateStrategy to LSHCandidateStrategy
+                set LSHTableCount to tables
+                set LSHBitCount to bits
+            }
+        }
+    }
+}
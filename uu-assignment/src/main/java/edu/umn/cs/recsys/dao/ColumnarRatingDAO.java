@@ -0,0 +1,328 @@
+package edu.umn.cs.recsys.dao;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.lenskit.collections.LongUtils;
+import org.grouplens.lenskit.cursors.AbstractPollingCursor;
+import org.grouplens.lenskit.cursors.Cursor;
+import org.grouplens.lenskit.cursors.Cursors;
+import org.grouplens.lenskit.data.dao.DataAccessException;
+import org.grouplens.lenskit.data.dao.EventDAO;
+import org.grouplens.lenskit.data.dao.ItemEventDAO;
+import org.grouplens.lenskit.data.dao.SortOrder;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.data.event.Event;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.history.AbstractUserHistory;
+import org.grouplens.lenskit.data.history.History;
+import org.grouplens.lenskit.data.history.UserHistory;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Rating DAO backed by a memory-mapped {@linkplain ColumnarRatingStore columnar rating file}.
+ * Unlike {@link MOOCRatingDAO}, it loads no ratings into the heap: events are made from the
+ * mapped columns as they are read, and user histories and item rating lists are views of the
+ * stored ratings rather than copies.  Convert the rating CSV file with {@link ColumnarRatingConverter}, then bind
+ * this class as the event, user event and item event DAO.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ * @see ColumnarRatingStore
+ */
+public class ColumnarRatingDAO implements EventDAO, UserEventDAO, ItemEventDAO {
+    private final File storeFile;
+    private transient volatile ColumnarRatingStore store;
+
+    @Inject
+    public ColumnarRatingDAO(@ColumnarRatingFile File file) {
+        storeFile = file;
+    }
+
+    /**
+     * Map the rating file if we haven't done so already.
+     */
+    private ColumnarRatingStore getStore() {
+        ColumnarRatingStore s = store;
+        if (s == null) {
+            synchronized (this) {
+                s = store;
+                if (s == null) {
+                    try {
+                        s = ColumnarRatingStore.open(storeFile);
+                    } catch (IOException e) {
+                        throw new DataAccessException("cannot open rating file " + storeFile, e);
+                    }
+                    store = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    @Override
+    public Cursor<Event> streamEvents() {
+        return new RatingCursor(getStore(), null, false);
+    }
+
+    @Override
+    public <E extends Event> Cursor<E> streamEvents(Class<E> type) {
+        return streamEvents(type, SortOrder.ANY);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E extends Event> Cursor<E> streamEvents(Class<E> type, SortOrder order) {
+        if (!type.isAssignableFrom(Rating.class)) {
+            return Cursors.empty();
+        }
+        final ColumnarRatingStore s = getStore();
+        Cursor<Event> cursor;
+        switch (order) {
+        case ANY:
+        case USER:
+            // the ratings are stored in user order
+            cursor = new RatingCursor(s, null, false);
+            break;
+        case ITEM:
+            cursor = new RatingCursor(s, null, true);
+            break;
+        case TIMESTAMP:
+            if (!s.hasTimestamps()) {
+                cursor = new RatingCursor(s, null, false);
+                break;
+            }
+            // sort the rating positions by time; only the positions are held in memory
+            int[] positions = new int[s.getRatingCount()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = i;
+            }
+            IntArrays.quickSort(positions, new IntComparator() {
+                @Override
+                public int compare(int a, int b) {
+                    long ta = s.getTimestamp(a);
+                    long tb = s.getTimestamp(b);
+                    return ta < tb ? -1 : (ta > tb ? 1 : (a < b ? -1 : (a > b ? 1 : 0)));
+                }
+
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return compare(a.intValue(), b.intValue());
+                }
+            });
+            cursor = new RatingCursor(s, positions, false);
+            break;
+        default:
+            throw new IllegalArgumentException("unknown sort order " + order);
+        }
+        return (Cursor<E>) (Cursor) cursor;
+    }
+
+    @Override
+    public Cursor<UserHistory<Event>> streamEventsByUser() {
+        return new UserCursor(getStore());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E extends Event> Cursor<UserHistory<E>> streamEventsByUser(Class<E> type) {
+        if (!type.isAssignableFrom(Rating.class)) {
+            return Cursors.empty();
+        }
+        return (Cursor<UserHistory<E>>) (Cursor) new UserCursor(getStore());
+    }
+
+    @Override
+    public UserHistory<Event> getEventsForUser(long user) {
+        ColumnarRatingStore s = getStore();
+        int idx = s.getUserIndex(user);
+        if (idx < 0) {
+            return null;
+        }
+        return new UserRatingHistory(s, idx);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E extends Event> UserHistory<E> getEventsForUser(long user, Class<E> type) {
+        UserHistory<Event> history = getEventsForUser(user);
+        if (history == null || type.isAssignableFrom(Rating.class)) {
+            return (UserHistory<E>) (UserHistory) history;
+        } else {
+            return History.forUser(user);
+        }
+    }
+
+    @Override
+    public List<Event> getEventsForItem(long item) {
+        ColumnarRatingStore s = getStore();
+        int idx = s.getItemIndex(item);
+        if (idx < 0) {
+            return null;
+        }
+        return new ItemRatingList(s, idx);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E extends Event> List<E> getEventsForItem(long item, Class<E> type) {
+        List<Event> events = getEventsForItem(item);
+        if (events == null || type.isAssignableFrom(Rating.class)) {
+            return (List<E>) (List) events;
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public LongSet getUsersForItem(long item) {
+        ColumnarRatingStore s = getStore();
+        int idx = s.getItemIndex(item);
+        if (idx < 0) {
+            return null;
+        }
+        int start = s.getItemStart(idx);
+        long[] users = new long[s.getItemEnd(idx) - start];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = s.getUser(s.getItemRating(start + i));
+        }
+        return LongUtils.packedSet(users);
+    }
+
+    /**
+     * The ratings of a user, read from the store as they are accessed.
+     */
+    private static class UserRatingHistory extends AbstractUserHistory<Event> implements RandomAccess {
+        private final ColumnarRatingStore store;
+        private final long user;
+        private final int start;
+        private final int end;
+
+        UserRatingHistory(ColumnarRatingStore s, int idx) {
+            store = s;
+            user = s.getUserId(idx);
+            start = s.getUserStart(idx);
+            end = s.getUserEnd(idx);
+        }
+
+        @Override
+        public long getUserId() {
+            return user;
+        }
+
+        @Override
+        public Event get(int i) {
+            if (i < 0 || i >= end - start) {
+                throw new IndexOutOfBoundsException("index " + i + " out of bounds");
+            }
+            return store.getRating(start + i);
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T extends Event> UserHistory<T> filter(Class<T> type) {
+            // every event is a rating, so there is nothing to copy
+            if (type.isAssignableFrom(Rating.class)) {
+                return (UserHistory<T>) (UserHistory) this;
+            } else {
+                return History.forUser(user);
+            }
+        }
+    }
+
+    /**
+     * The ratings of an item, read from the store as they are accessed.
+     */
+    private static class ItemRatingList extends AbstractList<Event> implements RandomAccess {
+        private final ColumnarRatingStore store;
+        private final int start;
+        private final int end;
+
+        ItemRatingList(ColumnarRatingStore s, int idx) {
+            store = s;
+            start = s.getItemStart(idx);
+            end = s.getItemEnd(idx);
+        }
+
+        @Override
+        public Event get(int i) {
+            if (i < 0 || i >= end - start) {
+                throw new IndexOutOfBoundsException("index " + i + " out of bounds");
+            }
+            return store.getRating(store.getItemRating(start + i));
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+    }
+
+    /**
+     * Cursor over the stored ratings, in storage order, in item order, or in an explicit order.
+     */
+    private static class RatingCursor extends AbstractPollingCursor<Event> {
+        private final ColumnarRatingStore store;
+        private final int[] positions;
+        private final boolean byItem;
+        private final int count;
+        private int next;
+
+        RatingCursor(ColumnarRatingStore s, int[] pos, boolean items) {
+            super(s.getRatingCount());
+            store = s;
+            positions = pos;
+            byItem = items;
+            count = s.getRatingCount();
+        }
+
+        @Override
+        protected Event poll() {
+            if (next >= count) {
+                return null;
+            }
+            int pos;
+            if (positions != null) {
+                pos = positions[next];
+            } else if (byItem) {
+                pos = store.getItemRating(next);
+            } else {
+                pos = next;
+            }
+            next += 1;
+            return store.getRating(pos);
+        }
+    }
+
+    /**
+     * Cursor over the users' histories, in order of user ID.
+     */
+    private static class UserCursor extends AbstractPollingCursor<UserHistory<Event>> {
+        private final ColumnarRatingStore store;
+        private int next;
+
+        UserCursor(ColumnarRatingStore s) {
+            super(s.getUserCount());
+            store = s;
+        }
+
+        @Override
+        protected UserHistory<Event> poll() {
+            if (next >= store.getUserCount()) {
+                return null;
+            }
+            return new UserRatingHistory(store, next++);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package edu.umn.cs.recsys.uu;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import javax.inject.Inject;
+
+/**
+ * Candidate strategy that considers every rater of an item.  This is exact, but for popular
+ * items it means computing a similarity with a large fraction of the user base.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class AllRatersCandidateStrategy implements CandidateStrategy {
+    private final UserUserModel model;
+
+    @Inject
+    public AllRatersCandidateStrategy(UserUserModel m) {
+        model = m;
+    }
+
+    @Override
+    public Selector forUser(final int user, UserUserModel.UnitVector profile) {
+        return new Selector() {
+            @Override
+            public void select(int itemIdx, IntArrayList candidates) {
+                candidates.clear();
+                for (int q = model.getRaterStart(itemIdx); q < model.getRaterEnd(itemIdx); q++) {
+                    if (model.getRater(q) != user) {
+                        candidates.add(q);
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,41 @@
+package edu.umn.cs.recsys.uu;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.grouplens.grapht.annotation.DefaultImplementation;
+
+/**
+ * Strategy for choosing which of an item's raters the {@link SimpleUserUserItemScorer} considers
+ * as neighbors.  Similarities are only computed for the candidates, so a strategy that prunes
+ * the raters of popular items trades some accuracy for lower scoring latency.  Bind this
+ * interface to select the strategy.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@DefaultImplementation(AllRatersCandidateStrategy.class)
+public interface CandidateStrategy {
+    /**
+     * Start selecting candidates for a scoring request.
+     *
+     * @param user    The active user's model index, or a negative value if they are not in the
+     *                model.
+     * @param profile The active user's current unit vector.
+     * @return A selector for the candidates of each item scored in the request.
+     */
+    Selector forUser(int user, UserUserModel.UnitVector profile);
+
+    /**
+     * Selects the candidate neighbors of one user, item by item.  A selector is only used by the
+     * request that created it.
+     */
+    interface Selector {
+        /**
+         * Select the candidate neighbors for an item.
+         *
+         * @param itemIdx    The model index of the item.
+         * @param candidates The list to receive the rater positions of the candidates, in
+         *                   increasing order; it is cleared first.  The active user is never
+         *                   a candidate.
+         */
+        void select(int itemIdx, IntArrayList candidates);
+    }
+}
@@ -0,0 +1,51 @@
+package edu.umn.cs.recsys.uu;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import javax.inject.Inject;
+
+/**
+ * Candidate strategy that only considers raters who have rated at least {@link MinCoRatings}
+ * items in common with the active user.  Similarities based on a handful of shared items are
+ * noisy, and most raters of a popular item share few items with any one user, so this both
+ * removes unreliable neighbors and prunes the similarity computations.
+ * <p>
+ * The co-rating counts are computed once per request from the raters of the user's items.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class CoRatingCandidateStrategy implements CandidateStrategy {
+    private final UserUserModel model;
+    private final int minCoRatings;
+
+    @Inject
+    public CoRatingCandidateStrategy(UserUserModel m, @MinCoRatings int min) {
+        model = m;
+        minCoRatings = min;
+    }
+
+    @Override
+    public Selector forUser(final int user, UserUserModel.UnitVector profile) {
+        final int[] counts = new int[model.getUserCount()];
+        for (long item : profile.getItems()) {
+            int itemIdx = model.getItemIndex(item);
+            if (itemIdx >= 0) {
+                for (int q = model.getRaterStart(itemIdx); q < model.getRaterEnd(itemIdx); q++) {
+                    counts[model.getRater(q)] += 1;
+                }
+            }
+        }
+        return new Selector() {
+            @Override
+            public void select(int itemIdx, IntArrayList candidates) {
+                candidates.clear();
+                for (int q = model.getRaterStart(itemIdx); q < model.getRaterEnd(itemIdx); q++) {
+                    int v = model.getRater(q);
+                    if (v != user && counts[v] >= minCoRatings) {
+                        candidates.add(q);
+                    }
+                }
+            }
+        };
+    }
+}
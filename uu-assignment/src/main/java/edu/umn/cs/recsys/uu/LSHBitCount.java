@@ -0,0 +1,21 @@
+package edu.umn.cs.recsys.uu;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the number of bits in each {@link LSHIndex} signature, at most 31.
+ * More bits make smaller buckets, so fewer candidates and a lower chance that a true neighbor
+ * collides with the user.
+ */
+@Documented
+@Qualifier
+@DefaultInteger(8)
+@Parameter(Integer.class)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface LSHBitCount {
+}
@@ -0,0 +1,64 @@
+package edu.umn.cs.recsys.uu;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import javax.inject.Inject;
+
+/**
+ * Candidate strategy that only considers the raters who share an {@link LSHIndex} bucket with
+ * the active user.  The index is queried once per request, so the cost of scoring an item no
+ * longer grows with the number of users in the system, but true neighbors that do not collide
+ * with the user are missed; tune {@link LSHTableCount} and {@link LSHBitCount} to trade recall
+ * for speed.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class LSHCandidateStrategy implements CandidateStrategy {
+    private final UserUserModel model;
+    private final LSHIndex index;
+
+    @Inject
+    public LSHCandidateStrategy(UserUserModel m, LSHIndex idx) {
+        model = m;
+        index = idx;
+    }
+
+    @Override
+    public Selector forUser(final int user, UserUserModel.UnitVector profile) {
+        final int[] neighbors = index.query(profile);
+        return new Selector() {
+            @Override
+            public void select(int itemIdx, IntArrayList candidates) {
+                candidates.clear();
+                int q = model.getRaterStart(itemIdx);
+                final int end = model.getRaterEnd(itemIdx);
+                if (neighbors.length * 16 < end - q) {
+                    // few neighbors for a popular item, look each one up
+                    for (int v : neighbors) {
+                        int pos = model.findRater(itemIdx, v);
+                        if (pos >= 0 && v != user) {
+                            candidates.add(pos);
+                        }
+                    }
+                } else {
+                    // both lists are in order of user index, merge them
+                    int k = 0;
+                    while (q < end && k < neighbors.length) {
+                        int v = model.getRater(q);
+                        if (v == neighbors[k]) {
+                            if (v != user) {
+                                candidates.add(q);
+                            }
+                            q++;
+                            k++;
+                        } else if (v < neighbors[k]) {
+                            q++;
+                        } else {
+                            k++;
+                        }
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,156 @@
+package edu.umn.cs.recsys.uu;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.grouplens.lenskit.core.Shareable;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Locality-sensitive hash index of the users in a {@link UserUserModel}, for finding approximate
+ * nearest neighbors by cosine similarity.  Each of the index's tables hashes a user's unit vector
+ * to a signature of {@link LSHBitCount} bits, one for each side of a random hyperplane the vector
+ * is on; two users agree on a bit with probability 1 - &theta;/&pi;, where &theta; is the angle
+ * between them, so similar users tend to share buckets.  The users colliding with a query in any
+ * table are its candidate neighbors.
+ * <p>
+ * The hyperplanes have a pseudo-random &plusmn;1 coefficient for every item, derived from a hash
+ * of the table, bit and item ID, so they take no space and any profile can be hashed, whether
+ * or not its items were in the model.  Each table stores the user indexes sorted by signature,
+ * so a query costs a binary search per table plus the size of the buckets it hits.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Shareable
+@DefaultProvider(LSHIndexBuilder.class)
+public class LSHIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int tableCount;
+    private final int bitCount;
+    private final int userCount;
+    /**
+     * The signatures of each table, sorted; table <i>t</i> occupies positions
+     * {@code t * userCount} to {@code (t + 1) * userCount}.
+     */
+    private final int[] keys;
+    /**
+     * The user index of each signature.
+     */
+    private final int[] users;
+
+    LSHIndex(int tables, int bits, int nusers, int[] keys, int[] users) {
+        tableCount = tables;
+        bitCount = bits;
+        userCount = nusers;
+        this.keys = keys;
+        this.users = users;
+    }
+
+    public int getTableCount() {
+        return tableCount;
+    }
+
+    public int getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * Find the candidate neighbors of a user.
+     *
+     * @param profile The user's unit vector.
+     * @return The indexes of the users sharing a bucket with the user in at least one table, in
+     *         increasing order.  If the user is in the model, their own index is included.
+     */
+    public int[] query(UserUserModel.UnitVector profile) {
+        int[] signature = new int[tableCount];
+        computeSignature(tableCount, bitCount, profile.getItems(), profile.getValues(),
+                         0, profile.getItems().length, signature);
+        IntArrayList found = new IntArrayList();
+        for (int t = 0; t < tableCount; t++) {
+            int end = (t + 1) * userCount;
+            for (int p = lowerBound(t * userCount, end, signature[t]);
+                 p < end && keys[p] == signature[t]; p++) {
+                found.add(users[p]);
+            }
+        }
+
+        // remove the users found in more than one table
+        int[] result = found.toIntArray();
+        Arrays.sort(result);
+        int n = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (n == 0 || result[n - 1] != result[i]) {
+                result[n++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private int lowerBound(int start, int end, int key) {
+        int lo = start;
+        int hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Compute the signature of a vector in each table.
+     *
+     * @param tables The number of tables.
+     * @param bits   The number of bits per signature.
+     * @param items  The vector's item IDs.
+     * @param values The vector's values.
+     * @param start  The position of the vector's first entry.
+     * @param end    The position after the vector's last entry.
+     * @param out    The array to receive the signature of each table.
+     */
+    static void computeSignature(int tables, int bits, long[] items, double[] values,
+                                 int start, int end, int[] out) {
+        double[] projections = new double[tables * bits];
+        for (int p = start; p < end; p++) {
+            long item = items[p];
+            double value = values[p];
+            for (int h = 0; h < projections.length; h++) {
+                if (coefficientIsNegative(h, item)) {
+                    projections[h] -= value;
+                } else {
+                    projections[h] += value;
+                }
+            }
+        }
+        for (int t = 0; t < tables; t++) {
+            int key = 0;
+            for (int b = 0; b < bits; b++) {
+                key <<= 1;
+                if (projections[t * bits + b] > 0) {
+                    key |= 1;
+                }
+            }
+            out[t] = key;
+        }
+    }
+
+    /**
+     * Get the sign of an item's coefficient in a hyperplane.
+     *
+     * @param plane The hyperplane number (table times bits plus bit).
+     * @param item  The item ID.
+     * @return {@code true} if the coefficient is -1, {@code false} if it is +1.
+     */
+    private static boolean coefficientIsNegative(int plane, long item) {
+        long h = item * 0x9E3779B97F4A7C15L + (plane + 1) * 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 32;
+        return h < 0;
+    }
+}
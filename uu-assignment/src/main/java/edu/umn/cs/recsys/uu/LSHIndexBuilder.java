@@ -0,0 +1,76 @@
+package edu.umn.cs.recsys.uu;
+
+import org.grouplens.lenskit.core.Transient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.Arrays;
+
+/**
+ * Build an LSH index of the users in a user-user model.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class LSHIndexBuilder implements Provider<LSHIndex> {
+    private static final Logger logger = LoggerFactory.getLogger(LSHIndexBuilder.class);
+
+    private final UserUserModel model;
+    private final int tableCount;
+    private final int bitCount;
+
+    @Inject
+    public LSHIndexBuilder(@Transient UserUserModel m,
+                           @LSHTableCount int tables,
+                           @LSHBitCount int bits) {
+        if (tables < 1) {
+            throw new IllegalArgumentException("LSH index needs at least one table");
+        }
+        if (bits < 1 || bits > 31) {
+            throw new IllegalArgumentException("LSH signatures must have 1 to 31 bits");
+        }
+        model = m;
+        tableCount = tables;
+        bitCount = bits;
+    }
+
+    @Override
+    public LSHIndex get() {
+        final int nusers = model.getUserCount();
+        // sort each table's entries by signature, packing the user into the low word
+        long[][] entries = new long[tableCount][nusers];
+        int[] signature = new int[tableCount];
+        long[] items = new long[0];
+        double[] values = new double[0];
+        for (int u = 0; u < nusers; u++) {
+            int start = model.getRatingStart(u);
+            int n = model.getRatingEnd(u) - start;
+            if (items.length < n) {
+                items = new long[n];
+                values = new double[n];
+            }
+            for (int k = 0; k < n; k++) {
+                items[k] = model.getRatingItem(start + k);
+                values[k] = model.getRatingValue(start + k);
+            }
+            LSHIndex.computeSignature(tableCount, bitCount, items, values, 0, n, signature);
+            for (int t = 0; t < tableCount; t++) {
+                entries[t][u] = ((long) signature[t] << 32) | u;
+            }
+        }
+
+        int[] keys = new int[tableCount * nusers];
+        int[] users = new int[tableCount * nusers];
+        for (int t = 0; t < tableCount; t++) {
+            Arrays.sort(entries[t]);
+            for (int u = 0; u < nusers; u++) {
+                keys[t * nusers + u] = (int) (entries[t][u] >>> 32);
+                users[t * nusers + u] = (int) entries[t][u];
+            }
+        }
+        logger.info("built LSH index of {} users with {} tables of {} bits",
+                    nusers, tableCount, bitCount);
+        return new LSHIndex(tableCount, bitCount, nusers, keys, users);
+    }
+}
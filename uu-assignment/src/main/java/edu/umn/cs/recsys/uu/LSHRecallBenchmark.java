@@ -0,0 +1,107 @@
+package edu.umn.cs.recsys.uu;
+
+import edu.umn.cs.recsys.dao.MOOCRatingDAO;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.data.event.Rating;
+import org.grouplens.lenskit.data.history.RatingVectorUserHistorySummarizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Benchmark the recall of the {@link LSHIndex} against exact neighbor search.  The arguments are
+ * the {@code tables:bits} configurations to try; by default, it tries a range of them.  For a
+ * sample of users, it finds the 30 most similar users (the default {@link NeighborhoodSize}) by
+ * comparing with every user, and again by comparing only with the users the index returns, and reports the
+ * fraction of the exact neighbors the index found with the mean number of candidates and the
+ * mean time per user of each search.
+ */
+public class LSHRecallBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger("uu-assignment");
+    private static final int NEIGHBORS = 30;
+    private static final int SAMPLE_SIZE = 500;
+
+    public static void main(String[] args) {
+        List<int[]> configs = new ArrayList<int[]>();
+        for (String arg : args) {
+            String[] parts = arg.split(":");
+            configs.add(new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])});
+        }
+        if (configs.isEmpty()) {
+            for (int tables : new int[]{4, 8, 16, 32}) {
+                for (int bits : new int[]{4, 6, 8, 10}) {
+                    configs.add(new int[]{tables, bits});
+                }
+            }
+        }
+
+        UserEventDAO users = new MOOCRatingDAO(new File("data/ratings.csv"));
+        UserUserModel model = new UserUserModelBuilder(users, 0).get();
+        final int nusers = model.getUserCount();
+        int step = Math.max(1, nusers / SAMPLE_SIZE);
+        List<Integer> sample = new ArrayList<Integer>();
+        List<UserUserModel.UnitVector> profiles = new ArrayList<UserUserModel.UnitVector>();
+        for (int u = 0; u < nusers; u += step) {
+            sample.add(u);
+            profiles.add(UserUserModel.makeUnitVector(RatingVectorUserHistorySummarizer.makeRatingVector(
+                    users.getEventsForUser(model.getUserId(u), Rating.class))));
+        }
+
+        logger.info("finding exact neighbors of {} users", sample.size());
+        NeighborSelector selector = new NeighborSelector(NEIGHBORS, -1);
+        List<LongOpenHashSet> exact = new ArrayList<LongOpenHashSet>();
+        long start = System.nanoTime();
+        for (int s = 0; s < sample.size(); s++) {
+            int u = sample.get(s);
+            selector.clear();
+            for (int v = 0; v < nusers; v++) {
+                if (v != u) {
+                    selector.offer(v, model.similarity(v, profiles.get(s)));
+                }
+            }
+            LongOpenHashSet ids = new LongOpenHashSet();
+            int n = selector.finish();
+            for (int k = 0; k < n; k++) {
+                ids.add(selector.getId(k));
+            }
+            exact.add(ids);
+        }
+        double exactMicros = (System.nanoTime() - start) / 1000.0 / sample.size();
+
+        System.out.println("Tables,Bits,Candidates,Recall,ExactMicros,LSHMicros");
+        for (int[] config : configs) {
+            LSHIndex index = new LSHIndexBuilder(model, config[0], config[1]).get();
+            long candidates = 0;
+            long found = 0;
+            long wanted = 0;
+            start = System.nanoTime();
+            for (int s = 0; s < sample.size(); s++) {
+                int u = sample.get(s);
+                int[] neighbors = index.query(profiles.get(s));
+                candidates += neighbors.length;
+                selector.clear();
+                for (int v : neighbors) {
+                    if (v != u) {
+                        selector.offer(v, model.similarity(v, profiles.get(s)));
+                    }
+                }
+                int n = selector.finish();
+                for (int k = 0; k < n; k++) {
+                    if (exact.get(s).contains(selector.getId(k))) {
+                        found += 1;
+                    }
+                }
+                wanted += exact.get(s).size();
+            }
+            double micros = (System.nanoTime() - start) / 1000.0 / sample.size();
+            System.out.format(Locale.ROOT, "%d,%d,%.1f,%.4f,%.1f,%.1f\n",
+                              config[0], config[1], candidates / (double) sample.size(),
+                              wanted == 0 ? 1.0 : found / (double) wanted, exactMicros, micros);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package edu.umn.cs.recsys.uu;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the number of hash tables the {@link LSHIndex} builds.  More tables
+ * find more of the true neighbors, at the cost of more candidates and a larger index.
+ */
+@Documented
+@Qualifier
+@DefaultInteger(8)
+@Parameter(Integer.class)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface LSHTableCount {
+}
@@ -0,0 +1,20 @@
+package edu.umn.cs.recsys.uu;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the number of raters of an item that the
+ * {@link SampledCandidateStrategy} considers as candidate neighbors.
+ */
+@Documented
+@Qualifier
+@DefaultInteger(500)
+@Parameter(Integer.class)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface MaxCandidates {
+}
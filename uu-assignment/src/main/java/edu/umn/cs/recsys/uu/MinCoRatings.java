@@ -0,0 +1,20 @@
+package edu.umn.cs.recsys.uu;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the number of items a rater must have rated in common with the active
+ * user to be a candidate neighbor under the {@link CoRatingCandidateStrategy}.
+ */
+@Documented
+@Qualifier
+@DefaultInteger(5)
+@Parameter(Integer.class)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface MinCoRatings {
+}
@@ -0,0 +1,20 @@
+package edu.umn.cs.recsys.uu;
+
+import org.grouplens.grapht.annotation.DefaultDouble;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the smallest similarity a user can have and still be used as a
+ * neighbor.  The default admits every cosine similarity.
+ */
+@Documented
+@Qualifier
+@DefaultDouble(-1)
+@Parameter(Double.class)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface MinSimilarity {
+}
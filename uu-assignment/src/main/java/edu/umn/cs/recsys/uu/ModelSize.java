@@ -0,0 +1,21 @@
+package edu.umn.cs.recsys.uu;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the number of neighbors the user-user model precomputes for each user.
+ * The lists are used for scoring by the {@link NeighborListCandidateStrategy}.  If 0, no
+ * neighbor lists are stored.
+ */
+@Documented
+@Qualifier
+@DefaultInteger(0)
+@Parameter(Integer.class)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ModelSize {
+}
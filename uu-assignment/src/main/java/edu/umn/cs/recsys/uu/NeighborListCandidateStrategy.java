@@ -0,0 +1,56 @@
+package edu.umn.cs.recsys.uu;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import javax.inject.Inject;
+import java.util.Arrays;
+
+/**
+ * Candidate strategy that only considers the raters who are in the active user's precomputed
+ * neighbor list (see {@link ModelSize}).  Each item costs a binary search of its raters per
+ * listed neighbor, however popular it is; raters outside the list are never candidates, so items
+ * none of the user's listed neighbors rated cannot be scored.
+ * <p>
+ * Users who are not in the model, or models built without neighbor lists, fall back to all
+ * raters.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class NeighborListCandidateStrategy implements CandidateStrategy {
+    private final UserUserModel model;
+    private final AllRatersCandidateStrategy fallback;
+
+    @Inject
+    public NeighborListCandidateStrategy(UserUserModel m) {
+        model = m;
+        fallback = new AllRatersCandidateStrategy(m);
+    }
+
+    @Override
+    public Selector forUser(int user, UserUserModel.UnitVector profile) {
+        if (user < 0 || !model.hasNeighborLists()) {
+            return fallback.forUser(user, profile);
+        }
+
+        int start = model.getNeighborStart(user);
+        final int[] neighbors = new int[model.getNeighborEnd(user) - start];
+        for (int i = 0; i < neighbors.length; i++) {
+            neighbors[i] = model.getNeighbor(start + i);
+        }
+        // raters are in order of user index, so looking the neighbors up in that order
+        // yields the candidates in increasing order
+        Arrays.sort(neighbors);
+        return new Selector() {
+            @Override
+            public void select(int itemIdx, IntArrayList candidates) {
+                candidates.clear();
+                for (int v : neighbors) {
+                    int q = model.findRater(itemIdx, v);
+                    if (q >= 0) {
+                        candidates.add(q);
+                    }
+                }
+            }
+        };
+    }
+}
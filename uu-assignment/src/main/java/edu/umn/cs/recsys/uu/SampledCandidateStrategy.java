@@ -0,0 +1,68 @@
+package edu.umn.cs.recsys.uu;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import javax.inject.Inject;
+
+/**
+ * Candidate strategy that caps the number of candidates per item at {@link MaxCandidates}.
+ * Items with more raters than that are represented by an evenly spaced sample of their raters,
+ * starting from an offset derived from the item; the sample of an item is therefore the same for
+ * every request, so a user's predictions do not change from one request to the next.
+ * <p>
+ * Raters are stored in order of user ID, which is unrelated to their ratings, so the sample is
+ * an unbiased subset of the raters; taking it costs time proportional to the cap rather than to
+ * the item's popularity.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class SampledCandidateStrategy implements CandidateStrategy {
+    private final UserUserModel model;
+    private final int maxCandidates;
+
+    @Inject
+    public SampledCandidateStrategy(UserUserModel m, @MaxCandidates int max) {
+        model = m;
+        maxCandidates = max;
+    }
+
+    @Override
+    public Selector forUser(final int user, UserUserModel.UnitVector profile) {
+        return new Selector() {
+            @Override
+            public void select(int itemIdx, IntArrayList candidates) {
+                candidates.clear();
+                final int start = model.getRaterStart(itemIdx);
+                final int n = model.getRaterEnd(itemIdx) - start;
+                if (n <= maxCandidates) {
+                    for (int q = start; q < start + n; q++) {
+                        if (model.getRater(q) != user) {
+                            candidates.add(q);
+                        }
+                    }
+                } else {
+                    double step = n / (double) maxCandidates;
+                    double offset = sampleOffset(itemIdx) * step;
+                    for (int k = 0; k < maxCandidates; k++) {
+                        int q = start + (int) (offset + k * step);
+                        if (model.getRater(q) != user) {
+                            candidates.add(q);
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Compute the fixed pseudo-random offset of an item's sample.
+     *
+     * @param itemIdx The item index.
+     * @return A value in [0,1) that depends only on the item.
+     */
+    private static double sampleOffset(int itemIdx) {
+        long h = (itemIdx + 1) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 31;
+        return (h >>> 11) * 0x1.0p-53;
+    }
+}
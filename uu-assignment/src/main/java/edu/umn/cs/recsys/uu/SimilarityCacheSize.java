@@ -0,0 +1,20 @@
+package edu.umn.cs.recsys.uu;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.grouplens.lenskit.core.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the number of user-user similarities kept between requests by the
+ * {@link UserSimilarityCache}.  If 0, similarities are only reused within a single request.
+ */
+@Documented
+@Qualifier
+@DefaultInteger(0)
+@Parameter(Integer.class)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface SimilarityCacheSize {
+}
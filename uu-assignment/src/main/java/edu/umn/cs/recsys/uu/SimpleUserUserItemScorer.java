@@ -1,8 +1,8 @@
 package edu.umn.cs.recsys.uu;
 
-import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import org.grouplens.lenskit.basic.AbstractItemScorer;
-import org.grouplens.lenskit.data.dao.ItemEventDAO;
 import org.grouplens.lenskit.data.dao.UserEventDAO;
 import org.grouplens.lenskit.data.event.Rating;
 import org.grouplens.lenskit.data.history.History;
@@ -11,13 +11,9 @@ import org.grouplens.lenskit.data.history.UserHistory;
 import org.grouplens.lenskit.vectors.MutableSparseVector;
 import org.grouplens.lenskit.vectors.SparseVector;
 import org.grouplens.lenskit.vectors.VectorEntry;
-import org.grouplens.lenskit.vectors.similarity.CosineVectorSimilarity;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
-import java.util.Collections;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 
 
@@ -45,84 +41,84 @@ Hints notes
 * */
 
 /**
- * User-user item scorer.
+ * User-user item scorer.  Each item's score is the user's mean rating plus the
+ * similarity-weighted average of the mean-centered ratings given to it by the user's
+ * {@link NeighborhoodSize} most similar neighbors with at least the {@link MinSimilarity}.
+ * <p>
+ * The users' normalized rating vectors and the raters of each item come from the
+ * {@link UserUserModel}, so scoring does no DAO lookups beyond the active user's own profile.
+ * The neighbors are chosen from the candidates the {@link CandidateStrategy} selects among each
+ * item's raters.  Each similarity is computed at most once per request, and may be reused across
+ * requests through the {@link UserSimilarityCache}.
  *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class SimpleUserUserItemScorer extends AbstractItemScorer {
     private final UserEventDAO userDao;
-    private final ItemEventDAO itemDao;
+    private final UserUserModel model;
+    private final UserSimilarityCache similarityCache;
+    private final CandidateStrategy candidateStrategy;
+    private final int neighborhoodSize;
+    private final double minSimilarity;
 
     @Inject
-    public SimpleUserUserItemScorer(UserEventDAO udao, ItemEventDAO idao) {
+    public SimpleUserUserItemScorer(UserEventDAO udao, UserUserModel m, UserSimilarityCache cache,
+                                    CandidateStrategy candidates,
+                                    @NeighborhoodSize int nnbrs,
+                                    @MinSimilarity double minSim) {
         userDao = udao;
-        itemDao = idao;
+        model = m;
+        similarityCache = cache;
+        candidateStrategy = candidates;
+        neighborhoodSize = nnbrs;
+        minSimilarity = minSim;
     }
 
-
     @Override
     public void score(long user, @Nonnull MutableSparseVector scores) {
-        SparseVector myUserVector = getUserRatingVector(user);
-
-        double myMeanRantings = myUserVector.mean();
-
-
-        myUserVector = getMeanCenteredVector(myUserVector.mutableCopy());
-
-        // TODO Score items for this user using user-user collaborative filtering
-
-        // This is the loop structure to iterate over items to score
-        for (VectorEntry myItemsToBeRated : scores.fast(VectorEntry.State.EITHER)) {
-
-            //get a set of users who already rated this item
-            LongSet neighboursForThisItem = itemDao.getUsersForItem(myItemsToBeRated.getKey());
-
-//            Tree map to keep them sorted to get the top 30 neighbours quickly
-            SortedMap<Double, Double> top30NeighSimi = new TreeMap<Double, Double>(Collections.reverseOrder());
-
-
-//            iterate over the above users set
-            for (Long eachNeighbour : neighboursForThisItem) {
-
-//              get the user history as sparce vector
-                SparseVector neighbourHistory = getUserRatingVector(eachNeighbour);
-
-                neighbourHistory = getMeanCenteredVector(neighbourHistory.mutableCopy());
-
-                double neighbourMeanCenteredRating = neighbourHistory.get(myItemsToBeRated.getKey());
-
-                double cosineSimilarityBwMeAndNeighbour = new CosineVectorSimilarity().similarity(myUserVector, neighbourHistory);
-
-                top30NeighSimi.put(cosineSimilarityBwMeAndNeighbour, neighbourMeanCenteredRating);
-
+        UserUserModel.UnitVector me = UserUserModel.makeUnitVector(getUserRatingVector(user));
+        int self = model.getUserIndex(user);
+        CandidateStrategy.Selector selector = candidateStrategy.forUser(self, me);
+        IntArrayList candidates = new IntArrayList();
+        // similarities to the user, by neighbor index, computed so far in this request
+        Int2DoubleOpenHashMap similarities = new Int2DoubleOpenHashMap();
+        similarities.defaultReturnValue(Double.NaN);
+        NeighborSelector neighbors = new NeighborSelector(neighborhoodSize, minSimilarity);
+
+        for (VectorEntry e : scores.fast(VectorEntry.State.EITHER)) {
+            int itemIdx = model.getItemIndex(e.getKey());
+            if (itemIdx < 0) {
+                scores.unset(e);
+                continue;
             }
-
-            // removing  self correlation from the vector
-
-            top30NeighSimi.remove((Double) 1.0);
-
-            double sumOfCosineSim_ratings = 0; // numerator
-
-            double vectorCosineSimTop30 = 0;  // denominator
-
-            int counter = 0;
-
-//            iterate over the top 30 and compute the above two i.e. sumOfCosineSim_ratings and vectorCosineSimTop30
-
-            for (Double entry : top30NeighSimi.keySet()) {
-                if (counter == 30)
-                    break;
-
-                sumOfCosineSim_ratings += (entry * top30NeighSimi.get(entry));
-
-                vectorCosineSimTop30 += Math.abs(entry);
-
-                counter++;
+            selector.select(itemIdx, candidates);
+            neighbors.clear();
+            for (int i = 0; i < candidates.size(); i++) {
+                int q = candidates.getInt(i);
+                int v = model.getRater(q);
+                double sim = similarities.get(v);
+                if (Double.isNaN(sim)) {
+                    sim = similarityCache.similarity(user, me, v);
+                    similarities.put(v, sim);
+                }
+                // ties go to the smaller user ID; the rater position finds the rating
+                neighbors.offer(model.getUserId(v), sim, q);
             }
 
-            double predictionForThisItem = myMeanRantings + (sumOfCosineSim_ratings / vectorCosineSimTop30);
+            double sum = 0;
+            double weight = 0;
+            int n = neighbors.finish();
+            for (int k = 0; k < n; k++) {
+                double sim = neighbors.getSimilarity(k);
+                sum += sim * model.getRaterRating(neighbors.getPosition(k));
+                weight += Math.abs(sim);
+            }
 
-            scores.set(myItemsToBeRated.getKey(), predictionForThisItem);
+            if (weight > 0) {
+                scores.set(e, me.getMean() + sum / weight);
+            } else {
+                scores.unset(e);
+            }
         }
     }
 
@@ -139,16 +135,4 @@ public class SimpleUserUserItemScorer extends AbstractItemScorer {
         }
         return RatingVectorUserHistorySummarizer.makeRatingVector(history);
     }
-
-    //     takes a mutable sparce vector and returns its mean centered sparce vector in immutable form
-    private SparseVector getMeanCenteredVector(MutableSparseVector userVector) {
-
-        double userMean = userVector.mean();
-
-        for (VectorEntry eachItem : userVector.fast()) {
-            userVector.set(eachItem.getKey(), eachItem.getValue() - userMean);
-        }
-
-        return userVector.immutable();
-    }
 }
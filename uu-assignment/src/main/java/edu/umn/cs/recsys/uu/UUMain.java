@@ -9,7 +9,9 @@ import org.grouplens.lenskit.core.LenskitConfiguration;
 import org.grouplens.lenskit.core.LenskitRecommender;
 import org.grouplens.lenskit.data.dao.EventDAO;
 import org.grouplens.lenskit.data.dao.ItemDAO;
+import org.grouplens.lenskit.data.dao.ItemEventDAO;
 import org.grouplens.lenskit.data.dao.UserDAO;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
 import org.grouplens.lenskit.vectors.SparseVector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -146,6 +148,11 @@ public class UUMain {
         // configure the rating data source
         config.bind(EventDAO.class)
                 .to(MOOCRatingDAO.class);
+        // and serve user and item lookups from its indexes
+        config.bind(UserEventDAO.class)
+                .to(MOOCRatingDAO.class);
+        config.bind(ItemEventDAO.class)
+                .to(MOOCRatingDAO.class);
         config.set(RatingFile.class)
                 .to(new File("data/ratings.csv"));
 
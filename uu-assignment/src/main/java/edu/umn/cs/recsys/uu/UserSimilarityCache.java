@@ -0,0 +1,104 @@
+package edu.umn.cs.recsys.uu;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+
+/**
+ * A bounded, least-recently-used cache of user-user similarities, shared across scoring
+ * requests.  Entries are keyed by the pair of user IDs and remember the fingerprints of both
+ * users' profiles; an entry whose fingerprints no longer match the current profiles is ignored
+ * and recomputed, so a user's similarities are invalidated as soon as their ratings change.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@ThreadSafe
+public class UserSimilarityCache {
+    private final UserUserModel model;
+    private final Cache<UserPair, CachedSimilarity> cache;
+
+    @Inject
+    public UserSimilarityCache(UserUserModel m, @SimilarityCacheSize int size) {
+        model = m;
+        if (size > 0) {
+            cache = CacheBuilder.newBuilder()
+                                .maximumSize(size)
+                                .build();
+        } else {
+            cache = null;
+        }
+    }
+
+    /**
+     * Get the similarity between a user and a user in the model.
+     *
+     * @param user     The active user's ID.
+     * @param vector   The active user's current unit vector.
+     * @param neighbor The model index of the other user.
+     * @return The cosine similarity of the two users.
+     */
+    public double similarity(long user, UserUserModel.UnitVector vector, int neighbor) {
+        if (cache == null) {
+            return model.similarity(neighbor, vector);
+        }
+
+        long nbrId = model.getUserId(neighbor);
+        long nbrPrint = model.getFingerprint(neighbor);
+        UserPair key = new UserPair(user, nbrId);
+        // fingerprints are stored in the order of the pair's IDs
+        long print1 = user < nbrId ? vector.getFingerprint() : nbrPrint;
+        long print2 = user < nbrId ? nbrPrint : vector.getFingerprint();
+        CachedSimilarity cached = cache.getIfPresent(key);
+        if (cached != null && cached.fingerprint1 == print1 && cached.fingerprint2 == print2) {
+            return cached.similarity;
+        }
+        double sim = model.similarity(neighbor, vector);
+        cache.put(key, new CachedSimilarity(sim, print1, print2));
+        return sim;
+    }
+
+    /**
+     * An unordered pair of user IDs.
+     */
+    private static final class UserPair {
+        private final long user1;
+        private final long user2;
+
+        UserPair(long u1, long u2) {
+            user1 = Math.min(u1, u2);
+            user2 = Math.max(u1, u2);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            } else if (o instanceof UserPair) {
+                UserPair op = (UserPair) o;
+                return user1 == op.user1 && user2 == op.user2;
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            long h = user1 * 31 + user2;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    private static final class CachedSimilarity {
+        private final double similarity;
+        private final long fingerprint1;
+        private final long fingerprint2;
+
+        CachedSimilarity(double sim, long fp1, long fp2) {
+            similarity = sim;
+            fingerprint1 = fp1;
+            fingerprint2 = fp2;
+        }
+    }
+}
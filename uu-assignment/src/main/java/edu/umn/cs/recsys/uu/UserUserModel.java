@@ -0,0 +1,373 @@
+package edu.umn.cs.recsys.uu;
+
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.grouplens.lenskit.core.Shareable;
+import org.grouplens.lenskit.vectors.SparseVector;
+import org.grouplens.lenskit.vectors.VectorEntry;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A user-user model: each user's mean-centered rating vector, scaled to unit length, together
+ * with an index from items to the users who rated them and, optionally, each user's most similar
+ * neighbors.  The cosine similarity of two users is the dot product of their unit vectors.
+ * <p>
+ * Users and items are identified by their index in sorted ID arrays.  The ratings of user
+ * <i>u</i> occupy positions {@code userOffsets[u]} to {@code userOffsets[u + 1]} of the parallel
+ * item and value arrays, sorted by item ID; the raters of each item, with their mean-centered
+ * ratings, are stored the same way.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+@Shareable
+@DefaultProvider(UserUserModelBuilder.class)
+public class UserUserModel implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long[] users;
+    private final double[] means;
+    private final double[] norms;
+    private final long[] fingerprints;
+    private final int[] userOffsets;
+    private final long[] userItems;
+    private final double[] userValues;
+
+    private final long[] items;
+    private final int[] itemOffsets;
+    private final int[] itemUsers;
+    private final double[] itemRatings;
+
+    private final int[] neighborOffsets;
+    private final int[] neighborUsers;
+    private final float[] neighborScores;
+
+    UserUserModel(long[] users, double[] means, double[] norms, long[] fingerprints,
+                  int[] userOffsets, long[] userItems, double[] userValues,
+                  long[] items, int[] itemOffsets, int[] itemUsers, double[] itemRatings,
+                  int[] nbrOffsets, int[] nbrUsers, float[] nbrScores) {
+        this.users = users;
+        this.means = means;
+        this.norms = norms;
+        this.fingerprints = fingerprints;
+        this.userOffsets = userOffsets;
+        this.userItems = userItems;
+        this.userValues = userValues;
+        this.items = items;
+        this.itemOffsets = itemOffsets;
+        this.itemUsers = itemUsers;
+        this.itemRatings = itemRatings;
+        neighborOffsets = nbrOffsets;
+        neighborUsers = nbrUsers;
+        neighborScores = nbrScores;
+    }
+
+    /**
+     * Get the number of users in the model.
+     *
+     * @return The number of users.
+     */
+    public int getUserCount() {
+        return users.length;
+    }
+
+    /**
+     * Get the index of a user.
+     *
+     * @param user The user ID.
+     * @return The user's index, or a negative value if the user is not in the model.
+     */
+    public int getUserIndex(long user) {
+        return Arrays.binarySearch(users, user);
+    }
+
+    /**
+     * Get the ID of the user at an index.
+     *
+     * @param idx The user index.
+     * @return The user ID.
+     */
+    public long getUserId(int idx) {
+        return users[idx];
+    }
+
+    /**
+     * Get a user's mean rating.
+     *
+     * @param idx The user index.
+     * @return The user's mean rating.
+     */
+    public double getUserMean(int idx) {
+        return means[idx];
+    }
+
+    /**
+     * Get the fingerprint of a user's profile in the model.
+     *
+     * @param idx The user index.
+     * @return The fingerprint of the ratings the user had when the model was built.
+     * @see UnitVector#getFingerprint()
+     */
+    public long getFingerprint(int idx) {
+        return fingerprints[idx];
+    }
+
+    public int getRatingStart(int idx) {
+        return userOffsets[idx];
+    }
+
+    public int getRatingEnd(int idx) {
+        return userOffsets[idx + 1];
+    }
+
+    /**
+     * Get the item of a rating.
+     *
+     * @param pos The rating position.
+     * @return The ID of the item rated at that position in a user's ratings.
+     */
+    public long getRatingItem(int pos) {
+        return userItems[pos];
+    }
+
+    /**
+     * Get the normalized value of a rating.
+     *
+     * @param pos The rating position.
+     * @return The rating at that position in its user's unit vector.
+     */
+    public double getRatingValue(int pos) {
+        return userValues[pos];
+    }
+
+    /**
+     * Get a user's mean-centered rating for an item.
+     *
+     * @param idx  The user index.
+     * @param item The item ID.
+     * @return The user's rating of the item less their mean, or {@link Double#NaN} if they have
+     *         not rated it.
+     */
+    public double getCenteredRating(int idx, long item) {
+        int pos = Arrays.binarySearch(userItems, userOffsets[idx], userOffsets[idx + 1], item);
+        return pos >= 0 ? userValues[pos] * norms[idx] : Double.NaN;
+    }
+
+    /**
+     * Compute the cosine similarity of two users in the model.
+     *
+     * @param u1 The first user's index.
+     * @param u2 The second user's index.
+     * @return The cosine similarity of their mean-centered rating vectors.
+     */
+    public double similarity(int u1, int u2) {
+        return dot(u1, userItems, userValues, userOffsets[u2], userOffsets[u2 + 1]);
+    }
+
+    /**
+     * Compute the cosine similarity of a user in the model with an arbitrary user.
+     *
+     * @param idx        The model user's index.
+     * @param unitVector The other user's mean-centered ratings, scaled to unit length.
+     * @return The cosine similarity of the two users.
+     */
+    public double similarity(int idx, UnitVector unitVector) {
+        return dot(idx, unitVector.items, unitVector.values, 0, unitVector.items.length);
+    }
+
+    private double dot(int idx, long[] oitems, double[] ovalues, int ostart, int oend) {
+        int i = userOffsets[idx];
+        final int iend = userOffsets[idx + 1];
+        int j = ostart;
+        double sum = 0;
+        while (i < iend && j < oend) {
+            long a = userItems[i];
+            long b = oitems[j];
+            if (a == b) {
+                sum += userValues[i] * ovalues[j];
+                i++;
+                j++;
+            } else if (a < b) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Get the index of an item.
+     *
+     * @param item The item ID.
+     * @return The item's index, or a negative value if nobody in the model rated it.
+     */
+    public int getItemIndex(long item) {
+        return Arrays.binarySearch(items, item);
+    }
+
+    public int getRaterStart(int itemIdx) {
+        return itemOffsets[itemIdx];
+    }
+
+    public int getRaterEnd(int itemIdx) {
+        return itemOffsets[itemIdx + 1];
+    }
+
+    /**
+     * Find a user among the raters of an item.
+     *
+     * @param itemIdx The item index.
+     * @param user    The user index.
+     * @return The rater position of the user, or a negative value if they did not rate the item.
+     */
+    public int findRater(int itemIdx, int user) {
+        // raters are stored in order of user index
+        return Arrays.binarySearch(itemUsers, itemOffsets[itemIdx], itemOffsets[itemIdx + 1], user);
+    }
+
+    /**
+     * Get the user index of a rater.
+     *
+     * @param pos The rater position.
+     * @return The index of the user at that position in an item's rater list.
+     */
+    public int getRater(int pos) {
+        return itemUsers[pos];
+    }
+
+    /**
+     * Get the mean-centered rating of a rater.
+     *
+     * @param pos The rater position.
+     * @return The rater's rating of the item, less their mean rating.
+     */
+    public double getRaterRating(int pos) {
+        return itemRatings[pos];
+    }
+
+    /**
+     * Query whether the model has precomputed neighbor lists.
+     *
+     * @return {@code true} if each user's most similar neighbors were computed at build time.
+     */
+    public boolean hasNeighborLists() {
+        return neighborOffsets != null;
+    }
+
+    public int getNeighborStart(int idx) {
+        return neighborOffsets[idx];
+    }
+
+    public int getNeighborEnd(int idx) {
+        return neighborOffsets[idx + 1];
+    }
+
+    /**
+     * Get the user index of a precomputed neighbor.
+     *
+     * @param pos The neighbor position.
+     * @return The neighbor's user index.
+     */
+    public int getNeighbor(int pos) {
+        return neighborUsers[pos];
+    }
+
+    /**
+     * Get the similarity of a precomputed neighbor.
+     *
+     * @param pos The neighbor position.
+     * @return The neighbor's similarity to the user whose list contains it.
+     */
+    public double getNeighborScore(int pos) {
+        return neighborScores[pos];
+    }
+
+    /**
+     * Mean-center a rating vector and scale it to unit length.
+     *
+     * @param ratings The user's ratings.
+     * @return The user's unit vector.
+     */
+    public static UnitVector makeUnitVector(SparseVector ratings) {
+        final int n = ratings.size();
+        long[] is = new long[n];
+        double[] vs = new double[n];
+        double mean = n == 0 ? 0 : ratings.mean();
+        double ssq = 0;
+        long fingerprint = n;
+        int i = 0;
+        // sparse vectors iterate in key order, so the items come out sorted
+        for (VectorEntry e : ratings.fast()) {
+            is[i] = e.getKey();
+            fingerprint = fingerprint * 31 + e.getKey();
+            fingerprint = fingerprint * 31 + Double.doubleToLongBits(e.getValue());
+            vs[i] = e.getValue() - mean;
+            ssq += vs[i] * vs[i];
+            i++;
+        }
+        double norm = Math.sqrt(ssq);
+        if (norm > 0) {
+            for (int j = 0; j < n; j++) {
+                vs[j] /= norm;
+            }
+        }
+        return new UnitVector(is, vs, mean, norm, fingerprint);
+    }
+
+    /**
+     * A mean-centered rating vector scaled to unit length, for users who are scored against the
+     * model but whose ratings may not be in it.
+     */
+    public static final class UnitVector {
+        private final long[] items;
+        private final double[] values;
+        private final double mean;
+        private final double norm;
+        private final long fingerprint;
+
+        UnitVector(long[] is, double[] vs, double m, double nrm, long fp) {
+            items = is;
+            values = vs;
+            mean = m;
+            norm = nrm;
+            fingerprint = fp;
+        }
+
+        /**
+         * Get a fingerprint of the ratings this vector was made from.  Two profiles with the
+         * same ratings have the same fingerprint; a changed profile almost certainly does not.
+         *
+         * @return The profile fingerprint.
+         */
+        public long getFingerprint() {
+            return fingerprint;
+        }
+
+        long[] getItems() {
+            return items;
+        }
+
+        double[] getValues() {
+            return values;
+        }
+
+        /**
+         * Get the length of the mean-centered vector before it was scaled.
+         *
+         * @return The norm of the user's mean-centered ratings.
+         */
+        double getNorm() {
+            return norm;
+        }
+
+        /**
+         * Get the user's mean rating.
+         *
+         * @return The mean of the user's ratings.
+         */
+        public double getMean() {
+            return mean;
+        }
+    }
+}
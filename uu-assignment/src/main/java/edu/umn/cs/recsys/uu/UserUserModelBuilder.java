@@ -0,0 +1,172 @@
+package edu.umn.cs.recsys.uu;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.grouplens.lenskit.core.Transient;
+import org.grouplens.lenskit.cursors.Cursor;
+import org.grouplens.lenskit.data.dao.UserEventDAO;
+import org.grouplens.lenskit.data.event.Event;
+import org.grouplens.lenskit.data.history.RatingVectorUserHistorySummarizer;
+import org.grouplens.lenskit.data.history.UserHistory;
+import org.grouplens.lenskit.scored.ScoredId;
+import org.grouplens.lenskit.util.TopNScoredItemAccumulator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Build a user-user model from the users' rating histories.
+ *
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class UserUserModelBuilder implements Provider<UserUserModel> {
+    private static final Logger logger = LoggerFactory.getLogger(UserUserModelBuilder.class);
+
+    private final UserEventDAO userEventDao;
+    private final int modelSize;
+
+    @Inject
+    public UserUserModelBuilder(@Transient UserEventDAO uedao,
+                                @ModelSize int size) {
+        userEventDao = uedao;
+        modelSize = size;
+    }
+
+    @Override
+    public UserUserModel get() {
+        // Normalize each user's ratings
+        Map<Long, UserUserModel.UnitVector> vectors = new HashMap<Long, UserUserModel.UnitVector>();
+        LongOpenHashSet itemSet = new LongOpenHashSet();
+        Cursor<UserHistory<Event>> stream = userEventDao.streamEventsByUser();
+        try {
+            for (UserHistory<Event> evt : stream) {
+                UserUserModel.UnitVector vec =
+                        UserUserModel.makeUnitVector(RatingVectorUserHistorySummarizer.makeRatingVector(evt));
+                vectors.put(evt.getUserId(), vec);
+                for (long item : vec.getItems()) {
+                    itemSet.add(item);
+                }
+            }
+        } finally {
+            stream.close();
+        }
+
+        // Lay the user vectors out in order of user ID
+        final int nusers = vectors.size();
+        long[] users = new long[nusers];
+        int u = 0;
+        for (long user : vectors.keySet()) {
+            users[u++] = user;
+        }
+        Arrays.sort(users);
+        double[] means = new double[nusers];
+        double[] norms = new double[nusers];
+        long[] fingerprints = new long[nusers];
+        int[] userOffsets = new int[nusers + 1];
+        for (u = 0; u < nusers; u++) {
+            UserUserModel.UnitVector vec = vectors.get(users[u]);
+            means[u] = vec.getMean();
+            norms[u] = vec.getNorm();
+            fingerprints[u] = vec.getFingerprint();
+            userOffsets[u + 1] = userOffsets[u] + vec.getItems().length;
+        }
+        long[] userItems = new long[userOffsets[nusers]];
+        double[] userValues = new double[userOffsets[nusers]];
+        for (u = 0; u < nusers; u++) {
+            UserUserModel.UnitVector vec = vectors.get(users[u]);
+            System.arraycopy(vec.getItems(), 0, userItems, userOffsets[u], vec.getItems().length);
+            System.arraycopy(vec.getValues(), 0, userValues, userOffsets[u], vec.getValues().length);
+        }
+
+        // Invert the ratings into each item's raters
+        long[] items = itemSet.toLongArray();
+        Arrays.sort(items);
+        final int nitems = items.length;
+        int[] itemOffsets = new int[nitems + 1];
+        int[] itemPositions = new int[userItems.length];
+        for (int p = 0; p < userItems.length; p++) {
+            itemPositions[p] = Arrays.binarySearch(items, userItems[p]);
+            itemOffsets[itemPositions[p] + 1] += 1;
+        }
+        for (int i = 0; i < nitems; i++) {
+            itemOffsets[i + 1] += itemOffsets[i];
+        }
+        int[] itemUsers = new int[userItems.length];
+        double[] itemValues = new double[userItems.length];
+        double[] itemRatings = new double[userItems.length];
+        int[] fill = Arrays.copyOf(itemOffsets, nitems);
+        for (u = 0; u < nusers; u++) {
+            for (int p = userOffsets[u]; p < userOffsets[u + 1]; p++) {
+                int i = itemPositions[p];
+                itemUsers[fill[i]] = u;
+                itemValues[fill[i]] = userValues[p];
+                itemRatings[fill[i]] = userValues[p] * norms[u];
+                fill[i] += 1;
+            }
+        }
+        logger.info("built user-user vectors for {} users and {} items", nusers, nitems);
+
+        int[] nbrOffsets = null;
+        int[] nbrUsers = null;
+        float[] nbrScores = null;
+        if (modelSize > 0) {
+            nbrOffsets = new int[nusers + 1];
+            int[][] lists = new int[nusers][];
+            float[][] scores = new float[nusers][];
+            double[] dots = new double[nusers];
+            boolean[] seen = new boolean[nusers];
+            int[] touched = new int[nusers];
+            for (u = 0; u < nusers; u++) {
+                // accumulate dot products with every user who shares an item with u
+                int ntouched = 0;
+                for (int p = userOffsets[u]; p < userOffsets[u + 1]; p++) {
+                    int i = itemPositions[p];
+                    double value = userValues[p];
+                    for (int q = itemOffsets[i]; q < itemOffsets[i + 1]; q++) {
+                        int v = itemUsers[q];
+                        if (v != u) {
+                            if (!seen[v]) {
+                                seen[v] = true;
+                                touched[ntouched++] = v;
+                            }
+                            dots[v] += value * itemValues[q];
+                        }
+                    }
+                }
+                TopNScoredItemAccumulator accum = new TopNScoredItemAccumulator(modelSize);
+                for (int k = 0; k < ntouched; k++) {
+                    int v = touched[k];
+                    accum.put(v, dots[v]);
+                    dots[v] = 0;
+                    seen[v] = false;
+                }
+                List<ScoredId> nbrs = accum.finish();
+                lists[u] = new int[nbrs.size()];
+                scores[u] = new float[nbrs.size()];
+                int k = 0;
+                for (ScoredId nbr : nbrs) {
+                    lists[u][k] = (int) nbr.getId();
+                    scores[u][k] = (float) nbr.getScore();
+                    k++;
+                }
+                nbrOffsets[u + 1] = nbrOffsets[u] + k;
+            }
+            nbrUsers = new int[nbrOffsets[nusers]];
+            nbrScores = new float[nbrOffsets[nusers]];
+            for (u = 0; u < nusers; u++) {
+                System.arraycopy(lists[u], 0, nbrUsers, nbrOffsets[u], lists[u].length);
+                System.arraycopy(scores[u], 0, nbrScores, nbrOffsets[u], scores[u].length);
+            }
+            logger.info("precomputed {} neighbors for each user", modelSize);
+        }
+
+        return new UserUserModel(users, means, norms, fingerprints, userOffsets, userItems, userValues,
+                                 items, itemOffsets, itemUsers, itemRatings,
+                                 nbrOffsets, nbrUsers, nbrScores);
+    }
+}